@@ -0,0 +1,146 @@
+package org.godn.deployservice.build;
+
+import org.godn.deployservice.metrics.DeployMetrics;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Jobs this worker is running right now, with the futures and npm processes that belong to them,
+ * so a cancellation can stop all of it at once.
+ */
+@Component
+public class ActiveBuildRegistry {
+
+    private final Map<String, ActiveBuild> builds = new ConcurrentHashMap<>();
+
+    public ActiveBuild register(String deploymentId) {
+        ActiveBuild build = new ActiveBuild();
+        builds.put(deploymentId, build);
+        return build;
+    }
+
+    public void unregister(String deploymentId, ActiveBuild build) {
+        builds.remove(deploymentId, build);
+    }
+
+    /**
+     * Returns null if the deployment is not running on this worker.
+     */
+    public ActiveBuild get(String deploymentId) {
+        return builds.get(deploymentId);
+    }
+
+    public Map<String, ActiveBuild> snapshot() {
+        return Map.copyOf(builds);
+    }
+
+    /**
+     * Cancels the job if it runs here. Returns false if it does not.
+     */
+    public boolean cancel(String deploymentId) {
+        ActiveBuild build = builds.get(deploymentId);
+        if (build == null) return false;
+        build.cancel();
+        return true;
+    }
+
+    public static class ActiveBuild {
+        private final Set<CompletableFuture<?>> stages = ConcurrentHashMap.newKeySet();
+        private final Set<BuildSupervisor.Supervised> processes = ConcurrentHashMap.newKeySet();
+        private final ResourceUsage usage = new ResourceUsage();
+        private final FailureDigest failures = new FailureDigest();
+        private volatile boolean cancelled;
+        private volatile boolean stopped;
+        private volatile boolean interrupted;
+        private volatile String phase = DeployMetrics.PHASE_DOWNLOAD;
+
+        /**
+         * Registers a stage future; it is cancelled together with the job.
+         */
+        public <T> CompletableFuture<T> track(CompletableFuture<T> stage) {
+            stages.add(stage);
+            if (cancelled) stage.cancel(true);
+            return stage;
+        }
+
+        public void attach(BuildSupervisor.Supervised process) {
+            processes.add(process);
+            if (cancelled) process.terminate(true);
+            else if (stopped || interrupted) process.terminate(false);
+        }
+
+        public void detach(BuildSupervisor.Supervised process) {
+            processes.remove(process);
+        }
+
+        /**
+         * CPU, memory and I/O of the job's npm processes so far.
+         */
+        public ResourceUsage getUsage() {
+            return usage;
+        }
+
+        /**
+         * Error lines and the failing exit code of the job's npm phases so far.
+         */
+        public FailureDigest getFailures() {
+            return failures;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        public boolean isInterrupted() {
+            return interrupted;
+        }
+
+        /**
+         * True once the job was cancelled, interrupted or stopped: no new npm phase may start.
+         */
+        public boolean isStopping() {
+            return cancelled || interrupted || stopped;
+        }
+
+        /**
+         * The pipeline stage the job is in (download, build or upload).
+         */
+        public String getPhase() {
+            return phase;
+        }
+
+        public void enterPhase(String phase) {
+            this.phase = phase;
+        }
+
+        void cancel() {
+            cancelled = true;
+            // Kill the processes first, so nothing keeps writing into the work dir once the stages are released.
+            processes.forEach(process -> process.terminate(true));
+            stages.forEach(stage -> stage.cancel(true));
+        }
+
+        /**
+         * Stops whatever still runs of a job that has already ended (it timed out, or another stage failed):
+         * the npm processes get SIGTERM, then SIGKILL, and the stages are cancelled.
+         */
+        public void stop() {
+            stopped = true;
+            processes.forEach(process -> process.terminate(false));
+            stages.forEach(stage -> stage.cancel(true));
+        }
+
+        /**
+         * Stops the job so it can be handed to another worker: same as a timeout, but the job goes back to the queue.
+         */
+        public void interrupt() {
+            interrupted = true;
+            processes.forEach(process -> process.terminate(false));
+            stages.forEach(stage -> stage.cancel(true));
+        }
+    }
+}
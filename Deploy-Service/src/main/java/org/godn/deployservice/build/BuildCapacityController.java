@@ -0,0 +1,169 @@
+package org.godn.deployservice.build;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Decides how many builds may run at the same time on this worker.
+ *
+ * The ceiling comes from the cgroup CPU quota and memory limit. The current limit moves between
+ * the minimum and that ceiling: it shrinks when CPU or memory pressure (PSI) is high and grows
+ * back when there is headroom again. A build is only admitted when the memory it is expected to
+ * need is free, so the queue consumer keeps the job in Redis instead of starting a build that
+ * would OOM the container.
+ */
+@Component
+public class BuildCapacityController {
+    private static final Logger logger = LoggerFactory.getLogger(BuildCapacityController.class);
+
+    private static final long MB = 1024L * 1024L;
+
+    private final CgroupResources resources;
+    private final long memoryPerBuild;
+    private final long jvmReserve;
+    private final double cpusPerBuild;
+    private final int minBuilds;
+    private final int maxBuilds;
+    private final double cpuPressureHigh;
+    private final double memoryPressureHigh;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition slotFreed = lock.newCondition();
+    private int ceiling;
+    private int limit;
+    private int inUse;
+
+    public BuildCapacityController(
+            @Value("${build.capacity.cgroup-path:/sys/fs/cgroup}") String cgroupPath,
+            @Value("${build.capacity.memory-per-build-mb:700}") long memoryPerBuildMb,
+            @Value("${build.capacity.jvm-reserve-mb:500}") long jvmReserveMb,
+            @Value("${build.capacity.cpus-per-build:1.0}") double cpusPerBuild,
+            @Value("${build.capacity.min-builds:1}") int minBuilds,
+            @Value("${build.capacity.max-builds:4}") int maxBuilds,
+            @Value("${build.capacity.cpu-pressure-high:60}") double cpuPressureHigh,
+            @Value("${build.capacity.memory-pressure-high:10}") double memoryPressureHigh
+    ) {
+        this.resources = new CgroupResources(Paths.get(cgroupPath));
+        this.memoryPerBuild = memoryPerBuildMb * MB;
+        this.jvmReserve = jvmReserveMb * MB;
+        this.cpusPerBuild = cpusPerBuild;
+        this.minBuilds = Math.max(1, minBuilds);
+        this.maxBuilds = Math.max(this.minBuilds, maxBuilds);
+        this.cpuPressureHigh = cpuPressureHigh;
+        this.memoryPressureHigh = memoryPressureHigh;
+
+        this.ceiling = computeCeiling();
+        this.limit = ceiling;
+        logger.info("Build capacity: {} concurrent build(s) (cpu limit {}, memory limit {} MB)",
+                limit, resources.cpuLimit(), resources.memoryLimit() / MB);
+    }
+
+    /**
+     * Blocks until a build may start. Re-checks memory every second, since it can free up
+     * without any build finishing.
+     */
+    public void acquire() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (!canAdmit()) {
+                slotFreed.await(1, TimeUnit.SECONDS);
+            }
+            inUse++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void release() {
+        lock.lock();
+        try {
+            inUse = Math.max(0, inUse - 1);
+            slotFreed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Re-reads the cgroup and moves the limit by one step towards what the container can take.
+     */
+    @Scheduled(fixedDelayString = "${build.capacity.adjust-interval-ms:5000}")
+    public void adjust() {
+        double cpuPressure = resources.cpuPressure();
+        double memoryPressure = resources.memoryPressure();
+
+        lock.lock();
+        try {
+            ceiling = computeCeiling();
+            int previous = limit;
+
+            if (cpuPressure >= cpuPressureHigh || memoryPressure >= memoryPressureHigh) {
+                limit = Math.max(minBuilds, limit - 1);
+            } else if (cpuPressure < cpuPressureHigh / 2 && memoryPressure < memoryPressureHigh / 2
+                    && hasMemoryFor(limit + 1)) {
+                limit = Math.min(ceiling, limit + 1);
+            }
+            limit = Math.min(limit, ceiling);
+
+            if (limit != previous) {
+                logger.info("Build capacity changed {} -> {} (cpu pressure {}%, memory pressure {}%)",
+                        previous, limit, cpuPressure, memoryPressure);
+                slotFreed.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public int getInUse() {
+        return inUse;
+    }
+
+    /**
+     * Upper bound for the limit, used to size the build thread pool.
+     */
+    public int getMaxBuilds() {
+        return maxBuilds;
+    }
+
+    private boolean canAdmit() {
+        if (inUse >= limit) return false;
+        // Always let one build through, otherwise a small container would never build anything.
+        if (inUse == 0) return true;
+        return hasMemoryFor(inUse + 1);
+    }
+
+    /**
+     * True if the container has room for the given number of builds. Running builds are counted
+     * at their expected size even if they have not grown that large yet.
+     */
+    private boolean hasMemoryFor(int builds) {
+        long memoryLimit = resources.memoryLimit();
+        long expected = jvmReserve + builds * memoryPerBuild;
+        if (expected > memoryLimit) return false;
+
+        long usage = resources.memoryUsage();
+        if (usage < 0) return true;
+        long committed = Math.max(usage, jvmReserve + (long) inUse * memoryPerBuild);
+        return memoryLimit - committed >= (builds - inUse) * memoryPerBuild;
+    }
+
+    private int computeCeiling() {
+        int byCpu = (int) Math.floor(resources.cpuLimit() / cpusPerBuild);
+        int byMemory = (int) ((resources.memoryLimit() - jvmReserve) / memoryPerBuild);
+        int value = Math.min(maxBuilds, Math.min(byCpu, byMemory));
+        return Math.max(minBuilds, value);
+    }
+}
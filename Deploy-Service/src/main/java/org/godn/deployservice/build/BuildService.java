@@ -2,171 +2,283 @@ package org.godn.deployservice.build;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import org.godn.deployservice.log.BuildLog;
-import org.godn.deployservice.log.BuildLogRepository;
-import org.godn.deployservice.download.BuildUploadService;
+import io.micrometer.core.instrument.Timer;
+import org.godn.deployservice.build.strategy.BuildPlan;
+import org.godn.deployservice.build.strategy.BuildStrategyRegistry;
+import org.godn.deployservice.build.strategy.ProjectManifest;
+import org.godn.deployservice.log.BuildLogSink;
+import org.godn.deployservice.metrics.DeployMetrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.Duration;
 import java.time.LocalDateTime;
-import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeoutException;
 
 @Service
 public class BuildService {
     private static final Logger logger = LoggerFactory.getLogger(BuildService.class);
 
-    private static final int DB_BATCH_SIZE = 100; // Save 100 lines at a time
+    private static final Duration LOG_FLUSH_TIMEOUT = Duration.ofSeconds(30);
+    // Room for the 5000 characters the log sink keeps, in UTF-8.
+    private static final int MAX_LOG_LINE_BYTES = 20_000;
+    private static final List<String> LIFECYCLE_SCRIPTS = List.of("preinstall", "install", "postinstall", "prepare");
+    private static final List<String> DEPENDENCY_FIELDS =
+            List.of("dependencies", "devDependencies", "optionalDependencies", "peerDependencies");
+    // Version specs that point into the project tree instead of the registry.
+    private static final List<String> LOCAL_SPEC_PREFIXES = List.of("file:", "link:", "./", "../", "/", "~/");
+
+    private final BuildLogSink buildLogSink;
+    private final DeployMetrics deployMetrics;
+    private final ActiveBuildRegistry activeBuilds;
+    private final BuildSupervisor supervisor;
+    private final DependencyCache dependencyCache;
+    private final FrameworkCache frameworkCache;
+    private final BuildStrategyRegistry buildStrategies;
+    private final Duration installTimeout;
+    private final Duration buildTimeout;
+
+    public BuildService(
+            BuildLogSink buildLogSink,
+            DeployMetrics deployMetrics,
+            ActiveBuildRegistry activeBuilds,
+            BuildSupervisor supervisor,
+            DependencyCache dependencyCache,
+            FrameworkCache frameworkCache,
+            BuildStrategyRegistry buildStrategies,
+            @Value("${build.timeout.install-minutes:10}") long installTimeoutMinutes,
+            @Value("${build.timeout.build-minutes:10}") long buildTimeoutMinutes
+    ) {
+        this.buildLogSink = buildLogSink;
+        this.deployMetrics = deployMetrics;
+        this.activeBuilds = activeBuilds;
+        this.supervisor = supervisor;
+        this.dependencyCache = dependencyCache;
+        this.frameworkCache = frameworkCache;
+        this.buildStrategies = buildStrategies;
+        this.installTimeout = Duration.ofMinutes(installTimeoutMinutes);
+        this.buildTimeout = Duration.ofMinutes(buildTimeoutMinutes);
+    }
+
+    /**
+     * Runs the npm build and returns the static output directory.
+     * Uploading it is a separate pipeline stage, so the build slot is free while it uploads.
+     */
+    public Path buildReactApp(Path projectDir, String deploymentId, Map<String, String> environmentVariables) throws Exception {
+        logger.info("Starting Build for deployment: {}", deploymentId);
 
-    private final BuildUploadService buildUploadService;
-    private final BuildLogRepository buildLogRepository;
+        Path buildDir = getStaticBuildDirectory(projectDir);
+        logger.info("Detected static build output directory: {}", buildDir.getFileName());
 
-    public BuildService(BuildUploadService buildUploadService, BuildLogRepository buildLogRepository) {
-        this.buildUploadService = buildUploadService;
-        this.buildLogRepository = buildLogRepository;
+        // Install and build run as separate processes so each phase is timed on its own.
+        withBuildLogs(deploymentId, () -> {
+            restoreOrInstall(projectDir, deploymentId, environmentVariables);
+            runBuild(projectDir, deploymentId, environmentVariables);
+        });
+        return checkBuildOutput(buildDir);
     }
 
-    public void buildReactApp(Path projectDir, String deploymentId, Map<String, String> environmentVariables) throws Exception {
-        logger.info("Starting Build for deployment: {}", deploymentId);
+    /**
+     * Install step on its own, for the pipeline that installs while the rest of the source is still downloading.
+     */
+    public void installDependencies(Path projectDir, String deploymentId, Map<String, String> environmentVariables) throws Exception {
+        withBuildLogs(deploymentId, () -> restoreOrInstall(projectDir, deploymentId, environmentVariables));
+    }
+
+    /**
+     * Build step for a project whose dependencies were installed by {@link #installDependencies(Path, String, Map)}.
+     */
+    public Path buildInstalledApp(Path projectDir, String deploymentId, Map<String, String> environmentVariables) throws Exception {
+        logger.info("Starting Build for deployment: {} (dependencies already installed)", deploymentId);
 
         Path buildDir = getStaticBuildDirectory(projectDir);
         logger.info("Detected static build output directory: {}", buildDir.getFileName());
 
-        // Run the build with the non-blocking logger
-        runLocalNpmBuild(projectDir, deploymentId, environmentVariables);
+        withBuildLogs(deploymentId, () -> runBuild(projectDir, deploymentId, environmentVariables));
+        return checkBuildOutput(buildDir);
+    }
+
+    /**
+     * True if the install only needs the manifests: there must be a package.json, with
+     * - no lifecycle script (preinstall, install, postinstall, prepare) that could read other project files,
+     *   e.g. patch-package
+     * - no workspaces, whose package.json files npm ci reads from their directories
+     * - no dependency installed from the project tree (file:, link: or a relative path)
+     */
+    public boolean canInstallEarly(Path projectDir) {
+        Path packageJson = projectDir.resolve("package.json");
+        if (!Files.isRegularFile(packageJson)) return false;
+        try {
+            JsonNode manifest = new ObjectMapper().readTree(packageJson.toFile());
+            JsonNode scripts = manifest.path("scripts");
+            if (LIFECYCLE_SCRIPTS.stream().anyMatch(scripts::has)) return false;
+            if (manifest.has("workspaces")) return false;
+            return DEPENDENCY_FIELDS.stream().noneMatch(field -> hasLocalDependency(manifest.path(field)));
+        } catch (IOException e) {
+            return false;
+        }
+    }
 
+    private static boolean hasLocalDependency(JsonNode dependencies) {
+        for (JsonNode spec : dependencies) {
+            String version = spec.asText("");
+            if (LOCAL_SPEC_PREFIXES.stream().anyMatch(version::startsWith)) return true;
+        }
+        return false;
+    }
+
+    private static Path checkBuildOutput(Path buildDir) {
         if (!Files.exists(buildDir)) {
             throw new RuntimeException("Build folder not found after Build: " + buildDir.toAbsolutePath());
         }
         logger.info("✅ Build completed successfully.");
+        return buildDir;
+    }
 
+    private interface NpmSteps {
+        void run() throws IOException, InterruptedException, TimeoutException;
+    }
+
+    /**
+     * Runs the steps, then waits until their output is stored, so the log is complete before the status changes.
+     */
+    private void withBuildLogs(String deploymentId, NpmSteps steps) throws IOException, InterruptedException, TimeoutException {
         try {
-            String destinationPrefix = "live-sites/" + deploymentId;
-            logger.info("Uploading artifacts to R2: {}", destinationPrefix);
-            buildUploadService.uploadBuildDirectory(buildDir, destinationPrefix).join();
-            logger.info("🚀 Successfully deployed site!");
-        } catch (Exception e) {
-            logger.error("Failed to upload build artifacts to R2", e);
-            throw new RuntimeException("Build succeeded but upload failed", e);
+            steps.run();
+        } finally {
+            if (!buildLogSink.flush(deploymentId, LOG_FLUSH_TIMEOUT)) {
+                logger.warn("Build logs were not fully stored within {} seconds", LOG_FLUSH_TIMEOUT.toSeconds());
+            }
         }
     }
 
-    private void runLocalNpmBuild(Path projectDir, String deploymentId, Map<String, String> envVars) throws IOException, InterruptedException {
-        Process process = getBuildProcess(projectDir, envVars);
+    private void runBuild(Path projectDir, String deploymentId, Map<String, String> envVars)
+            throws IOException, InterruptedException, TimeoutException {
+        // Warm start for Next/Vite/Babel: restored after the install, which would wipe node_modules/.cache.
+        boolean warm = frameworkCache.restore(deploymentId, projectDir);
+        deployMetrics.recordCacheLookup(DeployMetrics.CACHE_FRAMEWORK, warm);
+        if (warm) buildLogSink.append(deploymentId, "♻️ Build cache restored from the previous deployment.");
 
-        // --- ASYNC LOGGING SETUP ---
-        // A thread-safe queue to hold logs in memory temporarily
-        BlockingQueue<BuildLog> logQueue = new LinkedBlockingQueue<>();
-        AtomicBoolean isProcessRunning = new AtomicBoolean(true);
-
-        // Start a background thread to drain the queue and save to DB
-        CompletableFuture<Void> logSaverTask = CompletableFuture.runAsync(() -> {
-            processLogQueue(logQueue, isProcessRunning);
-        });
+        runNpmPhase(DeployMetrics.PHASE_BUILD, "npm run build", buildTimeout, projectDir, deploymentId, envVars);
+        frameworkCache.save(deploymentId, projectDir);
+    }
 
-        // --- MAIN THREAD: READ FAST ---
-        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                // 1. Log to console immediately
-                logger.info("[npm-build] {}", line);
-
-                // 2. Add to Queue (Instant operation)
-                // This ensures we never block the npm process
-                logQueue.offer(BuildLog.builder()
-                        .deploymentId(deploymentId)
-                        .content(line)
-                        .timestamp(LocalDateTime.now())
-                        .build());
+    /**
+     * Takes node_modules from the dependency cache when the lockfile was built before, otherwise runs
+     * the install and caches its result for the next build.
+     */
+    private void restoreOrInstall(Path projectDir, String deploymentId, Map<String, String> envVars)
+            throws IOException, InterruptedException, TimeoutException {
+        String cacheKey = dependencyCache.keyFor(projectDir);
+        if (cacheKey != null) {
+            Timer.Sample timer = deployMetrics.startTimer();
+            ActiveBuildRegistry.ActiveBuild activeBuild = activeBuilds.get(deploymentId);
+            boolean hit = dependencyCache.restore(cacheKey, projectDir,
+                    () -> activeBuild != null && activeBuild.isStopping());
+            deployMetrics.recordCacheLookup(DeployMetrics.CACHE_DEPENDENCIES, hit);
+            if (hit) {
+                deployMetrics.recordPhase(DeployMetrics.PHASE_INSTALL, timer, true);
+                logger.info("📦 Restored node_modules from cache for deployment {}", deploymentId);
+                buildLogSink.append(deploymentId, "📦 Dependencies restored from cache (package-lock.json unchanged).");
+                return;
             }
-        } catch (Exception e) {
-            logger.error("Error reading build logs", e);
-        } finally {
-            // Signal the background thread to stop after emptying the queue
-            isProcessRunning.set(false);
         }
 
-        // Wait for the process to finish
-        int exitCode = process.waitFor();
-
-        // Wait for the log saver to finish writing the remaining logs to DB
-        try {
-            logSaverTask.join();
-        } catch (Exception e) {
-            logger.warn("Log saver thread encountered an issue", e);
-        }
-
-        if (exitCode != 0) {
-            throw new RuntimeException("Local npm build failed with exit code " + exitCode);
-        }
+        runNpmPhase(DeployMetrics.PHASE_INSTALL, getInstallCommand(projectDir), installTimeout, projectDir, deploymentId, envVars);
+        // Stored before the build runs, so nothing the build writes into node_modules ends up in the cache.
+        if (cacheKey != null) dependencyCache.store(cacheKey, projectDir);
     }
 
     /**
-     * Background task that batches DB writes.
+     * Runs one npm command under the supervisor. The phase only returns once its whole process tree is gone,
+     * including anything npm spawned in the background.
      */
-    private void processLogQueue(BlockingQueue<BuildLog> queue, AtomicBoolean isRunning) {
-        List<BuildLog> batch = new ArrayList<>(DB_BATCH_SIZE);
-
-        // Keep running while the process is alive OR there are still logs in the queue
-        while (isRunning.get() || !queue.isEmpty()) {
-            try {
-                // Poll with a small timeout to prevent tight CPU loops when empty
-                BuildLog log = queue.poll(100, TimeUnit.MILLISECONDS);
-
-                if (log != null) {
-                    batch.add(log);
-                }
-
-                // Flush if batch is full OR if process finished and we have leftovers
-                if (batch.size() >= DB_BATCH_SIZE || (log == null && !batch.isEmpty())) {
-                    buildLogRepository.saveAll(batch);
-                    batch.clear();
-                }
+    private void runNpmPhase(String phase, String command, Duration timeout, Path projectDir, String deploymentId,
+                             Map<String, String> envVars)
+            throws IOException, InterruptedException, TimeoutException {
+        ActiveBuildRegistry.ActiveBuild activeBuild = activeBuilds.get(deploymentId);
+        if (activeBuild != null && activeBuild.isStopping()) {
+            throw new CancellationException("Deployment " + deploymentId + " was stopped before npm " + phase);
+        }
+
+        Timer.Sample timer = deployMetrics.startTimer();
+        boolean success = false;
+        BuildSupervisor.Supervised supervised = null;
+        try {
+            Process process = getBuildProcess(command, projectDir, envVars);
+            supervised = supervisor.supervise(process, timeout, activeBuild != null ? activeBuild.getUsage() : null);
+            // Registered so a cancellation can kill the whole process tree.
+            if (activeBuild != null) activeBuild.attach(supervised);
+
+            // --- MAIN THREAD: READ FAST ---
+            try (InputStream output = process.getInputStream()) {
+                FailureDigest failures = activeBuild != null ? activeBuild.getFailures() : null;
+                new OutputCapture(MAX_LOG_LINE_BYTES).capture(output, line -> {
+                    // 1. Echo to the console only when debugging; the build log is the record
+                    logger.debug("[npm-{}] {}", phase, line);
+
+                    // 2. Hand over to the log sink; it only waits if its buffer is full and the policy says block.
+                    // Error lines go into the failure digest once the sink has given them their line number.
+                    String signature = failures != null ? FailureSignatures.match(line) : null;
+                    if (signature == null) {
+                        buildLogSink.append(deploymentId, line);
+                    } else {
+                        buildLogSink.append(deploymentId, line, LocalDateTime.now(),
+                                number -> failures.record(number, signature, line));
+                    }
+                });
             } catch (Exception e) {
-                logger.error("Failed to save log batch", e);
-                // Don't crash the thread, just clear buffer and try to continue
-                batch.clear();
+                logger.error("Error reading build logs", e);
+            }
+
+            // Wait for the process to finish
+            int exitCode = process.waitFor();
+            if (supervised.timedOut()) {
+                throw new TimeoutException("Local npm " + phase + " exceeded " + timeout.toMinutes() + " minutes");
+            }
+            if (exitCode != 0) {
+                if (activeBuild != null) activeBuild.getFailures().exited(phase, exitCode);
+                throw new RuntimeException("Local npm " + phase + " failed with exit code " + exitCode);
             }
+            success = true;
+        } finally {
+            if (supervised != null) {
+                if (activeBuild != null) activeBuild.detach(supervised);
+                supervised.awaitReleased();
+            }
+            deployMetrics.recordPhase(phase, timer, success);
         }
     }
 
     // ... (getStaticBuildDirectory, getBuildProcess, deleteDirectory methods remain UNCHANGED) ...
     // Paste the rest of the existing methods here...
 
-    private static Process getBuildProcess(Path projectDir, Map<String, String> environmentVariables) throws IOException {
-
+    private static String getInstallCommand(Path projectDir) {
         // 1. Check if package-lock.json exists
         boolean hasLockFile = Files.exists(projectDir.resolve("package-lock.json"));
 
-        String installCommand;
-
         if (hasLockFile) {
             // Use 'npm ci' for clean, faster installs
             logger.info("Detected package-lock.json. Using 'npm ci' for faster, reliable build.");
-            installCommand = "npm ci --legacy-peer-deps --no-audit --no-fund";
-        } else {
-            // ⚠️ FALLBACK: Use 'npm install'
-            logger.warn("No package-lock.json found. Falling back to 'npm install'.");
-            installCommand = "npm install --legacy-peer-deps --no-progress --no-audit --no-fund";
+            return "npm ci --legacy-peer-deps --no-audit --no-fund";
         }
+        // ⚠️ FALLBACK: Use 'npm install'
+        logger.warn("No package-lock.json found. Falling back to 'npm install'.");
+        return "npm install --legacy-peer-deps --no-progress --no-audit --no-fund";
+    }
 
-        // 2. Construct the full command chain
-        String command = installCommand + " && npm run build";
-
+    private static Process getBuildProcess(String command, Path projectDir, Map<String, String> environmentVariables) throws IOException {
         ProcessBuilder processBuilder = new ProcessBuilder("sh", "-c", command);
         processBuilder.directory(projectDir.toFile());
 
@@ -183,46 +295,9 @@ public class BuildService {
     }
 
     private Path getStaticBuildDirectory(Path projectDir) throws IOException {
-        // ... (Use your existing code here) ...
-        Path packageJsonPath = projectDir.resolve("package.json");
-        if (!Files.exists(packageJsonPath)) {
-            throw new RuntimeException("package.json not found in project directory.");
-        }
-
-        ObjectMapper mapper = new ObjectMapper();
-        JsonNode root = mapper.readTree(packageJsonPath.toFile());
-        String buildScript = root.path("scripts").path("build").asText();
-
-        if (buildScript.contains("next build")) {
-            boolean isStaticExport = false;
-            Path nextConfigJs = projectDir.resolve("next.config.js");
-            Path nextConfigMjs = projectDir.resolve("next.config.mjs");
-            try {
-                String configContent = "";
-                if (Files.exists(nextConfigJs)) {
-                    configContent = Files.readString(nextConfigJs);
-                } else if (Files.exists(nextConfigMjs)) {
-                    configContent = Files.readString(nextConfigMjs);
-                }
-                if (configContent.contains("output") && configContent.contains("export")) {
-                    isStaticExport = true;
-                }
-            } catch (IOException e) {
-                logger.warn("Could not read next.config.js: {}", e.getMessage());
-            }
-            if (isStaticExport) {
-                return projectDir.resolve("out");
-            } else {
-                throw new RuntimeException("Unsupported Build Type: This service only deploys static sites. Please add 'output: \"export\"' to your next.config.js.");
-            }
-        } else if (buildScript.contains("vite build")) {
-            return projectDir.resolve("dist");
-        } else if (buildScript.contains("react-scripts build")) {
-            return projectDir.resolve("build");
-        } else {
-            logger.warn("Could not determine build type. Falling back to 'build' folder.");
-            return projectDir.resolve("build");
-        }
+        BuildPlan plan = buildStrategies.resolve(ProjectManifest.read(projectDir));
+        logger.info("Detected build strategy: {}", plan.strategy());
+        return projectDir.resolve(plan.outputDirectory());
     }
 
     public void deleteDirectory(File dir) throws IOException {
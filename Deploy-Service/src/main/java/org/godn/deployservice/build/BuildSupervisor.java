@@ -0,0 +1,172 @@
+package org.godn.deployservice.build;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches the npm processes of a build. Every PID below the "sh -c" process is remembered while it runs,
+ * so children that outlive the shell can still be found. When a phase runs out of time, or when the
+ * build is stopped, the whole tree gets SIGTERM and, after a grace period, SIGKILL. A build only
+ * returns its slot after {@link Supervised#awaitReleased()} has confirmed that nothing is left running.
+ * The same sampler reads the tree's counters from /proc into the build's {@link ResourceUsage}.
+ */
+@Component
+public class BuildSupervisor {
+    private static final Logger logger = LoggerFactory.getLogger(BuildSupervisor.class);
+
+    private static final long SAMPLE_INTERVAL_MS = 1000;
+
+    private final ScheduledExecutorService scheduler;
+    private final Duration killGrace;
+    private final ProcFs procFs;
+
+    public BuildSupervisor(
+            @Qualifier("supervisorExecutor") ScheduledExecutorService scheduler,
+            @Value("${build.timeout.kill-grace-seconds:10}") long killGraceSeconds,
+            @Value("${build.profile.proc-root:/proc}") String procRoot
+    ) {
+        this.scheduler = scheduler;
+        this.killGrace = Duration.ofSeconds(killGraceSeconds);
+        this.procFs = new ProcFs(Paths.get(procRoot));
+    }
+
+    /**
+     * Starts watching the process. It is stopped once the timeout is reached.
+     */
+    public Supervised supervise(Process process, Duration timeout) {
+        return supervise(process, timeout, null);
+    }
+
+    /**
+     * Same, and adds what the process tree uses to usage (may be null).
+     */
+    public Supervised supervise(Process process, Duration timeout, ResourceUsage usage) {
+        return new Supervised(process, timeout, usage);
+    }
+
+    public class Supervised implements AutoCloseable {
+        private final ProcessHandle root;
+        private final Set<ProcessHandle> known = ConcurrentHashMap.newKeySet();
+        private final ScheduledFuture<?> sampler;
+        private final ScheduledFuture<?> watchdog;
+        private final ResourceUsage usage;
+        private volatile boolean timedOut;
+
+        private Supervised(Process process, Duration timeout, ResourceUsage usage) {
+            this.root = process.toHandle();
+            this.usage = usage;
+            this.sampler = scheduler.scheduleWithFixedDelay(this::sample, 0, SAMPLE_INTERVAL_MS, TimeUnit.MILLISECONDS);
+            this.watchdog = scheduler.schedule(() -> {
+                timedOut = true;
+                logger.warn("⏱️ Process {} exceeded its {} minute budget. Stopping it.", root.pid(), timeout.toMinutes());
+                terminate(false);
+            }, timeout.toMillis(), TimeUnit.MILLISECONDS);
+        }
+
+        public boolean timedOut() {
+            return timedOut;
+        }
+
+        /**
+         * Stops the process tree: SIGTERM, then SIGKILL for whatever is still alive after the grace period.
+         * With force the tree gets SIGKILL right away.
+         */
+        public void terminate(boolean force) {
+            sample();
+            List<ProcessHandle> tree = tree();
+            if (force) {
+                tree.forEach(ProcessHandle::destroyForcibly);
+                return;
+            }
+            tree.forEach(ProcessHandle::destroy);
+            scheduler.schedule(() -> tree.stream().filter(ProcessHandle::isAlive).forEach(ProcessHandle::destroyForcibly),
+                    killGrace.toMillis(), TimeUnit.MILLISECONDS);
+        }
+
+        /**
+         * Waits until the process and everything it started are gone. Children left behind by a process that
+         * already exited are stopped first. Called before the build slot is handed back.
+         */
+        public void awaitReleased() throws InterruptedException {
+            if (root.isAlive()) terminate(false);
+            waitForExit(List.of(root), killGrace.plusSeconds(5));
+            sampler.cancel(false);
+            watchdog.cancel(false);
+
+            // Anything a leftover started after the shell exited is no longer below the root.
+            known.stream().filter(ProcessHandle::isAlive).toList()
+                    .forEach(handle -> handle.descendants().forEach(known::add));
+            List<ProcessHandle> leftovers = alive(known);
+            if (leftovers.isEmpty()) return;
+
+            logger.warn("Stopping {} process(es) left behind by process {}", leftovers.size(), root.pid());
+            leftovers.forEach(ProcessHandle::destroy);
+            waitForExit(leftovers, killGrace);
+
+            List<ProcessHandle> stubborn = alive(leftovers);
+            stubborn.forEach(ProcessHandle::destroyForcibly);
+            waitForExit(stubborn, Duration.ofSeconds(5));
+
+            List<ProcessHandle> survivors = alive(stubborn);
+            if (!survivors.isEmpty()) {
+                logger.error("❌ {} process(es) still alive after SIGKILL: {}", survivors.size(),
+                        survivors.stream().map(ProcessHandle::pid).toList());
+            }
+        }
+
+        @Override
+        public void close() throws InterruptedException {
+            awaitReleased();
+        }
+
+        private void sample() {
+            if (root.isAlive()) root.descendants().forEach(known::add);
+            if (usage != null) {
+                List<ProcFs.ProcSample> tree = new ArrayList<>();
+                for (ProcessHandle handle : tree()) {
+                    ProcFs.ProcSample sample = procFs.read(handle.pid());
+                    if (sample != null) tree.add(sample);
+                }
+                usage.record(tree);
+            }
+        }
+
+        private List<ProcessHandle> tree() {
+            // Children first, so the shell does not notice and exit before they are signalled.
+            List<ProcessHandle> tree = new ArrayList<>(alive(known));
+            tree.add(root);
+            return tree;
+        }
+    }
+
+    private static List<ProcessHandle> alive(Collection<ProcessHandle> handles) {
+        return handles.stream().filter(ProcessHandle::isAlive).toList();
+    }
+
+    private static void waitForExit(List<ProcessHandle> handles, Duration budget) throws InterruptedException {
+        long deadline = System.nanoTime() + budget.toNanos();
+        for (ProcessHandle handle : handles) {
+            try {
+                handle.onExit().get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                throw e;
+            } catch (Exception e) {
+                // Still running; the caller decides what to do with it.
+            }
+        }
+    }
+}
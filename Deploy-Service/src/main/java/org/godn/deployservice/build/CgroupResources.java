@@ -0,0 +1,138 @@
+package org.godn.deployservice.build;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Reads limits, usage and pressure (PSI) of the container's cgroup v2.
+ * Every value falls back to what the JVM can see when the file is missing
+ * (cgroup v1 hosts, a developer laptop, or a kernel without PSI).
+ */
+public class CgroupResources {
+    private static final Logger logger = LoggerFactory.getLogger(CgroupResources.class);
+
+    private final Path root;
+
+    public CgroupResources(Path root) {
+        this.root = root;
+    }
+
+    /**
+     * CPU cores the container may use, from cpu.max ("quota period" or "max period").
+     */
+    public double cpuLimit() {
+        String value = read("cpu.max");
+        if (value != null) {
+            String[] parts = value.trim().split("\\s+");
+            if (parts.length == 2 && !"max".equals(parts[0])) {
+                try {
+                    return Double.parseDouble(parts[0]) / Double.parseDouble(parts[1]);
+                } catch (NumberFormatException e) {
+                    logger.warn("Could not parse cpu.max: {}", value);
+                }
+            }
+        }
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Memory limit of the container in bytes, from memory.max.
+     */
+    public long memoryLimit() {
+        String value = read("memory.max");
+        if (value != null && !"max".equals(value.trim())) {
+            try {
+                return Long.parseLong(value.trim());
+            } catch (NumberFormatException e) {
+                logger.warn("Could not parse memory.max: {}", value);
+            }
+        }
+        return physicalMemory();
+    }
+
+    /**
+     * Working set in bytes (memory.current minus reclaimable inactive page cache), or -1 if unknown.
+     */
+    public long memoryUsage() {
+        String current = read("memory.current");
+        if (current == null) return -1;
+        try {
+            long usage = Long.parseLong(current.trim());
+            return Math.max(0, usage - statValue("inactive_file"));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Share of the last 10 seconds (in percent) in which some tasks were stalled on CPU.
+     */
+    public double cpuPressure() {
+        return pressure("cpu.pressure");
+    }
+
+    /**
+     * Share of the last 10 seconds (in percent) in which some tasks were stalled on memory.
+     */
+    public double memoryPressure() {
+        return pressure("memory.pressure");
+    }
+
+    private double pressure(String file) {
+        String value = read(file);
+        if (value == null) return 0;
+        // Format: "some avg10=1.23 avg60=0.50 avg300=0.10 total=12345"
+        for (String line : value.split("\\R")) {
+            if (!line.startsWith("some")) continue;
+            for (String field : line.split("\\s+")) {
+                if (field.startsWith("avg10=")) {
+                    try {
+                        return Double.parseDouble(field.substring("avg10=".length()));
+                    } catch (NumberFormatException e) {
+                        return 0;
+                    }
+                }
+            }
+        }
+        return 0;
+    }
+
+    private long statValue(String key) {
+        String stat = read("memory.stat");
+        if (stat == null) return 0;
+        for (String line : stat.split("\\R")) {
+            if (line.startsWith(key + " ")) {
+                try {
+                    return Long.parseLong(line.substring(key.length() + 1).trim());
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+        return 0;
+    }
+
+    private String read(String file) {
+        Path path = root.resolve(file);
+        if (!Files.isReadable(path)) return null;
+        try {
+            List<String> lines = Files.readAllLines(path);
+            return String.join("\n", lines);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static long physicalMemory() {
+        if (ManagementFactory.getOperatingSystemMXBean() instanceof com.sun.management.OperatingSystemMXBean os) {
+            return os.getTotalMemorySize();
+        }
+        return Runtime.getRuntime().maxMemory();
+    }
+}
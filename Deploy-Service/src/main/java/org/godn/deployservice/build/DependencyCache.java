@@ -0,0 +1,328 @@
+package org.godn.deployservice.build;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystemException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Stream;
+
+/**
+ * Local cache of installed node_modules, addressed by the hash of package-lock.json, the dependency
+ * sections of package.json, and the Node version and platform (native modules are built for both).
+ * npm ci refuses a package.json that no longer matches the lockfile; with the sections in the key such a
+ * project misses the cache and gets that error, instead of building against the modules of the old one.
+ *
+ * Layout: {dir}/{key}/node_modules and {dir}/{key}/.size (bytes of the entry). The modification time
+ * of {dir}/{key} is its last use. A hit copies the entry into the project, as a reflink (copy-on-write
+ * clone, which takes seconds even for large trees) where the file system supports it; a miss runs npm ci
+ * and copies the result in. Entries are copied both ways, never linked, so nothing the build runs
+ * (patch scripts, postbuild steps, bundlers writing in place) can change a cached file and with it the
+ * node_modules of every later project with the same lockfile. Least recently used entries are evicted
+ * once the cache is over its byte budget.
+ */
+@Component
+public class DependencyCache {
+    private static final Logger logger = LoggerFactory.getLogger(DependencyCache.class);
+
+    private static final String NODE_MODULES = "node_modules";
+    private static final String SIZE_FILE = ".size";
+    private static final String STAGING_PREFIX = ".staging-";
+    private static final Duration STALE_STAGING_AGE = Duration.ofHours(1);
+    private static final long MB = 1024L * 1024L;
+    private static final Duration CLONE_TIMEOUT = Duration.ofMinutes(5);
+    private static final long STOP_CHECK_INTERVAL_MS = 500;
+    private static final List<String> DEPENDENCY_FIELDS =
+            List.of("dependencies", "devDependencies", "optionalDependencies", "peerDependencies", "overrides");
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final Path root;
+    private final long maxBytes;
+    private final boolean enabled;
+    private final Object evictionLock = new Object();
+    private volatile String nodeVersion;
+
+    public DependencyCache(
+            @Value("${build.cache.dir:${user.home}/vercel-cache/node_modules}") String dir,
+            @Value("${build.cache.max-size-mb:5120}") long maxSizeMb,
+            @Value("${build.cache.enabled:true}") boolean enabled
+    ) {
+        this.root = Paths.get(dir);
+        this.maxBytes = maxSizeMb * MB;
+        this.enabled = enabled;
+    }
+
+    /**
+     * Returns the cache key for the project, or null if it cannot be cached
+     * (cache disabled, no package-lock.json, in which case npm install is not reproducible, or a package.json
+     * that is not valid JSON).
+     */
+    public String keyFor(Path projectDir) throws IOException {
+        if (!enabled) return null;
+        Path lockFile = projectDir.resolve("package-lock.json");
+        if (!Files.isRegularFile(lockFile)) return null;
+
+        MessageDigest digest = sha256();
+        digest.update(Files.readAllBytes(lockFile));
+        Path packageJson = projectDir.resolve("package.json");
+        if (Files.isRegularFile(packageJson)) {
+            JsonNode manifest;
+            try {
+                manifest = objectMapper.readTree(packageJson.toFile());
+            } catch (JsonProcessingException e) {
+                return null;
+            }
+            for (String field : DEPENDENCY_FIELDS) {
+                digest.update(("\n" + field + ":" + manifest.path(field)).getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        String runtime = "\n" + nodeVersion() + "\n" + System.getProperty("os.name") + "-" + System.getProperty("os.arch");
+        digest.update(runtime.getBytes(StandardCharsets.UTF_8));
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * Puts the cached node_modules into the project. Returns false on a miss, or if the entry
+     * could not be used (e.g. it was evicted meanwhile); the project is left without node_modules then.
+     */
+    public boolean restore(String key, Path projectDir) {
+        return restore(key, projectDir, () -> false);
+    }
+
+    /**
+     * Same, and gives up as soon as stopping is true (the build was cancelled or is being handed back),
+     * once the copy has stopped writing into the project.
+     */
+    public boolean restore(String key, Path projectDir, BooleanSupplier stopping) {
+        Path entry = root.resolve(key);
+        Path cached = entry.resolve(NODE_MODULES);
+        if (!Files.isDirectory(cached)) return false;
+
+        Path target = projectDir.resolve(NODE_MODULES);
+        try {
+            if (!cloneTree(cached, target, stopping)) {
+                deleteQuietly(target);
+                if (!stopping.getAsBoolean()) copyTree(cached, target, stopping);
+            }
+            if (stopping.getAsBoolean()) {
+                deleteQuietly(target);
+                return false;
+            }
+            Files.setLastModifiedTime(entry, FileTime.from(Instant.now()));
+            return true;
+        } catch (IOException e) {
+            logger.warn("Could not restore node_modules from cache entry {}: {}", key, e.getMessage());
+            deleteQuietly(target);
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            deleteQuietly(target);
+            return false;
+        }
+    }
+
+    /**
+     * Copies the freshly installed node_modules of the project into the cache, then evicts old entries.
+     * Failures are only logged: the build itself does not depend on the cache.
+     */
+    public void store(String key, Path projectDir) {
+        Path source = projectDir.resolve(NODE_MODULES);
+        Path entry = root.resolve(key);
+        if (!Files.isDirectory(source) || Files.exists(entry)) return;
+
+        Path staging = root.resolve(STAGING_PREFIX + key + "-" + UUID.randomUUID());
+        try {
+            Files.createDirectories(staging);
+            long bytes = copyTree(source, staging.resolve(NODE_MODULES), () -> false);
+            Files.writeString(staging.resolve(SIZE_FILE), Long.toString(bytes));
+            // A rename is atomic, so a concurrent restore never sees a half-written entry.
+            Files.move(staging, entry, StandardCopyOption.ATOMIC_MOVE);
+            logger.info("📦 Cached node_modules ({} MB) under key {}", bytes / MB, key);
+        } catch (FileSystemException e) {
+            // Usually another build with the same lockfile stored the entry first.
+            if (!Files.exists(entry)) logger.warn("Could not cache node_modules: {}", e.getMessage());
+        } catch (IOException e) {
+            logger.warn("Could not cache node_modules: {}", e.getMessage());
+        } finally {
+            deleteQuietly(staging);
+        }
+        evict();
+    }
+
+    /**
+     * Removes least recently used entries until the cache fits its budget. The newest entry always stays.
+     */
+    void evict() {
+        synchronized (evictionLock) {
+            List<Entry> entries = new ArrayList<>();
+            try (Stream<Path> children = Files.list(root)) {
+                for (Path child : children.toList()) {
+                    String name = child.getFileName().toString();
+                    if (name.startsWith(STAGING_PREFIX)) {
+                        // Left behind by a worker that died while storing.
+                        if (isOlderThan(child, STALE_STAGING_AGE)) deleteQuietly(child);
+                        continue;
+                    }
+                    if (Files.isDirectory(child)) entries.add(new Entry(child, sizeOf(child), lastUsed(child)));
+                }
+            } catch (IOException e) {
+                logger.warn("Could not list dependency cache: {}", e.getMessage());
+                return;
+            }
+
+            entries.sort(Comparator.comparing(Entry::lastUsed));
+            long total = entries.stream().mapToLong(Entry::bytes).sum();
+            for (int i = 0; i < entries.size() - 1 && total > maxBytes; i++) {
+                Entry oldest = entries.get(i);
+                deleteQuietly(oldest.path());
+                total -= oldest.bytes();
+                logger.info("Evicted node_modules cache entry {} ({} MB)", oldest.path().getFileName(), oldest.bytes() / MB);
+            }
+        }
+    }
+
+    private String nodeVersion() {
+        String version = nodeVersion;
+        if (version != null) return version;
+        try {
+            Process process = new ProcessBuilder("node", "--version").redirectErrorStream(true).start();
+            try (InputStream out = process.getInputStream()) {
+                version = new String(out.readAllBytes(), StandardCharsets.UTF_8).trim();
+            }
+            if (!process.waitFor(10, TimeUnit.SECONDS) || process.exitValue() != 0) version = "unknown";
+        } catch (IOException e) {
+            version = "unknown";
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return "unknown";
+        }
+        nodeVersion = version;
+        return version;
+    }
+
+    /**
+     * Copies the tree with cp --reflink=auto, which clones the files where the file system supports it
+     * (Btrfs, XFS) and copies them elsewhere. Returns false if cp is not there, failed, took too long or was
+     * stopped; the caller then copies the tree itself, unless it was stopped. cp runs outside the build
+     * supervisor, so it is polled here and killed (and waited for) once stopping turns true.
+     */
+    private static boolean cloneTree(Path source, Path target, BooleanSupplier stopping) throws InterruptedException {
+        Process process;
+        try {
+            process = new ProcessBuilder("cp", "-a", "--reflink=auto", source.toString(), target.toString())
+                    .redirectErrorStream(true)
+                    .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                    .start();
+        } catch (IOException e) {
+            return false;
+        }
+        long deadline = System.nanoTime() + CLONE_TIMEOUT.toNanos();
+        while (!process.waitFor(STOP_CHECK_INTERVAL_MS, TimeUnit.MILLISECONDS)) {
+            if (stopping.getAsBoolean() || System.nanoTime() > deadline) {
+                process.destroyForcibly();
+                // Nothing may still be writing into the project once this returns.
+                process.waitFor(10, TimeUnit.SECONDS);
+                return false;
+            }
+        }
+        return process.exitValue() == 0;
+    }
+
+    /**
+     * Copies the tree and returns the number of bytes of its regular files. Ends early once stopping is true.
+     */
+    private static long copyTree(Path source, Path target, BooleanSupplier stopping) throws IOException {
+        AtomicLong bytes = new AtomicLong();
+        Files.walkFileTree(source, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                if (stopping.getAsBoolean()) return FileVisitResult.TERMINATE;
+                Files.createDirectories(target.resolve(source.relativize(dir).toString()));
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.copy(file, target.resolve(source.relativize(file).toString()),
+                        StandardCopyOption.COPY_ATTRIBUTES, LinkOption.NOFOLLOW_LINKS);
+                if (attrs.isRegularFile()) bytes.addAndGet(attrs.size());
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return bytes.get();
+    }
+
+    private static long sizeOf(Path entry) {
+        try {
+            return Long.parseLong(Files.readString(entry.resolve(SIZE_FILE)).trim());
+        } catch (IOException | NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static Instant lastUsed(Path entry) {
+        try {
+            return Files.getLastModifiedTime(entry).toInstant();
+        } catch (IOException e) {
+            return Instant.EPOCH;
+        }
+    }
+
+    private static boolean isOlderThan(Path path, Duration age) {
+        return lastUsed(path).isBefore(Instant.now().minus(age));
+    }
+
+    private static void deleteQuietly(Path path) {
+        if (!Files.exists(path, LinkOption.NOFOLLOW_LINKS)) return;
+        try (Stream<Path> walk = Files.walk(path)) {
+            walk.sorted(Comparator.reverseOrder()).forEach(p -> {
+                try {
+                    Files.deleteIfExists(p);
+                } catch (IOException ignored) {
+                    // Best effort; eviction tries again next time.
+                }
+            });
+        } catch (IOException e) {
+            logger.warn("Could not delete {}: {}", path, e.getMessage());
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private record Entry(Path path, long bytes, Instant lastUsed) {
+    }
+}
@@ -0,0 +1,45 @@
+package org.godn.deployservice.build;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * The failure signatures seen in one job's output, with the numbers of their lines in the stored log,
+ * and the exit code of the npm phase that failed. Lines are numbered by the log writer, so entries arrive
+ * from its thread.
+ */
+public class FailureDigest {
+    // Enough to show what broke; a build with a thousand type errors does not need a thousand entries.
+    static final int MAX_ENTRIES = 50;
+
+    public record Entry(long line, String kind, String text) {
+    }
+
+    private final List<Entry> entries = new ArrayList<>();
+    private String failedPhase;
+    private Integer exitCode;
+
+    public synchronized void record(long line, String kind, String text) {
+        if (entries.size() < MAX_ENTRIES) entries.add(new Entry(line, kind, text));
+    }
+
+    public synchronized void exited(String phase, int exitCode) {
+        this.failedPhase = phase;
+        this.exitCode = exitCode;
+    }
+
+    public synchronized List<Entry> entries() {
+        List<Entry> sorted = new ArrayList<>(entries);
+        sorted.sort(Comparator.comparingLong(Entry::line));
+        return sorted;
+    }
+
+    public synchronized String failedPhase() {
+        return failedPhase;
+    }
+
+    public synchronized Integer exitCode() {
+        return exitCode;
+    }
+}
@@ -0,0 +1,40 @@
+package org.godn.deployservice.build;
+
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Recognises the lines of npm output that say why a build failed, so they can be listed without the rest of the log.
+ */
+public final class FailureSignatures {
+    public static final String NPM = "npm";
+    public static final String TYPESCRIPT = "typescript";
+    public static final String BUNDLER = "bundler";
+    public static final String SYNTAX = "syntax";
+
+    public record Signature(String kind, Pattern pattern) {
+    }
+
+    // First match wins. Kept cheap: every line of every build goes through this.
+    private static final List<Signature> SIGNATURES = List.of(
+            new Signature(NPM, Pattern.compile("^npm (ERR!|error) ")),
+            new Signature(TYPESCRIPT, Pattern.compile("error TS\\d+:|^Type error: ")),
+            new Signature(BUNDLER, Pattern.compile("^(ERROR in |Module not found: |Failed to compile|error during build:|\\[vite]: Rollup failed)")),
+            new Signature(SYNTAX, Pattern.compile("^(SyntaxError|ReferenceError|TypeError): "))
+    );
+
+    private FailureSignatures() {
+    }
+
+    /**
+     * The kind of failure the line reports, or null for an ordinary line.
+     */
+    public static String match(String line) {
+        // Nearly every line is ordinary; every signature contains one of these, which is much cheaper to look for.
+        if (!line.contains("rror") && !line.contains("ERR") && !line.contains("ailed") && !line.contains("not found")) return null;
+        for (Signature signature : SIGNATURES) {
+            if (signature.pattern().matcher(line).find()) return signature.kind();
+        }
+        return null;
+    }
+}
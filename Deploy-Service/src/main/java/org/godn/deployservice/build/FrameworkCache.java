@@ -0,0 +1,241 @@
+package org.godn.deployservice.build;
+
+import org.godn.deployservice.storage.S3DownloadService;
+import org.godn.deployservice.storage.S3UploadService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Keeps the incremental caches of the frameworks (.next/cache, Vite's pre-bundled deps, babel-loader and
+ * friends under node_modules/.cache) from one deployment of a project to the next. After a successful
+ * build they are zipped to {dir}/{projectId}.zip and restored before the next "npm run build".
+ *
+ * With r2-enabled the archive is also copied to R2 (build-cache/{projectId}.zip), so a worker that never
+ * built the project, or lost its disk, can still start warm. Local archives are evicted least recently
+ * used first once they take more than max-size-mb.
+ */
+@Component
+public class FrameworkCache {
+    private static final Logger logger = LoggerFactory.getLogger(FrameworkCache.class);
+
+    // Relative to the project directory.
+    static final List<String> CACHE_DIRS = List.of(".next/cache", "node_modules/.vite", "node_modules/.cache");
+
+    private static final String R2_PREFIX = "build-cache/";
+    private static final Pattern SAFE_ID = Pattern.compile("[A-Za-z0-9_-]+");
+    private static final long MB = 1024L * 1024L;
+
+    private final Path root;
+    private final long maxBytes;
+    private final long maxArchiveBytes;
+    private final boolean enabled;
+    private final boolean r2Enabled;
+    private final S3UploadService s3UploadService;
+    private final S3DownloadService s3DownloadService;
+    private final ExecutorService uploadExecutor;
+    private final Object evictionLock = new Object();
+
+    public FrameworkCache(
+            @Value("${build.framework-cache.dir:${user.home}/vercel-cache/framework}") String dir,
+            @Value("${build.framework-cache.max-size-mb:2048}") long maxSizeMb,
+            @Value("${build.framework-cache.max-archive-mb:500}") long maxArchiveMb,
+            @Value("${build.framework-cache.enabled:true}") boolean enabled,
+            @Value("${build.framework-cache.r2-enabled:false}") boolean r2Enabled,
+            S3UploadService s3UploadService,
+            S3DownloadService s3DownloadService,
+            @Qualifier("uploadExecutor") ExecutorService uploadExecutor
+    ) {
+        this.root = Paths.get(dir);
+        this.maxBytes = maxSizeMb * MB;
+        this.maxArchiveBytes = maxArchiveMb * MB;
+        this.enabled = enabled;
+        this.r2Enabled = r2Enabled;
+        this.s3UploadService = s3UploadService;
+        this.s3DownloadService = s3DownloadService;
+        this.uploadExecutor = uploadExecutor;
+    }
+
+    /**
+     * Unpacks the caches of the project's previous build into the project. Returns false if there are none.
+     * A broken archive is deleted and the build simply starts cold.
+     */
+    public boolean restore(String projectId, Path projectDir) {
+        if (!enabled || !SAFE_ID.matcher(projectId).matches()) return false;
+        Path archive = archiveFor(projectId);
+        if (!Files.exists(archive) && r2Enabled) fetchFromR2(projectId, archive);
+        if (!Files.exists(archive)) return false;
+
+        try {
+            unzip(archive, projectDir);
+            Files.setLastModifiedTime(archive, FileTime.from(Instant.now()));
+            return true;
+        } catch (IOException e) {
+            logger.warn("Could not restore build cache of {}: {}", projectId, e.getMessage());
+            deleteQuietly(archive);
+            return false;
+        }
+    }
+
+    /**
+     * Zips whichever cache directories the build produced. Failures are only logged.
+     */
+    public void save(String projectId, Path projectDir) {
+        if (!enabled || !SAFE_ID.matcher(projectId).matches()) return;
+        List<Path> dirs = CACHE_DIRS.stream().map(projectDir::resolve).filter(Files::isDirectory).toList();
+        if (dirs.isEmpty()) return;
+
+        Path archive = archiveFor(projectId);
+        Path staging = root.resolve(".staging-" + projectId + "-" + UUID.randomUUID() + ".zip");
+        try {
+            Files.createDirectories(root);
+            zip(projectDir, dirs, staging);
+            long size = Files.size(staging);
+            if (size > maxArchiveBytes) {
+                logger.info("Build cache of {} is {} MB, over the {} MB limit. Not saved.", projectId, size / MB, maxArchiveBytes / MB);
+                return;
+            }
+            Files.move(staging, archive, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            logger.info("♻️ Saved build cache of {} ({} MB)", projectId, size / MB);
+        } catch (IOException e) {
+            logger.warn("Could not save build cache of {}: {}", projectId, e.getMessage());
+            return;
+        } finally {
+            deleteQuietly(staging);
+        }
+
+        if (r2Enabled) {
+            // Off the build thread: the slot should not wait for R2.
+            uploadExecutor.execute(() -> {
+                try {
+                    s3UploadService.uploadFileToR2(R2_PREFIX + projectId + ".zip", archive.toString());
+                } catch (Exception e) {
+                    logger.warn("Could not copy build cache of {} to R2: {}", projectId, e.getMessage());
+                }
+            });
+        }
+        evict();
+    }
+
+    void evict() {
+        synchronized (evictionLock) {
+            List<Path> archives;
+            try (Stream<Path> children = Files.list(root)) {
+                archives = new ArrayList<>(children
+                        .filter(p -> p.getFileName().toString().endsWith(".zip"))
+                        .filter(p -> !p.getFileName().toString().startsWith(".staging-"))
+                        .toList());
+            } catch (IOException e) {
+                return;
+            }
+
+            archives.sort(Comparator.comparing(FrameworkCache::lastUsed));
+            long total = archives.stream().mapToLong(FrameworkCache::sizeOf).sum();
+            for (int i = 0; i < archives.size() - 1 && total > maxBytes; i++) {
+                Path oldest = archives.get(i);
+                total -= sizeOf(oldest);
+                deleteQuietly(oldest);
+                logger.info("Evicted build cache {}", oldest.getFileName());
+            }
+        }
+    }
+
+    private void fetchFromR2(String projectId, Path archive) {
+        String key = R2_PREFIX + projectId + ".zip";
+        try {
+            if (!s3DownloadService.listObjectKeys(key).contains(key)) return;
+            Path staging = root.resolve(".staging-" + projectId + "-" + UUID.randomUUID() + ".zip");
+            try {
+                s3DownloadService.downloadFileFromR2(key, staging.toString());
+                Files.move(staging, archive, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                deleteQuietly(staging);
+            }
+        } catch (Exception e) {
+            logger.warn("Could not fetch build cache of {} from R2: {}", projectId, e.getMessage());
+        }
+    }
+
+    private Path archiveFor(String projectId) {
+        return root.resolve(projectId + ".zip");
+    }
+
+    private static void zip(Path projectDir, List<Path> dirs, Path target) throws IOException {
+        try (ZipOutputStream out = new ZipOutputStream(new BufferedOutputStream(Files.newOutputStream(target)))) {
+            // Much of a build cache is already compressed; favour speed.
+            out.setLevel(Deflater.BEST_SPEED);
+            for (Path dir : dirs) {
+                try (Stream<Path> files = Files.walk(dir)) {
+                    for (Path file : files.filter(Files::isRegularFile).toList()) {
+                        out.putNextEntry(new ZipEntry(projectDir.relativize(file).toString().replace('\\', '/')));
+                        Files.copy(file, out);
+                        out.closeEntry();
+                    }
+                }
+            }
+        }
+    }
+
+    private static void unzip(Path archive, Path projectDir) throws IOException {
+        Path base = projectDir.toAbsolutePath().normalize();
+        try (ZipInputStream in = new ZipInputStream(Files.newInputStream(archive))) {
+            ZipEntry entry;
+            while ((entry = in.getNextEntry()) != null) {
+                Path target = base.resolve(entry.getName()).normalize();
+                if (!target.startsWith(base)) throw new IOException("Entry outside the project: " + entry.getName());
+                if (entry.isDirectory()) {
+                    Files.createDirectories(target);
+                    continue;
+                }
+                Files.createDirectories(target.getParent());
+                Files.copy(in, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+    }
+
+    private static Instant lastUsed(Path path) {
+        try {
+            return Files.getLastModifiedTime(path).toInstant();
+        } catch (IOException e) {
+            return Instant.EPOCH;
+        }
+    }
+
+    private static long sizeOf(Path path) {
+        try {
+            return Files.size(path);
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private static void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            logger.warn("Could not delete {}: {}", path, e.getMessage());
+        }
+    }
+}
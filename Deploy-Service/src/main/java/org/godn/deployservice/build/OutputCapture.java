@@ -0,0 +1,119 @@
+package org.godn.deployservice.build;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Consumer;
+
+/**
+ * Turns the raw output of a build process into log lines without a String per read or per redraw:
+ * - bytes are read into one reusable buffer and scanned in place, into one reusable line buffer
+ * - a carriage return not followed by a newline starts the line over, as on a terminal, so a progress bar
+ *   redrawn a thousand times becomes the one line it was left at; a run of them counts as one
+ * - ANSI escape sequences (colours, cursor movement, window titles) are dropped
+ * - a line is decoded only once it is complete; bytes past maxLineBytes are cut at the last whole character
+ *   and the line ends with TRUNCATED
+ * Lines that held nothing but escape sequences or redraws are skipped; genuinely empty lines are kept.
+ * Not thread-safe: one capture per process.
+ */
+final class OutputCapture {
+    private static final int READ_BUFFER_SIZE = 8192;
+    private static final byte ESC = 0x1B;
+    private static final byte BEL = 0x07;
+    static final String TRUNCATED = "…";
+
+    private enum State { TEXT, ESCAPE, CSI, OSC }
+
+    private final byte[] line;
+    private int length;
+    // The line had bytes of its own, even if nothing is left of them after cleaning.
+    private boolean hadContent;
+    // Bytes were cut off the end of the line.
+    private boolean truncated;
+    private boolean pendingReturn;
+    private State state = State.TEXT;
+
+    OutputCapture(int maxLineBytes) {
+        this.line = new byte[maxLineBytes];
+    }
+
+    /**
+     * Reads the stream to its end, handing over every line. The last line need not end with a newline.
+     */
+    void capture(InputStream in, Consumer<String> lines) throws IOException {
+        byte[] buffer = new byte[READ_BUFFER_SIZE];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            for (int i = 0; i < read; i++) accept(buffer[i], lines);
+        }
+        if (length > 0) endLine(lines);
+    }
+
+    private void accept(byte b, Consumer<String> lines) {
+        if (pendingReturn) {
+            // \r\r\n is still one line end (e.g. a tool writing \r\n through a terminal that adds another \r).
+            if (b == '\r') return;
+            pendingReturn = false;
+            if (b == '\n') {
+                endLine(lines);
+                return;
+            }
+            // A bare carriage return: what follows draws over the line.
+            length = 0;
+            hadContent = false;
+            truncated = false;
+        }
+        if (b == '\n') {
+            endLine(lines);
+            return;
+        }
+        if (b == '\r') {
+            pendingReturn = true;
+            return;
+        }
+
+        hadContent = true;
+        switch (state) {
+            case TEXT -> {
+                if (b == ESC) state = State.ESCAPE;
+                else if (length < line.length) line[length++] = b;
+                else truncated = true;
+            }
+            // ESC [ starts a control sequence, ESC ] an operating system command; anything else is a two-byte escape.
+            case ESCAPE -> state = b == '[' ? State.CSI : b == ']' ? State.OSC : State.TEXT;
+            case CSI -> {
+                if (b >= 0x40 && b <= 0x7E) state = State.TEXT;
+            }
+            // Ends with BEL, or with ESC \ (which the ESCAPE state consumes).
+            case OSC -> {
+                if (b == BEL) state = State.TEXT;
+                else if (b == ESC) state = State.ESCAPE;
+            }
+        }
+    }
+
+    private void endLine(Consumer<String> lines) {
+        if (truncated) {
+            lines.accept(new String(line, 0, wholeCharacters(), StandardCharsets.UTF_8) + TRUNCATED);
+        } else if (length > 0 || !hadContent) {
+            lines.accept(new String(line, 0, length, StandardCharsets.UTF_8));
+        }
+        length = 0;
+        hadContent = false;
+        truncated = false;
+        state = State.TEXT;
+    }
+
+    /**
+     * The length of the line without a UTF-8 sequence the cut went through, which would decode to U+FFFD.
+     */
+    private int wholeCharacters() {
+        int start = length;
+        // Back over continuation bytes (10xxxxxx) to the byte that starts the last character.
+        while (start > 0 && start > length - 4 && (line[start - 1] & 0xC0) == 0x80) start--;
+        if (start == 0) return length;
+        int lead = line[start - 1] & 0xFF;
+        int size = lead >= 0xF0 ? 4 : lead >= 0xE0 ? 3 : lead >= 0xC0 ? 2 : 1;
+        return start - 1 + size > length ? start - 1 : length;
+    }
+}
@@ -0,0 +1,72 @@
+package org.godn.deployservice.build;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Reads the counters of a single process from /proc/{pid}/stat, status and io.
+ * Linux only; elsewhere, or once the process is gone, there is simply nothing to read.
+ */
+public class ProcFs {
+
+    // USER_HZ. Fixed at 100 on every Linux architecture we deploy to.
+    static final long CLOCK_TICKS_PER_SECOND = 100;
+
+    private final Path root;
+
+    public ProcFs(Path root) {
+        this.root = root;
+    }
+
+    /**
+     * Returns null if the process has exited or /proc is not readable.
+     */
+    public ProcSample read(long pid) {
+        Path dir = root.resolve(Long.toString(pid));
+        try {
+            // The command name in field 2 may contain spaces and parentheses; the fields we want follow the last ')'.
+            String stat = Files.readString(dir.resolve("stat"));
+            String[] fields = stat.substring(stat.lastIndexOf(')') + 2).trim().split("\\s+");
+            long cpuTicks = Long.parseLong(fields[11]) + Long.parseLong(fields[12]); // utime + stime
+
+            long rssBytes = 0;
+            for (String line : Files.readAllLines(dir.resolve("status"))) {
+                if (line.startsWith("VmRSS:")) rssBytes = kilobytes(line) * 1024;
+            }
+
+            long readBytes = 0;
+            long writeBytes = 0;
+            // Not readable for processes of another user, and missing on kernels without task I/O accounting.
+            Path io = dir.resolve("io");
+            if (Files.isReadable(io)) {
+                List<String> lines = Files.readAllLines(io);
+                for (String line : lines) {
+                    if (line.startsWith("read_bytes:")) readBytes = value(line);
+                    else if (line.startsWith("write_bytes:")) writeBytes = value(line);
+                }
+            }
+            return new ProcSample(pid, rssBytes, cpuTicks, readBytes, writeBytes);
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static long kilobytes(String line) {
+        return Long.parseLong(line.substring(line.indexOf(':') + 1).trim().split("\\s+")[0]);
+    }
+
+    private static long value(String line) {
+        return Long.parseLong(line.substring(line.indexOf(':') + 1).trim());
+    }
+
+    /**
+     * @param rssBytes   resident memory right now
+     * @param cpuTicks   user + system CPU time so far, in clock ticks
+     * @param readBytes  bytes the process caused to be read from storage so far
+     * @param writeBytes bytes the process caused to be written to storage so far
+     */
+    public record ProcSample(long pid, long rssBytes, long cpuTicks, long readBytes, long writeBytes) {
+    }
+}
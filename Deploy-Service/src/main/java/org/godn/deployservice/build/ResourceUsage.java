@@ -0,0 +1,44 @@
+package org.godn.deployservice.build;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * What the npm processes of one build used, summed over all its phases. Fed by the supervisor's sampler:
+ * peak RSS is the largest total of the tree seen in one sample; CPU time and I/O are the last counters
+ * seen for every process. A process that exits between two samples loses what it did since the last one,
+ * so short-lived processes are under-counted by up to one sample interval.
+ */
+public class ResourceUsage {
+
+    private final Map<Long, ProcFs.ProcSample> lastSeen = new HashMap<>();
+    private long peakRssBytes;
+    private int samples;
+
+    public synchronized void record(List<ProcFs.ProcSample> tree) {
+        if (tree.isEmpty()) return;
+        long rss = 0;
+        for (ProcFs.ProcSample sample : tree) {
+            rss += sample.rssBytes();
+            lastSeen.put(sample.pid(), sample);
+        }
+        peakRssBytes = Math.max(peakRssBytes, rss);
+        samples++;
+    }
+
+    public synchronized Totals totals() {
+        long cpuTicks = 0;
+        long readBytes = 0;
+        long writeBytes = 0;
+        for (ProcFs.ProcSample sample : lastSeen.values()) {
+            cpuTicks += sample.cpuTicks();
+            readBytes += sample.readBytes();
+            writeBytes += sample.writeBytes();
+        }
+        return new Totals(peakRssBytes, (double) cpuTicks / ProcFs.CLOCK_TICKS_PER_SECOND, readBytes, writeBytes, samples);
+    }
+
+    public record Totals(long peakRssBytes, double cpuSeconds, long readBytes, long writeBytes, int samples) {
+    }
+}
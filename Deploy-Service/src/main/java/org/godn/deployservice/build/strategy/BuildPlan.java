@@ -0,0 +1,10 @@
+package org.godn.deployservice.build.strategy;
+
+/**
+ * How a project gets built.
+ *
+ * @param strategy        name of the strategy that recognised the project
+ * @param outputDirectory static output, relative to the project
+ */
+public record BuildPlan(String strategy, String outputDirectory) {
+}
@@ -0,0 +1,18 @@
+package org.godn.deployservice.build.strategy;
+
+/**
+ * Knows one kind of project: how to recognise it and where its static output ends up.
+ * Strategies are Spring beans; the registry asks them in @Order.
+ */
+public interface BuildStrategy {
+
+    String name();
+
+    boolean matches(ProjectManifest manifest);
+
+    /**
+     * Output directory relative to the project. Throws {@link UnsupportedBuildException}
+     * if the project is of this kind but cannot be served statically.
+     */
+    String outputDirectory(ProjectManifest manifest);
+}
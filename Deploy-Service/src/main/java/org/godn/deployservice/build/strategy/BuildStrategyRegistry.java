@@ -0,0 +1,36 @@
+package org.godn.deployservice.build.strategy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * Picks the build strategy for a project. A new framework only needs another {@link BuildStrategy} bean.
+ */
+@Component
+public class BuildStrategyRegistry {
+    private static final Logger logger = LoggerFactory.getLogger(BuildStrategyRegistry.class);
+
+    static final String FALLBACK_OUTPUT = "build";
+
+    private final List<BuildStrategy> strategies;
+
+    public BuildStrategyRegistry(List<BuildStrategy> strategies) {
+        this.strategies = strategies;
+    }
+
+    /**
+     * Throws {@link UnsupportedBuildException} if the matching strategy rejects the project.
+     */
+    public BuildPlan resolve(ProjectManifest manifest) {
+        for (BuildStrategy strategy : strategies) {
+            if (strategy.matches(manifest)) {
+                return new BuildPlan(strategy.name(), strategy.outputDirectory(manifest));
+            }
+        }
+        logger.warn("Could not determine build type. Falling back to '{}' folder.", FALLBACK_OUTPUT);
+        return new BuildPlan("unknown", FALLBACK_OUTPUT);
+    }
+}
@@ -0,0 +1,24 @@
+package org.godn.deployservice.build.strategy;
+
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+@Component
+@Order(30)
+public class CreateReactAppStrategy implements BuildStrategy {
+
+    @Override
+    public String name() {
+        return "create-react-app";
+    }
+
+    @Override
+    public boolean matches(ProjectManifest manifest) {
+        return manifest.buildScript().contains("react-scripts build");
+    }
+
+    @Override
+    public String outputDirectory(ProjectManifest manifest) {
+        return "build";
+    }
+}
@@ -0,0 +1,31 @@
+package org.godn.deployservice.build.strategy;
+
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+/**
+ * Next.js, which is only static with output: "export".
+ */
+@Component
+@Order(10)
+public class NextExportStrategy implements BuildStrategy {
+
+    @Override
+    public String name() {
+        return "next-export";
+    }
+
+    @Override
+    public boolean matches(ProjectManifest manifest) {
+        return manifest.buildScript().contains("next build");
+    }
+
+    @Override
+    public String outputDirectory(ProjectManifest manifest) {
+        String config = manifest.config(ProjectManifest.CONFIG_FILES.toArray(String[]::new));
+        if (config.contains("output") && config.contains("export")) {
+            return "out";
+        }
+        throw new UnsupportedBuildException("Unsupported Build Type: This service only deploys static sites. Please add 'output: \"export\"' to your next.config.js.");
+    }
+}
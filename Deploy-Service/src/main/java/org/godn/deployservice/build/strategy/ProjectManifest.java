@@ -0,0 +1,59 @@
+package org.godn.deployservice.build.strategy;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * What a build strategy looks at: package.json and the framework config files. Read from the work dir,
+ * or fetched from R2 before anything else is downloaded.
+ *
+ * @param packageJson parsed package.json
+ * @param configFiles contents of the config files that exist, by file name
+ */
+public record ProjectManifest(JsonNode packageJson, Map<String, String> configFiles) {
+
+    // Every config file a strategy may want to read.
+    public static final List<String> CONFIG_FILES = List.of(
+            "next.config.js", "next.config.mjs", "next.config.cjs", "next.config.ts");
+
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    public String buildScript() {
+        return packageJson.path("scripts").path("build").asText();
+    }
+
+    /**
+     * Content of the first of the given config files that exists, or "" if none does.
+     */
+    public String config(String... names) {
+        for (String name : names) {
+            String content = configFiles.get(name);
+            if (content != null) return content;
+        }
+        return "";
+    }
+
+    public static ProjectManifest parse(String packageJson, Map<String, String> configFiles) throws IOException {
+        return new ProjectManifest(objectMapper.readTree(packageJson), configFiles);
+    }
+
+    public static ProjectManifest read(Path projectDir) throws IOException {
+        Path packageJsonPath = projectDir.resolve("package.json");
+        if (!Files.exists(packageJsonPath)) {
+            throw new UnsupportedBuildException("package.json not found in project directory.");
+        }
+        Map<String, String> configs = new LinkedHashMap<>();
+        for (String name : CONFIG_FILES) {
+            Path config = projectDir.resolve(name);
+            if (Files.isRegularFile(config)) configs.put(name, Files.readString(config));
+        }
+        return parse(Files.readString(packageJsonPath), configs);
+    }
+}
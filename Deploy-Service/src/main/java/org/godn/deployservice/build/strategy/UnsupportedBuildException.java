@@ -0,0 +1,10 @@
+package org.godn.deployservice.build.strategy;
+
+/**
+ * The project cannot be deployed by this service. The message is shown to the user.
+ */
+public class UnsupportedBuildException extends RuntimeException {
+    public UnsupportedBuildException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,24 @@
+package org.godn.deployservice.build.strategy;
+
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+@Component
+@Order(20)
+public class ViteStrategy implements BuildStrategy {
+
+    @Override
+    public String name() {
+        return "vite";
+    }
+
+    @Override
+    public boolean matches(ProjectManifest manifest) {
+        return manifest.buildScript().contains("vite build");
+    }
+
+    @Override
+    public String outputDirectory(ProjectManifest manifest) {
+        return "dist";
+    }
+}
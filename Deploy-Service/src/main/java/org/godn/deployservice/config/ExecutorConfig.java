@@ -1,30 +1,80 @@
 package org.godn.deployservice.config;
 
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import org.godn.deployservice.build.BuildCapacityController;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @Configuration
 public class ExecutorConfig {
 
+    /**
+     * One thread runs the blocking queue consumer, the other runs heartbeats and orphan recovery.
+     */
     @Bean(name = "redisTaskExecutor")
     public ScheduledExecutorService taskExecutor(){
-        return Executors.newSingleThreadScheduledExecutor();
+        return Executors.newScheduledThreadPool(2);
+    }
+
+    /**
+     * Samples npm process trees and fires the per-phase timeouts. The tasks are tiny, so two threads are plenty.
+     */
+    @Bean("supervisorExecutor")
+    public ScheduledExecutorService supervisorExecutor() {
+        return Executors.newScheduledThreadPool(2);
+    }
+
+    /**
+     * Network stage: fetches the project source from R2. Threads mostly wait on I/O,
+     * so this pool is larger than the number of builds.
+     */
+    @Bean("downloadExecutor")
+    public ExecutorService downloadExecutor(@Value("${pipeline.download-threads:8}") int threads, MeterRegistry registry) {
+        return ExecutorServiceMetrics.monitor(registry, Executors.newFixedThreadPool(threads), "download");
+    }
+
+    /**
+     * Runs the blocking per-object R2 transfers of downloads and uploads (see TransferEngine), so they neither
+     * land on the common pool nor queue behind the stage tasks that wait for them. The engine keeps at most
+     * transfer.max-concurrency of them running, so the pool is sized to that. Threads are named s3-transfer-N.
+     */
+    @Bean("transferExecutor")
+    public ExecutorService transferExecutor(@Value("${transfer.max-concurrency:32}") int threads, MeterRegistry registry) {
+        AtomicInteger count = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(threads, task -> {
+            Thread thread = new Thread(task, "s3-transfer-" + count.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        return ExecutorServiceMetrics.monitor(registry, executor, "transfer");
     }
 
     /**
      * This bean creates a dedicated thread pool for running build jobs.
-     * We use newFixedThreadPool to limit concurrency.
+     * How many builds actually run at once is decided by the BuildCapacityController,
+     * so the pool is sized for the largest limit it can reach.
+     * Each stage pool publishes executor.active / executor.queued / executor.pool.* tagged with its name,
+     * which shows how saturated it is.
      */
     @Bean("buildExecutor")
-    public ExecutorService buildExecutor() {
-        // Sets the maximum number of builds that can run at the same time.
-        int concurrentBuilds = 2;
+    public ExecutorService buildExecutor(BuildCapacityController buildCapacity, MeterRegistry registry) {
+        return ExecutorServiceMetrics.monitor(registry, Executors.newFixedThreadPool(buildCapacity.getMaxBuilds()), "build");
+    }
 
-        return Executors.newFixedThreadPool(concurrentBuilds);
+    /**
+     * Network stage: pushes the build output to R2. Kept separate from the build pool so
+     * one job's upload can overlap with the next job's npm install.
+     */
+    @Bean("uploadExecutor")
+    public ExecutorService uploadExecutor(@Value("${pipeline.upload-threads:8}") int threads, MeterRegistry registry) {
+        return ExecutorServiceMetrics.monitor(registry, Executors.newFixedThreadPool(threads), "upload");
     }
 }
@@ -0,0 +1,33 @@
+package org.godn.deployservice.config;
+
+import org.godn.deployservice.deployment.DeploymentService;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+import java.nio.charset.StandardCharsets;
+
+@Configuration
+public class RedisPubSubConfig {
+
+    /**
+     * Listens on QUEUE_KEY:cancel, where the Upload-Service publishes the ID of every cancelled deployment.
+     * Every worker receives it; only the one running the job acts on it.
+     */
+    @Bean
+    public RedisMessageListenerContainer redisMessageListenerContainer(
+            RedisConnectionFactory connectionFactory,
+            DeploymentService deploymentService,
+            @Value("${queue.redis.key}") String queueKey
+    ) {
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(connectionFactory);
+        container.addMessageListener(
+                (message, pattern) -> deploymentService.cancelBuild(new String(message.getBody(), StandardCharsets.UTF_8)),
+                new ChannelTopic(queueKey + ":cancel"));
+        return container;
+    }
+}
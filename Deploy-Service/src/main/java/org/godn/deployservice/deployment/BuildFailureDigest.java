@@ -0,0 +1,54 @@
+package org.godn.deployservice.deployment;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.hibernate.annotations.JdbcTypeCode;
+import org.hibernate.type.SqlTypes;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Why the latest build of a deployment failed: the error lines of its output, each with its line number in
+ * the build log, and the npm phase and exit code that ended it. One row per deployment, so the summary of a
+ * failed deploy is a single lookup; the full log stays where it is.
+ */
+@Entity
+@Table(name = "build_failure_digests")
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class BuildFailureDigest {
+
+    @Id
+    private String deploymentId;
+
+    // install or build; null if the job failed outside npm (download, upload, timeout of the whole job).
+    private String failedPhase;
+
+    private Integer exitCode;
+
+    @Column(length = 1000)
+    private String reason;
+
+    @JdbcTypeCode(SqlTypes.JSON)
+    private List<Entry> entries;
+
+    @Column(nullable = false)
+    private LocalDateTime recordedAt;
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Entry {
+        // Number of the line in the deployment's build log (the log's cursor).
+        private long line;
+        // npm, typescript, bundler or syntax.
+        private String kind;
+        private String text;
+    }
+}
@@ -0,0 +1,6 @@
+package org.godn.deployservice.deployment;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+
+public interface BuildFailureDigestRepository extends JpaRepository<BuildFailureDigest, String> {
+}
@@ -0,0 +1,85 @@
+package org.godn.deployservice.deployment;
+
+import org.godn.deployservice.storage.S3DownloadService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+
+/**
+ * Identifies the inputs of a build: the commit, package-lock.json (by its R2 ETag, so nothing has to be
+ * downloaded) and the project's secrets. Two builds with the same fingerprint produce the same site,
+ * so a job whose fingerprint matches the one stored with the live artifacts does not need to build.
+ */
+@Component
+public class BuildFingerprints {
+    private static final Logger logger = LoggerFactory.getLogger(BuildFingerprints.class);
+
+    private final S3DownloadService s3DownloadService;
+    private final ProjectSecretRepository projectSecretRepository;
+
+    @Value("${upload.output.dir:output}")
+    private String baseFolder;
+
+    public BuildFingerprints(S3DownloadService s3DownloadService, ProjectSecretRepository projectSecretRepository) {
+        this.s3DownloadService = s3DownloadService;
+        this.projectSecretRepository = projectSecretRepository;
+    }
+
+    /**
+     * Returns null when the inputs cannot be pinned down: no commit hash (e.g. a zip upload)
+     * or no lockfile (npm install may resolve different versions every time).
+     */
+    public String compute(Deployment deployment) {
+        if (deployment.getLastCommitHash() == null || deployment.getLastCommitHash().isBlank()) return null;
+        try {
+            String lockfileETag = s3DownloadService.getETag(baseFolder + "/" + deployment.getId() + "/package-lock.json");
+            if (lockfileETag == null) return null;
+
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            update(digest, deployment.getLastCommitHash());
+            update(digest, lockfileETag);
+            List<ProjectSecret> secrets = projectSecretRepository.findByProjectId(deployment.getId()).stream()
+                    .sorted(Comparator.comparing(ProjectSecret::getKey))
+                    .toList();
+            for (ProjectSecret secret : secrets) {
+                update(digest, secret.getKey());
+                update(digest, secret.getValue());
+            }
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        } catch (Exception e) {
+            logger.warn("Could not fingerprint build of {}: {}", deployment.getId(), e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * True if the live artifacts were built from exactly these inputs and are still in R2.
+     */
+    public boolean isLive(Deployment deployment, String fingerprint, String livePrefix) {
+        if (fingerprint == null || !fingerprint.equals(deployment.getBuildFingerprint())) return false;
+        try {
+            return s3DownloadService.hasObjects(livePrefix + "/");
+        } catch (Exception e) {
+            logger.warn("Could not check live artifacts of {}: {}", deployment.getId(), e.getMessage());
+            return false;
+        }
+    }
+
+    // Length-prefixed, so ("ab", "c") and ("a", "bc") hash differently.
+    private static void update(MessageDigest digest, String value) {
+        byte[] bytes = (value == null ? "" : value).getBytes(StandardCharsets.UTF_8);
+        digest.update(Integer.toString(bytes.length).getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) ':');
+        digest.update(bytes);
+    }
+}
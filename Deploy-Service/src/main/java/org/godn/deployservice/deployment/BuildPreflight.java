@@ -0,0 +1,68 @@
+package org.godn.deployservice.deployment;
+
+import org.godn.deployservice.build.strategy.BuildPlan;
+import org.godn.deployservice.build.strategy.BuildStrategyRegistry;
+import org.godn.deployservice.build.strategy.ProjectManifest;
+import org.godn.deployservice.build.strategy.UnsupportedBuildException;
+import org.godn.deployservice.storage.S3DownloadService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Works out how a project will be built from package.json and the framework config in R2, before the
+ * source is downloaded. A project that can never be deployed (e.g. Next.js without a static export)
+ * is rejected without spending download bandwidth or a build slot on it.
+ */
+@Component
+public class BuildPreflight {
+    private static final Logger logger = LoggerFactory.getLogger(BuildPreflight.class);
+
+    private final S3DownloadService s3DownloadService;
+    private final BuildStrategyRegistry buildStrategies;
+
+    @Value("${upload.output.dir:output}")
+    private String baseFolder;
+
+    public BuildPreflight(S3DownloadService s3DownloadService, BuildStrategyRegistry buildStrategies) {
+        this.s3DownloadService = s3DownloadService;
+        this.buildStrategies = buildStrategies;
+    }
+
+    /**
+     * Returns the build plan, or null if the manifests could not be read; the build then goes ahead
+     * and decides on the downloaded source. Throws {@link UnsupportedBuildException} to reject the job.
+     */
+    public BuildPlan inspect(String deploymentId) {
+        String prefix = baseFolder + "/" + deploymentId + "/";
+        try {
+            String packageJson = s3DownloadService.readObject(prefix + "package.json");
+            if (packageJson == null) {
+                throw new UnsupportedBuildException("package.json not found in project directory.");
+            }
+            ProjectManifest manifest = ProjectManifest.parse(packageJson, Map.of());
+            // Only Next.js is decided by its config; other projects cost a single request.
+            if (manifest.buildScript().contains("next")) {
+                Map<String, String> configs = new LinkedHashMap<>();
+                for (String name : ProjectManifest.CONFIG_FILES) {
+                    String content = s3DownloadService.readObject(prefix + name);
+                    if (content != null) {
+                        configs.put(name, content);
+                        break;
+                    }
+                }
+                manifest = new ProjectManifest(manifest.packageJson(), configs);
+            }
+            return buildStrategies.resolve(manifest);
+        } catch (UnsupportedBuildException e) {
+            throw e;
+        } catch (Exception e) {
+            logger.warn("Pre-flight check of {} failed, deciding after download: {}", deploymentId, e.getMessage());
+            return null;
+        }
+    }
+}
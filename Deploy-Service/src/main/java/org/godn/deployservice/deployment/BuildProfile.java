@@ -0,0 +1,44 @@
+package org.godn.deployservice.deployment;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * Resources used by the npm processes of the latest build of a deployment, sampled from /proc while it ran.
+ */
+@Entity
+@Table(name = "build_profiles")
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class BuildProfile {
+
+    @Id
+    private String deploymentId;
+
+    // Largest resident memory of the whole process tree at one time.
+    @Column(nullable = false)
+    private long peakRssBytes;
+
+    // User + system CPU time of all processes.
+    @Column(nullable = false)
+    private double cpuSeconds;
+
+    @Column(nullable = false)
+    private long readBytes;
+
+    @Column(nullable = false)
+    private long writeBytes;
+
+    @Column(nullable = false)
+    private int samples;
+
+    @Column(nullable = false)
+    private LocalDateTime recordedAt;
+}
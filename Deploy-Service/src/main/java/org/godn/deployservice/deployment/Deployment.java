@@ -28,6 +28,9 @@
 
         private String lastCommitHash;
 
+        // Hash of commit, lockfile and secrets of the build that produced the live artifacts (see BuildFingerprints).
+        private String buildFingerprint;
+
         @Column(nullable = false)
         @NotBlank(message = "Repository URL is required")
         // Basic Regex to ensure it looks like a URL (optional but recommended)
@@ -0,0 +1,24 @@
+package org.godn.deployservice.deployment;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Handle on a job that went into the download -> build -> upload pipeline.
+ *
+ * @param buildStage completes when the job no longer uses a build slot (built, failed or skipped)
+ * @param completion completes when the job is fully done and its status has been written; tells whether
+ *                   the job is finished or was stopped so another worker can run it
+ */
+public record DeploymentPipeline(CompletableFuture<Void> buildStage, CompletableFuture<Outcome> completion) {
+
+    public enum Outcome {
+        /** Built, failed, timed out, cancelled or skipped: the queue entry can be acknowledged. */
+        FINISHED,
+        /** Stopped while the worker was draining. The status is back to QUEUED and the entry must be requeued. */
+        REQUEUE
+    }
+
+    static DeploymentPipeline skipped() {
+        return new DeploymentPipeline(CompletableFuture.completedFuture(null), CompletableFuture.completedFuture(Outcome.FINISHED));
+    }
+}
@@ -39,11 +39,53 @@ public interface DeploymentRepository extends JpaRepository<Deployment, String>
 
     /**
      * 4. Idempotency (Worker Level): Atomically "claim" a job.
+     * Only QUEUED deployments can be claimed, so a stale duplicate entry cannot rebuild a deployment
+     * that is already READY, FAILED or CANCELLED.
      */
     @Modifying
     @Transactional
-    @Query("UPDATE Deployment d SET d.status = 'BUILDING' WHERE d.id = :id AND d.status NOT IN ('BUILDING')")
+    @Query("UPDATE Deployment d SET d.status = 'BUILDING' WHERE d.id = :id AND d.status = 'QUEUED'")
     int lockDeployment(@Param("id") String id);
 
+    /**
+     * 5. Recovery: Release a claim held by a worker that died before finishing the job.
+     */
+    @Modifying
+    @Transactional
+    @Query("UPDATE Deployment d SET d.status = 'QUEUED' WHERE d.id = :id AND d.status = 'BUILDING'")
+    int requeueDeployment(@Param("id") String id);
+
+    /**
+     * 6. Outcome: Record how a build ended, unless the deployment was cancelled in the meantime.
+     * A null website URL keeps the stored one.
+     */
+    @Modifying
+    @Transactional
+    @Query("UPDATE Deployment d SET d.status = :status, d.websiteUrl = COALESCE(:websiteUrl, d.websiteUrl) " +
+            "WHERE d.id = :id AND d.status <> 'CANCELLED'")
+    int finishDeployment(@Param("id") String id,
+                         @Param("status") DeploymentStatus status,
+                         @Param("websiteUrl") String websiteUrl);
+
+    /**
+     * 7. Outcome: Mark a deployment READY with the fingerprint of its live artifacts, unless it was cancelled.
+     */
+    @Modifying
+    @Transactional
+    @Query("UPDATE Deployment d SET d.status = 'READY', d.websiteUrl = :websiteUrl, d.buildFingerprint = :fingerprint " +
+            "WHERE d.id = :id AND d.status <> 'CANCELLED'")
+    int markReady(@Param("id") String id,
+                  @Param("websiteUrl") String websiteUrl,
+                  @Param("fingerprint") String fingerprint);
+
+    /**
+     * 8. Upload: Forget the fingerprint of the live artifacts before they are overwritten, so an upload that
+     * fails halfway never leaves mixed artifacts that look unchanged to the next build.
+     */
+    @Modifying
+    @Transactional
+    @Query("UPDATE Deployment d SET d.buildFingerprint = NULL WHERE d.id = :id")
+    int clearFingerprint(@Param("id") String id);
+
     long countByOwnerId(String ownerId);
 }
\ No newline at end of file
@@ -1,138 +1,616 @@
 package org.godn.deployservice.deployment;
 
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.godn.deployservice.build.ActiveBuildRegistry;
 import org.godn.deployservice.build.BuildService;
+import org.godn.deployservice.build.FailureDigest;
+import org.godn.deployservice.build.ResourceUsage;
+import org.godn.deployservice.build.strategy.BuildPlan;
+import org.godn.deployservice.build.strategy.UnsupportedBuildException;
+import org.godn.deployservice.download.BuildUploadService;
 import org.godn.deployservice.download.DownloadService;
-import org.godn.deployservice.log.BuildLog;
-import org.godn.deployservice.log.BuildLogRepository;
+import org.godn.deployservice.download.SourceDownload;
+import org.godn.deployservice.log.BuildLogSink;
+import org.godn.deployservice.metrics.DeployMetrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
 @Service
 public class DeploymentService {
     private static final Logger logger = LoggerFactory.getLogger(DeploymentService.class);
 
+    private final ExecutorService downloadExecutor;
     private final ExecutorService buildExecutor;
+    private final ExecutorService uploadExecutor;
     private final DownloadService downloadService;
+    private final BuildUploadService buildUploadService;
     private final BuildService buildService;
     private final DeploymentRepository deploymentRepository;
     private final ProjectSecretRepository projectSecretRepository; // <--- 1. NEW DEPENDENCY
 
-    private static final long DEPLOYMENT_TIMEOUT_MINUTES = 20;
     private final Path customTempBaseDir = Paths.get(System.getProperty("user.home"), "vercel-temp");
-    private final BuildLogRepository buildLogRepository;
+    private final BuildLogSink buildLogSink;
+    private final DeployMetrics deployMetrics;
+    private final ActiveBuildRegistry activeBuilds;
+    private final BuildFingerprints buildFingerprints;
+    private final BuildPreflight buildPreflight;
+    private final BuildProfileRepository buildProfileRepository;
+    private final BuildFailureDigestRepository failureDigestRepository;
+    private final Duration totalTimeout;
+    private final Duration downloadTimeout;
+    private final Duration uploadTimeout;
+    private final boolean overlapInstall;
+
+    // Completion futures of the jobs in the pipeline, so a shutdown can wait for them.
+    private final Set<CompletableFuture<DeploymentPipeline.Outcome>> inFlight = ConcurrentHashMap.newKeySet();
+    private static final Duration DRAIN_SETTLE_TIME = Duration.ofSeconds(20);
+    // Longest error line kept in a failure digest; the full line is in the log.
+    private static final int MAX_DIGEST_TEXT = 500;
 
     public DeploymentService(
+            @Qualifier("downloadExecutor") ExecutorService downloadExecutor,
             @Qualifier("buildExecutor") ExecutorService buildExecutor,
+            @Qualifier("uploadExecutor") ExecutorService uploadExecutor,
             DownloadService downloadService,
+            BuildUploadService buildUploadService,
             BuildService buildService,
             DeploymentRepository deploymentRepository,
             ProjectSecretRepository projectSecretRepository, // <--- 2. INJECT HERE
-            BuildLogRepository buildLogRepository) {
+            BuildLogSink buildLogSink,
+            DeployMetrics deployMetrics,
+            ActiveBuildRegistry activeBuilds,
+            BuildFingerprints buildFingerprints,
+            BuildPreflight buildPreflight,
+            BuildProfileRepository buildProfileRepository,
+            BuildFailureDigestRepository failureDigestRepository,
+            @Value("${build.timeout.total-minutes:20}") long totalTimeoutMinutes,
+            @Value("${build.timeout.download-minutes:5}") long downloadTimeoutMinutes,
+            @Value("${build.timeout.upload-minutes:5}") long uploadTimeoutMinutes,
+            @Value("${pipeline.overlap-install:true}") boolean overlapInstall) {
+        this.downloadExecutor = downloadExecutor;
         this.buildExecutor = buildExecutor;
+        this.uploadExecutor = uploadExecutor;
         this.downloadService = downloadService;
+        this.buildUploadService = buildUploadService;
         this.buildService = buildService;
         this.deploymentRepository = deploymentRepository;
         this.projectSecretRepository = projectSecretRepository;
-        this.buildLogRepository = buildLogRepository;
+        this.buildLogSink = buildLogSink;
+        this.deployMetrics = deployMetrics;
+        this.activeBuilds = activeBuilds;
+        this.buildFingerprints = buildFingerprints;
+        this.buildPreflight = buildPreflight;
+        this.buildProfileRepository = buildProfileRepository;
+        this.failureDigestRepository = failureDigestRepository;
+        this.totalTimeout = Duration.ofMinutes(totalTimeoutMinutes);
+        this.downloadTimeout = Duration.ofMinutes(downloadTimeoutMinutes);
+        this.uploadTimeout = Duration.ofMinutes(uploadTimeoutMinutes);
+        this.overlapInstall = overlapInstall;
     }
 
-    public void processDeployment(String id, String workerBaseUrl) {
+    /**
+     * Claims the job and runs it through the pipeline:
+     * download (downloadExecutor) -> npm install + build (buildExecutor) -> upload (uploadExecutor).
+     * With pipeline.overlap-install the install starts as soon as package.json and the lockfile are
+     * downloaded; only the build waits for the rest of the source.
+     * Each stage hands over to the next pool instead of blocking a thread on it, so the
+     * build pool only ever holds builds and an upload can overlap with the next job's build.
+     * Every stage has its own time budget (build.timeout.*) and the whole job has a total one.
+     * The build stage only completes once the npm processes are gone, so the slot is never handed
+     * back while a timed-out build is still running.
+     * The checks before the download read from R2, so they are the first stage on downloadExecutor too:
+     * the queue consumer only locks the job and goes back to the queue.
+     */
+    public DeploymentPipeline processDeployment(String id, String workerBaseUrl) {
         int rowsUpdated = deploymentRepository.lockDeployment(id);
         if (rowsUpdated == 0) {
             logger.warn("Job {} skipped (Already building or cancelled).", id);
-            return;
+            return DeploymentPipeline.skipped();
         }
 
         logger.info("Job {} locked. Status set to BUILDING.", id);
+        Timer.Sample jobTimer = deployMetrics.startTimer();
+        // Registered before the checks, so a cancel or drain during them stops the job before anything is downloaded.
+        ActiveBuildRegistry.ActiveBuild activeBuild = activeBuilds.register(id);
+
+        CompletableFuture<Admitted> admission;
+        try {
+            admission = CompletableFuture.supplyAsync(() -> admit(id, workerBaseUrl, jobTimer), downloadExecutor);
+        } catch (RuntimeException e) {
+            // e.g. the pool is shutting down: undo the lock, so whoever gets the job handed back can lock it again.
+            activeBuilds.unregister(id, activeBuild);
+            deploymentRepository.requeueDeployment(id);
+            throw e;
+        }
+        CompletableFuture<DeploymentPipeline> started = admission.handle((admitted, ex) -> {
+            if (ex != null || admitted == null || activeBuild.isStopping()) {
+                return endBeforeDownload(id, workerBaseUrl, activeBuild, admitted == null && ex == null, ex, jobTimer);
+            }
+            return startPipeline(id, workerBaseUrl, admitted.fingerprint(), activeBuild, jobTimer);
+        });
+        CompletableFuture<DeploymentPipeline.Outcome> completion = started.thenCompose(DeploymentPipeline::completion);
+
+        inFlight.add(completion);
+        completion.whenComplete((outcome, ex) -> inFlight.remove(completion));
+        return new DeploymentPipeline(started.thenCompose(DeploymentPipeline::buildStage), completion);
+    }
 
-        buildExecutor.submit(() -> executeBuildWithTimeout(id, workerBaseUrl));
+    private record Admitted(String fingerprint) {
     }
 
-    private void executeBuildWithTimeout(String id, String workerBaseUrl) {
-        Path tempProjectDir = null;
+    /**
+     * Settles the job without a build when the live one is unchanged or the project can never build
+     * (both read from R2). Returns null then, otherwise the fingerprint to store with the new build.
+     */
+    private Admitted admit(String id, String workerBaseUrl, Timer.Sample jobTimer) {
+        // Fast path: nothing changed since the build that is live right now.
+        Deployment deployment = deploymentRepository.findById(id).orElse(null);
+        String fingerprint = null;
+        boolean live = false;
         try {
-            if (!Files.exists(customTempBaseDir)) Files.createDirectories(customTempBaseDir);
-            tempProjectDir = Files.createTempDirectory(customTempBaseDir, "build-" + id + "-");
-            final Path finalDir = tempProjectDir;
+            fingerprint = deployment == null ? null : buildFingerprints.compute(deployment);
+            live = deployment != null && buildFingerprints.isLive(deployment, fingerprint, livePrefix(id));
+        } catch (RuntimeException e) {
+            // The check only saves work; without it the job is simply built.
+            logger.warn("Could not check whether {} is unchanged, building it: {}", id, e.getMessage());
+        }
+        if (live) {
+            reuseLiveBuild(id, workerBaseUrl, jobTimer);
+            return null;
+        }
 
-            CompletableFuture<Void> buildTask = CompletableFuture.runAsync(() -> {
-                logger.info("[BUILD_START] ID: {}", id);
+        // Reject what can never build before downloading anything.
+        try {
+            BuildPlan plan = buildPreflight.inspect(id);
+            if (plan != null) logger.info("Job {} will be built as {} (output: {})", id, plan.strategy(), plan.outputDirectory());
+        } catch (UnsupportedBuildException e) {
+            rejectBuild(id, e.getMessage(), jobTimer);
+            return null;
+        } catch (RuntimeException e) {
+            logger.warn("Pre-flight check of {} failed, deciding after download: {}", id, e.getMessage());
+        }
+        return new Admitted(fingerprint);
+    }
 
-                // A. Download Source
-                downloadService.downloadR2Folder(id, finalDir).join();
+    /**
+     * Ends a job that never got to the download: settled by {@link #admit}, stopped while it was being admitted,
+     * or its admission failed (e.g. the database was unreachable), which fails the job. A settled job is not
+     * touched again: its status and log are final.
+     */
+    private DeploymentPipeline endBeforeDownload(String id, String workerBaseUrl, ActiveBuildRegistry.ActiveBuild activeBuild,
+                                                 boolean settled, Throwable failure, Timer.Sample jobTimer) {
+        DeploymentPipeline.Outcome outcome = DeploymentPipeline.Outcome.FINISHED;
+        if (!settled) {
+            if (failure == null && activeBuild.isInterrupted() && !activeBuild.isCancelled()) {
+                returnToQueue(id);
+                outcome = DeploymentPipeline.Outcome.REQUEUE;
+            } else {
+                Throwable cause = activeBuild.isCancelled() ? new CancellationException() : failure;
+                finishDeployment(id, workerBaseUrl, cause, null, activeBuild.getFailures(), jobTimer);
+            }
+            buildLogSink.release(id, outcome == DeploymentPipeline.Outcome.FINISHED);
+        }
+        activeBuilds.unregister(id, activeBuild);
+        return new DeploymentPipeline(CompletableFuture.completedFuture(null), CompletableFuture.completedFuture(outcome));
+    }
 
-                // B. Fetch Secrets from DB
-                Map<String, String> envVars = getSecretsForProject(id);
-                logger.info("Fetched {} environment variables for build.", envVars.size());
+    /**
+     * Download -> install + build -> upload of an admitted job. Runs on downloadExecutor.
+     */
+    private DeploymentPipeline startPipeline(String id, String workerBaseUrl, String fingerprint,
+                                             ActiveBuildRegistry.ActiveBuild activeBuild, Timer.Sample jobTimer) {
+        logger.info("[BUILD_START] ID: {}", id);
+        AtomicReference<Path> workDir = new AtomicReference<>();
+        Timer.Sample downloadTimer = deployMetrics.startTimer();
 
-                // C. Build & Upload (With Secrets!)
-                try {
-                    buildService.buildReactApp(finalDir, id, envVars); // <--- 3. PASS SECRETS
-                } catch (Exception e) {
-                    throw new RuntimeException(e);
-                }
-            }, buildExecutor);
+        // A. Download Source + Fetch Secrets from DB
+        // The manifests are fetched first, so the install can start while the rest of the source is still coming in.
+        CompletableFuture<SourceDownload> source = CompletableFuture.supplyAsync(() -> {
+            Path dir = createWorkDir(id);
+            workDir.set(dir);
+            return downloadService.downloadSource(id, dir);
+        }, downloadExecutor);
+        CompletableFuture<Void> downloaded = source
+                .thenCompose(download -> activeBuild.track(download.complete())
+                        .orTimeout(downloadTimeout.toMillis(), TimeUnit.MILLISECONDS))
+                .whenComplete((v, ex) -> deployMetrics.recordPhase(DeployMetrics.PHASE_DOWNLOAD, downloadTimer, ex == null));
+        // A cancelled or timed-out download only stops starting files; the ones in progress still write to the work dir.
+        CompletableFuture<Void> downloadEnded = source
+                .handle((download, ex) -> download == null ? CompletableFuture.<Void>completedFuture(null) : download.ended())
+                .thenCompose(ended -> ended);
+        CompletableFuture<Map<String, String>> secrets = (overlapInstall ? source.thenCompose(SourceDownload::manifests) : downloaded)
+                .thenApply(v -> {
+                    Map<String, String> envVars = getSecretsForProject(id);
+                    logger.info("Fetched {} environment variables for build.", envVars.size());
+                    return envVars;
+                });
 
-            buildTask.get(DEPLOYMENT_TIMEOUT_MINUTES, TimeUnit.MINUTES);
+        // B. Install right away, unless a lifecycle script might need the rest of the source.
+        CompletableFuture<Void> installFinished = new CompletableFuture<>();
+        CompletableFuture<Boolean> installed = activeBuild.track(onBuildPool(secrets, envVars -> {
+            if (!overlapInstall || !buildService.canInstallEarly(workDir.get())) return false;
+            activeBuild.enterPhase(DeployMetrics.PHASE_INSTALL);
+            logger.info("Installing dependencies of {} while the source is still downloading.", id);
+            buildService.installDependencies(workDir.get(), id, envVars);
+            return true;
+        }, installFinished));
 
-            String finalSiteUrl = workerBaseUrl + id;
-            updateStatus(id, DeploymentStatus.READY, finalSiteUrl);
-            saveCompletionLog("🚀 Successfully deployed site!", id, LocalDateTime.now());
-            logger.info("[BUILD_SUCCESS] ID: {} is live at {}", id, finalSiteUrl);
+        // C. Build (With Secrets!) once the whole source is on disk
+        CompletableFuture<Void> buildFinished = new CompletableFuture<>();
+        CompletableFuture<Path> built = activeBuild.track(onBuildPool(installed.thenCombine(downloaded, (early, v) -> early), installedEarly -> {
+            activeBuild.enterPhase(DeployMetrics.PHASE_BUILD);
+            Map<String, String> envVars = secrets.join();
+            return installedEarly
+                    ? buildService.buildInstalledApp(workDir.get(), id, envVars)
+                    : buildService.buildReactApp(workDir.get(), id, envVars);
+        }, buildFinished));
+        CompletableFuture<Void> buildStage = CompletableFuture.allOf(installFinished, buildFinished, downloadEnded);
+
+        // D. Upload artifacts
+        CompletableFuture<DeploymentPipeline.Outcome> completion = built
+                .thenComposeAsync(buildDir -> {
+                    activeBuild.enterPhase(DeployMetrics.PHASE_UPLOAD);
+                    // From here on the live artifacts may be half replaced; markReady stores the new fingerprint.
+                    deploymentRepository.clearFingerprint(id);
+                    return activeBuild.track(uploadArtifacts(id, buildDir))
+                            .orTimeout(uploadTimeout.toMillis(), TimeUnit.MILLISECONDS);
+                }, uploadExecutor)
+                .orTimeout(totalTimeout.toMillis(), TimeUnit.MILLISECONDS)
+                .handle((result, ex) -> {
+                    if (ex != null && activeBuild.isInterrupted() && !activeBuild.isCancelled()) {
+                        returnToQueue(id);
+                        return DeploymentPipeline.Outcome.REQUEUE;
+                    }
+                    // Nothing of a failed job may keep running, e.g. an install after the download failed.
+                    if (ex != null) activeBuild.stop();
+                    Throwable failure = activeBuild.isCancelled() ? new CancellationException() : ex;
+                    finishDeployment(id, workerBaseUrl, failure, fingerprint, activeBuild.getFailures(), jobTimer);
+                    return DeploymentPipeline.Outcome.FINISHED;
+                })
+                // Only remove the sources once nothing runs in them any more.
+                .thenCompose(outcome -> buildStage.thenApply(v -> outcome))
+                .thenApply(outcome -> {
+                    // A requeued job is profiled by the worker that finishes it.
+                    if (outcome == DeploymentPipeline.Outcome.FINISHED) saveProfile(id, activeBuild.getUsage());
+                    buildLogSink.release(id, outcome == DeploymentPipeline.Outcome.FINISHED);
+                    activeBuilds.unregister(id, activeBuild);
+                    deleteWorkDir(id, workDir.get());
+                    return outcome;
+                });
+
+        return new DeploymentPipeline(buildStage, completion);
+    }
+
+    private interface BuildTask<T, R> {
+        R apply(T input) throws Exception;
+    }
+
+    /**
+     * Runs the task on the build pool once the input is ready. The returned future can be cancelled or time out
+     * while the task still runs; finished only completes once the task has really returned, or can no longer start.
+     */
+    private <T, R> CompletableFuture<R> onBuildPool(CompletableFuture<T> input, BuildTask<T, R> task, CompletableFuture<Void> finished) {
+        // Whoever flips the flag first owns finished: the task itself, or the failure path if the task never started.
+        AtomicBoolean claimed = new AtomicBoolean();
+        CompletableFuture<R> result = input.thenApplyAsync(value -> {
+            if (!claimed.compareAndSet(false, true)) throw new CancellationException();
+            try {
+                return task.apply(value);
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            } finally {
+                finished.complete(null);
+            }
+        }, buildExecutor);
+        result.whenComplete((value, ex) -> {
+            if (claimed.compareAndSet(false, true)) finished.complete(null);
+        });
+        return result;
+    }
 
+    /**
+     * Stops a job running on this worker: cancels its stage futures and kills the npm process tree,
+     * which also frees its build slot. Jobs running elsewhere are ignored.
+     */
+    public void cancelBuild(String id) {
+        if (activeBuilds.cancel(id)) {
+            logger.info("🛑 Cancellation received. Stopping job {}.", id);
+        }
+    }
+
+    /**
+     * Puts a job claimed by a worker that is gone back to QUEUED, so it can be locked again.
+     */
+    public void releaseClaim(String id) {
+        if (deploymentRepository.requeueDeployment(id) > 0) {
+            logger.warn("Job {} was left BUILDING by a dead worker. Status reset to QUEUED.", id);
+        }
+    }
+
+    /**
+     * Empties the pipeline before the worker stops. Jobs get the grace period to finish on their own.
+     * After that, jobs still downloading or building are stopped and handed back to the queue with their
+     * status reset to QUEUED, so another worker rebuilds them. Uploads are nearly done and may run until
+     * the timeout; whatever is still running then is handed back as well.
+     * Returns false if some jobs did not settle in time; the orphan recovery of the other workers picks those up.
+     */
+    public boolean drain(Duration grace, Duration timeout) {
+        long deadline = System.nanoTime() + timeout.toNanos();
+        if (awaitInFlight(grace)) return true;
+
+        logger.warn("⏸️ Draining: stopping {} job(s) that are still downloading or building.", inFlight.size());
+        interruptRunning(phase -> !DeployMetrics.PHASE_UPLOAD.equals(phase));
+        if (awaitInFlight(Duration.ofNanos(Math.max(0, deadline - System.nanoTime())))) return true;
+
+        logger.warn("⏸️ Draining: drain timeout reached, stopping the remaining {} job(s).", inFlight.size());
+        interruptRunning(phase -> true);
+        return awaitInFlight(DRAIN_SETTLE_TIME);
+    }
+
+    /**
+     * Lets running stages finish before the pools go away. Runs after the queue listener
+     * has stopped taking new jobs.
+     */
+    @PreDestroy
+    public void shutdownPipeline() {
+        List<ExecutorService> stages = List.of(downloadExecutor, buildExecutor, uploadExecutor);
+        stages.forEach(ExecutorService::shutdown);
+        try {
+            for (ExecutorService stage : stages) {
+                if (!stage.awaitTermination(30, TimeUnit.SECONDS)) stage.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            stages.forEach(ExecutorService::shutdownNow);
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void interruptRunning(Predicate<String> inPhase) {
+        activeBuilds.snapshot().forEach((id, build) -> {
+            if (inPhase.test(build.getPhase())) {
+                logger.info("⏸️ Stopping job {} ({} phase) so it can be requeued.", id, build.getPhase());
+                build.interrupt();
+            }
+        });
+    }
+
+    private boolean awaitInFlight(Duration timeout) {
+        try {
+            CompletableFuture.allOf(inFlight.toArray(new CompletableFuture[0]))
+                    .get(timeout.toMillis(), TimeUnit.MILLISECONDS);
+            return true;
         } catch (TimeoutException e) {
-            logger.error("❌ [TIMEOUT] Deployment {} took longer than {} mins.", id, DEPLOYMENT_TIMEOUT_MINUTES);
-            updateStatus(id, DeploymentStatus.TIMED_OUT, null);
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException e) {
+            return true;
+        }
+    }
+
+    /**
+     * Called for a job stopped by {@link #drain}: puts it back to QUEUED so the next worker can lock it.
+     */
+    private void returnToQueue(String id) {
+        try {
+            deploymentRepository.requeueDeployment(id);
+            saveCompletionLog("⏸️ The build worker is shutting down. Your deployment was requeued and will start again shortly.",
+                    id, LocalDateTime.now());
+            logger.warn("[REQUEUED] Deployment {} was stopped by the drain and reset to QUEUED.", id);
         } catch (Exception e) {
-            logger.error("❌ [FAILED] Deployment {} failed: {}", id, e.getMessage());
+            logger.error("Could not requeue {}", id, e);
+        }
+    }
+
+    private Path createWorkDir(String id) {
+        try {
+            if (!Files.exists(customTempBaseDir)) Files.createDirectories(customTempBaseDir);
+            return Files.createTempDirectory(customTempBaseDir, "build-" + id + "-");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void reuseLiveBuild(String id, String workerBaseUrl, Timer.Sample jobTimer) {
+        String finalSiteUrl = workerBaseUrl + id;
+        try {
+            updateStatus(id, DeploymentStatus.READY, finalSiteUrl);
+            saveCompletionLog("⚡ Nothing changed since the live deployment (same commit, lockfile and secrets). Build skipped.",
+                    id, LocalDateTime.now());
+            clearFailureDigest(id);
+            logger.info("[BUILD_SKIPPED] ID: {} is unchanged and already live at {}", id, finalSiteUrl);
+            deployMetrics.recordJob(jobTimer, DeploymentStatus.READY);
+        } catch (Exception e) {
+            logger.error("Could not record final status for {}", id, e);
+        } finally {
+            buildLogSink.release(id, true);
+        }
+    }
+
+    private void rejectBuild(String id, String reason, Timer.Sample jobTimer) {
+        try {
             updateStatus(id, DeploymentStatus.FAILED, null);
+            saveCompletionLog("❌ " + reason, id, LocalDateTime.now());
+            saveFailureDigest(id, null, reason);
+            logger.error("❌ [REJECTED] Deployment {} cannot be built: {}", id, reason);
+            deployMetrics.recordJob(jobTimer, DeploymentStatus.FAILED);
+        } catch (Exception e) {
+            logger.error("Could not record final status for {}", id, e);
         } finally {
-            if (tempProjectDir != null) {
-                try {
-                    buildService.deleteDirectory(tempProjectDir.toFile());
-                    logger.info("[CLEANUP] Removed temp dir for {}", id);
-                } catch (Exception ex) {
-                    logger.error("Cleanup failed for {}", id, ex);
-                }
+            buildLogSink.release(id, true);
+        }
+    }
+
+    private void saveProfile(String id, ResourceUsage usage) {
+        ResourceUsage.Totals totals = usage.totals();
+        if (totals.samples() == 0) return; // npm never ran, e.g. the download failed
+        try {
+            buildProfileRepository.save(BuildProfile.builder()
+                    .deploymentId(id)
+                    .peakRssBytes(totals.peakRssBytes())
+                    .cpuSeconds(totals.cpuSeconds())
+                    .readBytes(totals.readBytes())
+                    .writeBytes(totals.writeBytes())
+                    .samples(totals.samples())
+                    .recordedAt(LocalDateTime.now())
+                    .build());
+            logger.info("📊 Build {} used {} MB peak RSS, {} CPU seconds, read {} MB, wrote {} MB", id,
+                    totals.peakRssBytes() / (1024 * 1024), String.format("%.1f", totals.cpuSeconds()),
+                    totals.readBytes() / (1024 * 1024), totals.writeBytes() / (1024 * 1024));
+        } catch (Exception e) {
+            logger.warn("Could not save build profile of {}: {}", id, e.getMessage());
+        }
+    }
+
+    /**
+     * Keeps the error lines of the failed build (already numbered: BuildService flushes the log after every
+     * npm phase) for the deployment's failure summary.
+     */
+    private void saveFailureDigest(String id, FailureDigest failures, String reason) {
+        try {
+            List<BuildFailureDigest.Entry> entries = failures == null ? List.of() : failures.entries().stream()
+                    .map(entry -> new BuildFailureDigest.Entry(entry.line(), entry.kind(), truncate(entry.text(), MAX_DIGEST_TEXT)))
+                    .toList();
+            failureDigestRepository.save(BuildFailureDigest.builder()
+                    .deploymentId(id)
+                    .failedPhase(failures != null ? failures.failedPhase() : null)
+                    .exitCode(failures != null ? failures.exitCode() : null)
+                    .reason(reason != null ? truncate(reason, 1000) : null)
+                    .entries(entries)
+                    .recordedAt(LocalDateTime.now())
+                    .build());
+        } catch (Exception e) {
+            logger.warn("Could not save failure digest of {}: {}", id, e.getMessage());
+        }
+    }
+
+    private void clearFailureDigest(String id) {
+        try {
+            if (failureDigestRepository.existsById(id)) failureDigestRepository.deleteById(id);
+        } catch (Exception e) {
+            logger.warn("Could not clear failure digest of {}: {}", id, e.getMessage());
+        }
+    }
+
+    private static String truncate(String text, int max) {
+        return text.length() > max ? text.substring(0, max) : text;
+    }
+
+    private static String livePrefix(String id) {
+        return "live-sites/" + id;
+    }
+
+    private CompletableFuture<Void> uploadArtifacts(String id, Path buildDir) {
+        String destinationPrefix = livePrefix(id);
+        logger.info("Uploading artifacts to R2: {}", destinationPrefix);
+        Timer.Sample uploadTimer = deployMetrics.startTimer();
+        return buildUploadService.uploadBuildDirectory(buildDir, destinationPrefix)
+                .whenComplete((v, ex) -> deployMetrics.recordPhase(DeployMetrics.PHASE_UPLOAD, uploadTimer, ex == null));
+    }
+
+    private void finishDeployment(String id, String workerBaseUrl, Throwable failure, String fingerprint,
+                                  FailureDigest failures, Timer.Sample jobTimer) {
+        Throwable cause = unwrap(failure);
+        try {
+            if (cause == null) {
+                String finalSiteUrl = workerBaseUrl + id;
+                markReady(id, finalSiteUrl, fingerprint);
+                saveCompletionLog("🚀 Successfully deployed site!", id, LocalDateTime.now());
+                clearFailureDigest(id);
+                logger.info("[BUILD_SUCCESS] ID: {} is live at {}", id, finalSiteUrl);
+                deployMetrics.recordJob(jobTimer, DeploymentStatus.READY);
+            } else if (cause instanceof CancellationException) {
+                // The status is already CANCELLED, set by whoever cancelled the job.
+                // A digest left by an earlier failed build would describe a build that is no longer the latest.
+                clearFailureDigest(id);
+                logger.info("🛑 [CANCELLED] Deployment {} was cancelled.", id);
+                deployMetrics.recordJob(jobTimer, DeploymentStatus.CANCELLED);
+            } else if (cause instanceof TimeoutException) {
+                String reason = cause.getMessage() != null ? cause.getMessage() : "stage or total budget of " + totalTimeout.toMinutes() + " mins exceeded";
+                logger.error("❌ [TIMEOUT] Deployment {} ran out of time: {}", id, reason);
+                updateStatus(id, DeploymentStatus.TIMED_OUT, null);
+                saveFailureDigest(id, failures, reason);
+                deployMetrics.recordJob(jobTimer, DeploymentStatus.TIMED_OUT);
+            } else {
+                logger.error("❌ [FAILED] Deployment {} failed: {}", id, cause.getMessage());
+                updateStatus(id, DeploymentStatus.FAILED, null);
+                saveFailureDigest(id, failures, cause.getMessage());
+                deployMetrics.recordJob(jobTimer, DeploymentStatus.FAILED);
             }
+        } catch (Exception e) {
+            logger.error("Could not record final status for {}", id, e);
         }
     }
 
+    private void deleteWorkDir(String id, Path workDir) {
+        if (workDir == null) return;
+        try {
+            buildService.deleteDirectory(workDir.toFile());
+            logger.info("[CLEANUP] Removed temp dir for {}", id);
+        } catch (Exception ex) {
+            logger.error("Cleanup failed for {}", id, ex);
+        }
+    }
+
+    private static Throwable unwrap(Throwable failure) {
+        return failure instanceof CompletionException && failure.getCause() != null ? failure.getCause() : failure;
+    }
+
     private Map<String, String> getSecretsForProject(String projectId) {
         List<ProjectSecret> secrets = projectSecretRepository.findByProjectId(projectId);
         return secrets.stream()
                 .collect(Collectors.toMap(ProjectSecret::getKey, ProjectSecret::getValue));
     }
 
+    /**
+     * Sets READY and remembers which inputs the new live artifacts were built from.
+     * A null fingerprint clears the stored one, so the next job cannot skip its build.
+     * A deployment cancelled in the meantime stays CANCELLED.
+     */
+    private void markReady(String id, String websiteUrl, String fingerprint) {
+        if (deploymentRepository.markReady(id, websiteUrl, fingerprint) == 0) {
+            logger.info("🛑 Deployment {} was cancelled or deleted before it finished. Not marking it READY.", id);
+        }
+    }
+
+    /**
+     * Records the outcome of a job. A deployment cancelled in the meantime stays CANCELLED.
+     */
     private void updateStatus(String id, DeploymentStatus status, String websiteUrl) {
-        deploymentRepository.findById(id).ifPresent(d -> {
-            d.setStatus(status);
-            if (websiteUrl != null) {
-                d.setWebsiteUrl(websiteUrl);
-            }
-            deploymentRepository.save(d);
-        });
+        if (deploymentRepository.finishDeployment(id, status, websiteUrl) == 0) {
+            logger.info("🛑 Deployment {} was cancelled or deleted before it finished. Not setting status {}.", id, status);
+        }
     }
+
     private void saveCompletionLog(String completionMsg, String deploymentId, LocalDateTime completionTime) {
-        BuildLog buildLog = new BuildLog();
-        buildLogRepository.save(BuildLog.builder()
-                .deploymentId(deploymentId)
-                .content(completionMsg)
-                .timestamp(completionTime)
-                .build());
+        buildLogSink.append(deploymentId, completionMsg, completionTime);
     }
 }
\ No newline at end of file
@@ -1,9 +1,9 @@
 package org.godn.deployservice.download;
 
 import org.godn.deployservice.storage.S3UploadService;
+import org.godn.deployservice.storage.TransferEngine;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
 
 import java.io.File;
@@ -19,44 +19,44 @@ public class BuildUploadService {
     private static final Logger logger = LoggerFactory.getLogger(BuildUploadService.class);
 
     private final S3UploadService s3UploadService;
+    private final TransferEngine transferEngine;
 
-    public BuildUploadService(S3UploadService s3UploadService) {
+    public BuildUploadService(S3UploadService s3UploadService, TransferEngine transferEngine) {
         this.s3UploadService = s3UploadService;
+        this.transferEngine = transferEngine;
     }
 
-    @Async
+    /**
+     * Walks the directory on the calling thread and uploads the files on the transfer engine.
+     */
     public CompletableFuture<Void> uploadBuildDirectory(Path localDirectory, String s3Prefix) {
         logger.info("Starting directory upload: {} -> s3://.../{}", localDirectory, s3Prefix);
+        List<Path> files;
         try (Stream<Path> paths = Files.walk(localDirectory)) {
-            List<CompletableFuture<Void>> futures = paths
-                    .filter(Files::isRegularFile)
-                    .map(localFilePath -> CompletableFuture.runAsync(() -> {
-                        try {
-                            Path relativePath = localDirectory.relativize(localFilePath);
-                            String s3Key = s3Prefix + "/" + relativePath.toString().replace(File.separatorChar, '/');
-
-                            // Call the synchronous/blocking S3 client
-                            s3UploadService.uploadFileToR2(s3Key, String.valueOf(localFilePath));
-
-                        } catch (Exception e) {
-                            logger.error("Failed to upload file: {}", localFilePath, e);
-                            throw new RuntimeException(e);
-                        }
-                    }))
-                    .toList();
-
-            return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]))
-                    .whenComplete((res, ex) -> {
-                        if (ex == null) {
-                            logger.info("Successfully finished directory upload: {}", s3Prefix);
-                        } else {
-                            logger.error("Directory upload failed", ex);
-                        }
-                    });
-
+            files = paths.filter(Files::isRegularFile).toList();
         } catch (IOException e) {
             logger.error("Failed to walk directory: {}", localDirectory, e);
             return CompletableFuture.failedFuture(e);
         }
+
+        // Cancelling this future (e.g. the deployment was cancelled) skips the files that have not started yet.
+        CompletableFuture<Void> result = transferEngine.transferAll(files, localFilePath -> {
+            try {
+                Path relativePath = localDirectory.relativize(localFilePath);
+                String s3Key = s3Prefix + "/" + relativePath.toString().replace(File.separatorChar, '/');
+
+                // Call the synchronous/blocking S3 client
+                s3UploadService.uploadFileToR2(s3Key, String.valueOf(localFilePath));
+
+            } catch (Exception e) {
+                logger.error("Failed to upload file: {}", localFilePath, e);
+                throw e;
+            }
+        });
+        result.whenComplete((res, ex) -> {
+            if (ex == null) logger.info("Successfully finished directory upload: {}", s3Prefix);
+            else if (!result.isCancelled()) logger.error("Directory upload failed", ex);
+        });
+        return result;
     }
-}
\ No newline at end of file
+}
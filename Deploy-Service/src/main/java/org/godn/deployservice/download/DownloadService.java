@@ -1,17 +1,17 @@
 package org.godn.deployservice.download;
 
 import org.godn.deployservice.storage.S3DownloadService;
+import org.godn.deployservice.storage.TransferEngine;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
 
-import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 
 @Service
@@ -19,23 +19,40 @@ public class DownloadService {
     private static final Logger logger = LoggerFactory.getLogger(DownloadService.class);
 
     private final S3DownloadService s3DownloadService;
+    private final TransferEngine transferEngine;
 
     @Value("${upload.output.dir:output}")
     private String baseFolder;
 
-    public DownloadService(S3DownloadService s3DownloadService) {
+    public DownloadService(S3DownloadService s3DownloadService, TransferEngine transferEngine) {
         this.s3DownloadService = s3DownloadService;
+        this.transferEngine = transferEngine;
     }
 
-    @Async
+    // Everything npm ci needs. These are fetched before the rest of the source.
+    static final Set<String> MANIFEST_FILES = Set.of("package.json", "package-lock.json", "npm-shrinkwrap.json", ".npmrc");
+
+    /**
+     * Lists the source files on the calling thread and downloads them on the transfer engine.
+     * The returned future completes when every file is on disk.
+     */
     public CompletableFuture<Void> downloadR2Folder(String uploadId, Path destinationPath) {
+        return downloadSource(uploadId, destinationPath).complete();
+    }
+
+    /**
+     * Same as {@link #downloadR2Folder}, but the manifests (package.json, lockfile, .npmrc) are fetched first
+     * and have a future of their own, so the install can start while the rest is still downloading.
+     */
+    public SourceDownload downloadSource(String uploadId, Path destinationPath) {
         logger.info("Starting download for upload ID: {} to destination: {}", uploadId, destinationPath.toAbsolutePath());
 
         String s3ListPrefix = baseFolder + "/" + uploadId;
         String s3StripPrefix = s3ListPrefix + "/";
 
         List<String> fileKeys = s3DownloadService.listObjectKeys(s3ListPrefix);
-        List<CompletableFuture<?>> futures = new ArrayList<>();
+        List<String> manifestKeys = new ArrayList<>();
+        List<String> otherKeys = new ArrayList<>();
 
         if (fileKeys.isEmpty()) {
             logger.warn("⚠️ No files found in R2 for prefix: {}", s3ListPrefix);
@@ -52,32 +69,44 @@ public class DownloadService {
             if (relativePath.isEmpty()) {
                 continue;
             }
-            Path finalFilePath = destinationPath.resolve(relativePath);
-
-            // --- THE FIX IS HERE ---
-            // We put EVERYTHING inside one runAsync block.
-            // This thread will create the directory AND wait for the S3 download.
-            CompletableFuture<?> future = CompletableFuture.runAsync(() -> {
-                try {
-                    // 1. Create directory
-                    Files.createDirectories(finalFilePath.getParent());
-
-                    // 2. Download File (Synchronously)
-                    // This line BLOCKS this background thread until the file is on disk.
-                    s3DownloadService.downloadFileFromR2(key, finalFilePath.toString());
-
-                    // logger.debug("Downloaded: {}", key); // Optional logging
-                } catch (Exception e) {
-                    logger.error("Failed to download {}: {}", key, e.getMessage());
-                    // Re-throw to ensure the Future is marked as failed
-                    throw new RuntimeException(e);
-                }
-            });
-
-            futures.add(future);
+            (MANIFEST_FILES.contains(relativePath) ? manifestKeys : otherKeys).add(key);
         }
 
-        // Wait for all download threads to finish
-        return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]));
+        // This BLOCKS a transfer thread until the file is on disk.
+        TransferEngine.Transfer<String> download = key -> {
+            Path finalFilePath = destinationPath.resolve(key.substring(s3StripPrefix.length()));
+            try {
+                Files.createDirectories(finalFilePath.getParent());
+                s3DownloadService.downloadFileFromR2(key, finalFilePath.toString());
+            } catch (Exception e) {
+                logger.error("Failed to download {}: {}", key, e.getMessage());
+                throw e;
+            }
+        };
+
+        // The manifests' job is started first, so it gets the first transfer slots.
+        TransferEngine.Transfers manifestTransfers = transferEngine.start(manifestKeys, download);
+        TransferEngine.Transfers restTransfers = transferEngine.start(otherKeys, download);
+        CompletableFuture<Void> manifests = manifestTransfers.result();
+        CompletableFuture<Void> rest = restTransfers.result();
+        // Cancelling this future (e.g. the deployment was cancelled) skips the files that have not started yet.
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        // Without its manifests the source cannot be installed, so the rest is not worth fetching.
+        manifests.whenComplete((v, ex) -> {
+            if (ex == null) return;
+            rest.cancel(false);
+            result.completeExceptionally(ex);
+        });
+        CompletableFuture.allOf(manifests, rest).whenComplete((v, ex) -> {
+            if (ex != null) result.completeExceptionally(ex);
+            else result.complete(null);
+        });
+        result.whenComplete((v, ex) -> {
+            if (result.isCancelled()) {
+                manifests.cancel(false);
+                rest.cancel(false);
+            }
+        });
+        return new SourceDownload(manifests, result, CompletableFuture.allOf(manifestTransfers.ended(), restTransfers.ended()));
     }
 }
\ No newline at end of file
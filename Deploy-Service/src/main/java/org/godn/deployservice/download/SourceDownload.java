@@ -0,0 +1,15 @@
+package org.godn.deployservice.download;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A source download in progress.
+ *
+ * @param manifests completes when package.json, the lockfile and .npmrc (whichever exist) are on disk
+ * @param complete  completes when every file is on disk; cancelling it stops the download
+ * @param ended     completes once no file is being written any more, also after a cancel or a failure;
+ *                  only then can the destination be removed
+ */
+public record SourceDownload(CompletableFuture<Void> manifests, CompletableFuture<Void> complete,
+                             CompletableFuture<Void> ended) {
+}
@@ -7,9 +7,16 @@ import lombok.Data;
 import lombok.NoArgsConstructor;
 
 import java.time.LocalDateTime;
+import java.util.function.LongConsumer;
 
 @Entity
-@Table(name = "build_logs")
+@Table(name = "build_logs",
+        indexes = {
+                // Logs are paged by id (the cursor), per deployment.
+                @Index(name = "idx_build_logs_deployment_id", columnList = "deploymentId, id"),
+                // Retention deletes by age.
+                @Index(name = "idx_build_logs_timestamp", columnList = "timestamp")
+        })
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
@@ -28,4 +35,8 @@ public class BuildLog {
 
     @Column(nullable = false)
     private LocalDateTime timestamp;
+
+    // Told the line's number in the deployment's log once the sink has given it one. Not stored.
+    @Transient
+    private LongConsumer onNumbered;
 }
\ No newline at end of file
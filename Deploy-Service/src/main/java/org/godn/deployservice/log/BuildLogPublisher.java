@@ -0,0 +1,88 @@
+package org.godn.deployservice.log;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Publishes build log lines on Redis as they are read, for the Upload-Service's live log stream:
+ * - QUEUE_KEY:logs:{deploymentId} (pub/sub) gets {"lines": [...]} and finally {"end": true}
+ * - QUEUE_KEY:logs:{deploymentId}:recent keeps the last lines for an hour, so a client that connects
+ *   between a line being published and its chunk being stored does not miss it
+ * Each line is {"id": line number, "content": ..., "timestamp": ...}; the id is the line's number in the stored log.
+ */
+@Component
+public class BuildLogPublisher {
+    private static final Logger logger = LoggerFactory.getLogger(BuildLogPublisher.class);
+
+    private static final Duration RECENT_TTL = Duration.ofHours(1);
+
+    private final StringRedisTemplate redisTemplate;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final String channelPrefix;
+    private final int recentLines;
+    private final boolean enabled;
+
+    public BuildLogPublisher(
+            StringRedisTemplate redisTemplate,
+            @Value("${queue.redis.key}") String queueKey,
+            @Value("${build.logs.stream.recent-lines:2000}") int recentLines,
+            @Value("${build.logs.stream.enabled:true}") boolean enabled
+    ) {
+        this.redisTemplate = redisTemplate;
+        this.channelPrefix = queueKey + ":logs:";
+        this.recentLines = recentLines;
+        this.enabled = enabled;
+    }
+
+    public record LogLine(long id, String content, String timestamp) {
+    }
+
+    /**
+     * Never throws: the stored log is what counts, the stream is best effort.
+     */
+    public void publish(String deploymentId, List<LogLine> lines) {
+        if (!enabled || lines.isEmpty()) return;
+        try {
+            String channel = channelPrefix + deploymentId;
+            String recentKey = channel + ":recent";
+            String[] encoded = new String[lines.size()];
+            for (int i = 0; i < lines.size(); i++) encoded[i] = objectMapper.writeValueAsString(lines.get(i));
+            String message = objectMapper.writeValueAsString(Map.of("lines", lines));
+
+            redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                // StringRedisTemplate hands out string connections.
+                StringRedisConnection redis = (StringRedisConnection) connection;
+                redis.rPush(recentKey, encoded);
+                redis.lTrim(recentKey, -recentLines, -1);
+                redis.expire(recentKey, RECENT_TTL.toSeconds());
+                redis.publish(channel, message);
+                return null;
+            });
+        } catch (JsonProcessingException | RuntimeException e) {
+            logger.warn("Could not publish {} log line(s) of {}: {}", lines.size(), deploymentId, e.getMessage());
+        }
+    }
+
+    /**
+     * Tells the stream that the log of the deployment is complete.
+     */
+    public void publishEnd(String deploymentId) {
+        if (!enabled) return;
+        try {
+            redisTemplate.convertAndSend(channelPrefix + deploymentId, "{\"end\":true}");
+        } catch (RuntimeException e) {
+            logger.warn("Could not publish end of log of {}: {}", deploymentId, e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,485 @@
+package org.godn.deployservice.log;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongConsumer;
+
+/**
+ * Writes the build logs of every job on this worker. Lines go into one bounded buffer and a single writer
+ * thread stores them with JDBC batch inserts, so logging never holds more than one pooled connection,
+ * however many builds are running, and the status updates always get one.
+ *
+ * The writer groups the lines of a deployment into compressed chunks (build_log_chunks) of up to
+ * build.logs.chunk-lines lines or chunk-millis of output, whichever comes first, instead of a row per line.
+ * It also numbers the lines of each deployment and hands them to the {@link BuildLogPublisher} right away,
+ * so the live stream does not wait for the chunk to be stored.
+ *
+ * When the buffer is full the overflow policy decides (build.logs.overflow):
+ * - block: the npm output reader waits up to block-timeout-ms, which slows the build down, then drops the line
+ * - drop-newest: the new line is dropped
+ * - drop-oldest: the oldest buffered line is dropped to make room
+ * Dropped lines are counted per deployment and reported in its log as one line.
+ */
+@Component
+public class BuildLogSink {
+    private static final Logger logger = LoggerFactory.getLogger(BuildLogSink.class);
+
+    // Numbers the chunk after the last one stored for the deployment. Inserts nothing if another writer
+    // (e.g. the old worker of a drained job, still flushing) took that number in the meantime.
+    static final String INSERT_SQL = "INSERT INTO build_log_chunks (deployment_id, seq, first_line, line_count, started_at, ended_at, data, search_vector) "
+            + "SELECT ?, COALESCE(MAX(seq) + 1, 0), ?, ?, ?, ?, ?, to_tsvector('simple', ?) "
+            + "FROM build_log_chunks WHERE deployment_id = ? "
+            + "ON CONFLICT (deployment_id, seq) DO NOTHING";
+    // Tries per chunk whose number keeps being taken by another writer.
+    private static final int MAX_INSERT_ATTEMPTS = 5;
+    // Text of a chunk indexed for search at most; a tsvector holds up to 1 MB.
+    static final int MAX_SEARCH_TEXT = 200_000;
+    static final String LINE_COUNT_SQL = "SELECT COALESCE(MAX(first_line + line_count), 0) FROM build_log_chunks WHERE deployment_id = ?";
+    // Longest line kept; a failing webpack build can print a minified bundle as one line.
+    static final int MAX_LINE_LENGTH = 5000;
+
+    public enum OverflowPolicy { BLOCK, DROP_NEWEST, DROP_OLDEST }
+
+    private final JdbcTemplate jdbcTemplate;
+    private final BuildLogPublisher publisher;
+    private final BlockingQueue<BuildLog> buffer;
+    private final int batchSize;
+    private final int chunkLines;
+    private final Duration chunkAge;
+    private final long flushIntervalMs;
+    private final OverflowPolicy overflowPolicy;
+    private final long blockTimeoutMs;
+    private final Counter droppedLines;
+
+    // Lines of each deployment still in the buffer, and dropped lines not reported yet. Entries are only
+    // created and removed inside compute, so a count is never added to an entry that was just removed.
+    private final Map<String, Backlog> backlogs = new ConcurrentHashMap<>();
+    // Deployments whose lines someone waits for; see flush().
+    private final Queue<FlushRequest> flushRequests = new ConcurrentLinkedQueue<>();
+
+    // Open chunks and the number of the next line, by deployment. Only touched by the writer thread.
+    private final Map<String, OpenChunk> openChunks = new LinkedHashMap<>();
+    private final Map<String, Long> nextLines = new HashMap<>();
+    // Deployments whose job ended on this worker; see release().
+    private final Queue<Release> releases = new ConcurrentLinkedQueue<>();
+
+    private volatile boolean running;
+    private Thread writer;
+
+    public BuildLogSink(
+            JdbcTemplate jdbcTemplate,
+            BuildLogPublisher publisher,
+            MeterRegistry registry,
+            @Value("${build.logs.buffer-size:10000}") int bufferSize,
+            @Value("${build.logs.batch-size:500}") int batchSize,
+            @Value("${build.logs.chunk-lines:500}") int chunkLines,
+            @Value("${build.logs.chunk-millis:1000}") long chunkMillis,
+            @Value("${build.logs.flush-interval-ms:200}") long flushIntervalMs,
+            @Value("${build.logs.overflow:block}") String overflowPolicy,
+            @Value("${build.logs.block-timeout-ms:1000}") long blockTimeoutMs
+    ) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.publisher = publisher;
+        this.buffer = new ArrayBlockingQueue<>(bufferSize);
+        this.batchSize = batchSize;
+        this.chunkLines = chunkLines;
+        this.chunkAge = Duration.ofMillis(chunkMillis);
+        this.flushIntervalMs = flushIntervalMs;
+        this.overflowPolicy = OverflowPolicy.valueOf(overflowPolicy.trim().toUpperCase().replace('-', '_'));
+        this.blockTimeoutMs = blockTimeoutMs;
+        this.droppedLines = Counter.builder("deploy.build.logs.dropped")
+                .description("Build log lines dropped because the log buffer was full")
+                .register(registry);
+        Gauge.builder("deploy.build.logs.buffered", buffer, BlockingQueue::size)
+                .description("Build log lines waiting to be written")
+                .register(registry);
+    }
+
+    @PostConstruct
+    public void start() {
+        running = true;
+        writer = new Thread(this::writeLoop, "build-log-sink");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Writes what is still buffered, then stops the writer.
+     */
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+        if (writer != null) writer.join(Duration.ofSeconds(10).toMillis());
+    }
+
+    public void append(String deploymentId, String content) {
+        append(deploymentId, content, LocalDateTime.now());
+    }
+
+    /**
+     * Queues one line. Never throws; a line that does not fit is dropped according to the overflow policy.
+     */
+    public void append(String deploymentId, String content, LocalDateTime timestamp) {
+        append(deploymentId, content, timestamp, null);
+    }
+
+    /**
+     * Same, and once the line has its number in the deployment's log (before it is stored), hands it to
+     * onNumbered on the writer thread. A dropped line never gets one.
+     */
+    public void append(String deploymentId, String content, LocalDateTime timestamp, LongConsumer onNumbered) {
+        if (content.length() > MAX_LINE_LENGTH) content = content.substring(0, MAX_LINE_LENGTH);
+        BuildLog line = BuildLog.builder().deploymentId(deploymentId).content(content).timestamp(timestamp)
+                .onNumbered(onNumbered).build();
+        // Counted before it is offered, so the writer never sees the line without its count.
+        backlogs.compute(deploymentId, (id, backlog) -> Backlog.orNew(backlog).buffered(1));
+        if (buffer.offer(line)) return;
+
+        switch (overflowPolicy) {
+            case BLOCK -> {
+                try {
+                    if (buffer.offer(line, blockTimeoutMs, TimeUnit.MILLISECONDS)) return;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                dropped(line);
+            }
+            case DROP_NEWEST -> dropped(line);
+            case DROP_OLDEST -> {
+                // Another thread may take the freed place first; then the new line goes instead.
+                BuildLog oldest = buffer.poll();
+                if (oldest != null) dropped(oldest);
+                if (!buffer.offer(line)) dropped(line);
+            }
+        }
+    }
+
+    /**
+     * Waits until every line of the deployment appended before this call is stored. Only that deployment's
+     * open chunk is cut short; other builds keep filling theirs. Returns false if that took longer than timeout.
+     */
+    public boolean flush(String deploymentId, Duration timeout) throws InterruptedException {
+        if (!writer.isAlive()) return false;
+        FlushRequest request = new FlushRequest(deploymentId, new CountDownLatch(1));
+        flushRequests.add(request);
+        return request.done().await(timeout.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    private record FlushRequest(String deploymentId, CountDownLatch done) {
+    }
+
+    /**
+     * Called when the job of the deployment is over on this worker, after its last line was appended.
+     * Once everything is stored the writer forgets the deployment's line numbers (it may be built elsewhere next)
+     * and, if the log is complete, tells the live stream. A requeued job's log is not complete.
+     */
+    public void release(String deploymentId, boolean endOfLog) {
+        releases.add(new Release(deploymentId, endOfLog));
+    }
+
+    private record Release(String deploymentId, boolean endOfLog) {
+    }
+
+    // The line was counted as buffered, but never reaches the writer.
+    private void dropped(BuildLog line) {
+        backlogs.compute(line.getDeploymentId(), (id, backlog) -> Backlog.orNew(backlog).buffered(-1).dropped(1));
+        droppedLines.increment();
+    }
+
+    private void writeLoop() {
+        List<BuildLog> batch = new ArrayList<>(batchSize);
+        while (running || !buffer.isEmpty() || !openChunks.isEmpty() || !releases.isEmpty()) {
+            List<OpenChunk> closed = new ArrayList<>();
+            List<FlushRequest> flushed = new ArrayList<>();
+            try {
+                BuildLog first = buffer.poll(flushIntervalMs, TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    buffer.drainTo(batch, batchSize - 1);
+                }
+                taken(batch);
+                addDropReports(batch);
+                Map<String, List<BuildLogPublisher.LogLine>> published = new LinkedHashMap<>();
+                for (int i = 0; i < batch.size(); i++) {
+                    BuildLog line = batch.get(i);
+                    long number = nextLine(line.getDeploymentId());
+                    if (line.getOnNumbered() != null) notifyNumbered(line, number);
+                    OpenChunk chunk = openChunks.computeIfAbsent(line.getDeploymentId(), OpenChunk::new);
+                    chunk.add(number, line);
+                    published.computeIfAbsent(line.getDeploymentId(), id -> new ArrayList<>()).add(new BuildLogPublisher.LogLine(
+                            number, line.getContent(), chunk.lines().get(chunk.size() - 1).timestamp().toString()));
+                    if (chunk.size() >= chunkLines) closed.add(openChunks.remove(line.getDeploymentId()));
+                }
+                published.forEach(publisher::publish);
+
+                boolean closeAll = !running;
+                Set<String> closing = deploymentsToClose(flushed);
+                LocalDateTime cutoff = LocalDateTime.now().minus(chunkAge);
+                for (Iterator<OpenChunk> it = openChunks.values().iterator(); it.hasNext(); ) {
+                    OpenChunk chunk = it.next();
+                    if (closeAll || closing.contains(chunk.deploymentId()) || chunk.startedAt().isBefore(cutoff)) {
+                        closed.add(chunk);
+                        it.remove();
+                    }
+                }
+                if (!closed.isEmpty()) write(closed);
+                processReleases();
+            } catch (InterruptedException e) {
+                if (!running) break;
+            } catch (Exception e) {
+                logger.error("Writer of build logs failed", e);
+            } finally {
+                batch.clear();
+                flushed.forEach(request -> request.done().countDown());
+            }
+        }
+    }
+
+    /**
+     * Deployments whose open chunk closes in this pass: those being flushed or released once none of their
+     * lines is left in the buffer, since everything they appended before is in the chunk by then.
+     * The flush requests among them go into flushed, to be answered once the chunks are written.
+     */
+    private Set<String> deploymentsToClose(List<FlushRequest> flushed) {
+        Set<String> closing = new HashSet<>();
+        for (int pending = flushRequests.size(); pending > 0; pending--) {
+            FlushRequest request = flushRequests.poll();
+            if (request == null) break;
+            if (backlogs.containsKey(request.deploymentId())) {
+                flushRequests.add(request);
+                continue;
+            }
+            flushed.add(request);
+            closing.add(request.deploymentId());
+        }
+        for (Release release : releases) {
+            if (!backlogs.containsKey(release.deploymentId())) closing.add(release.deploymentId());
+        }
+        return closing;
+    }
+
+    private long nextLine(String deploymentId) {
+        Long next = nextLines.get(deploymentId);
+        if (next == null) {
+            // First line of this job: continue after whatever earlier builds of the deployment stored.
+            try {
+                next = jdbcTemplate.queryForObject(LINE_COUNT_SQL, Long.class, deploymentId);
+            } catch (Exception e) {
+                logger.warn("Could not read log length of {}: {}", deploymentId, e.getMessage());
+            }
+            if (next == null) next = 0L;
+        }
+        nextLines.put(deploymentId, next + 1);
+        return next;
+    }
+
+    private void notifyNumbered(BuildLog line, long number) {
+        try {
+            line.getOnNumbered().accept(number);
+        } catch (Exception e) {
+            logger.warn("Line number callback of {} failed: {}", line.getDeploymentId(), e.getMessage());
+        }
+    }
+
+    /**
+     * The lines of the batch left the buffer. They are in open chunks before this pass of the loop looks at releases.
+     */
+    private void taken(List<BuildLog> batch) {
+        Map<String, Integer> counts = new HashMap<>();
+        for (BuildLog line : batch) counts.merge(line.getDeploymentId(), 1, Integer::sum);
+        counts.forEach((deploymentId, count) ->
+                backlogs.computeIfPresent(deploymentId, (id, backlog) -> backlog.buffered(-count).orNull()));
+    }
+
+    private void processReleases() {
+        for (int pending = releases.size(); pending > 0; pending--) {
+            Release release = releases.poll();
+            if (release == null) return;
+            String id = release.deploymentId();
+            // Lines still buffered or a drop report still to write keep the backlog entry.
+            if (openChunks.containsKey(id) || backlogs.containsKey(id)) {
+                releases.add(release);
+                continue;
+            }
+            nextLines.remove(id);
+            if (release.endOfLog()) publisher.publishEnd(id);
+        }
+    }
+
+    private void addDropReports(List<BuildLog> batch) {
+        for (String deploymentId : backlogs.keySet()) {
+            long[] count = new long[1];
+            backlogs.computeIfPresent(deploymentId, (id, backlog) -> {
+                count[0] = backlog.dropped;
+                return backlog.dropped(-backlog.dropped).orNull();
+            });
+            if (count[0] == 0) continue;
+            batch.add(BuildLog.builder()
+                    .deploymentId(deploymentId)
+                    .content("⚠️ " + count[0] + " log line(s) were dropped because the build wrote faster than the log store could keep up.")
+                    .timestamp(LocalDateTime.now())
+                    .build());
+        }
+    }
+
+    /**
+     * Lines of one deployment in the buffer, and dropped lines not reported yet. Only changed inside
+     * {@code backlogs.compute}; an entry with nothing left is removed.
+     */
+    private static final class Backlog {
+        private long buffered;
+        private long dropped;
+
+        static Backlog orNew(Backlog backlog) {
+            return backlog != null ? backlog : new Backlog();
+        }
+
+        Backlog buffered(long delta) {
+            buffered += delta;
+            return this;
+        }
+
+        Backlog dropped(long delta) {
+            dropped += delta;
+            return this;
+        }
+
+        Backlog orNull() {
+            return buffered <= 0 && dropped == 0 ? null : this;
+        }
+    }
+
+    /**
+     * Inserts the chunks in one batch. Chunks that lost their number to another writer, or all of them if the
+     * batch failed, are retried one by one, so one bad chunk does not take the others with it.
+     */
+    private void write(List<OpenChunk> chunks) {
+        List<OpenChunk> retry = new ArrayList<>();
+        try {
+            int[][] counts = jdbcTemplate.batchUpdate(INSERT_SQL, chunks, chunks.size(), BuildLogSink::setChunk);
+            int[] inserted = counts.length > 0 ? counts[0] : new int[0];
+            for (int i = 0; i < inserted.length && i < chunks.size(); i++) {
+                if (inserted[i] == 0) retry.add(chunks.get(i));
+            }
+        } catch (Exception e) {
+            logger.warn("Batch of {} build log chunk(s) failed, writing them one by one: {}", chunks.size(), e.getMessage());
+            retry.addAll(chunks);
+        }
+        retry.forEach(this::insert);
+    }
+
+    private void insert(OpenChunk chunk) {
+        try {
+            for (int attempt = 0; attempt < MAX_INSERT_ATTEMPTS; attempt++) {
+                if (jdbcTemplate.update(INSERT_SQL, ps -> setChunk(ps, chunk)) > 0) return;
+            }
+            logger.error("Failed to save a build log chunk of {}: its number kept being taken", chunk.deploymentId());
+        } catch (Exception e) {
+            // The lines are lost, but the build goes on; same as when a line cannot be printed.
+            logger.error("Failed to save a build log chunk of {}: {}", chunk.deploymentId(), e.getMessage());
+        }
+    }
+
+    private static void setChunk(PreparedStatement ps, OpenChunk chunk) throws SQLException {
+        ps.setString(1, chunk.deploymentId());
+        ps.setLong(2, chunk.firstLine());
+        ps.setInt(3, chunk.size());
+        ps.setTimestamp(4, Timestamp.valueOf(chunk.startedAt()));
+        ps.setTimestamp(5, Timestamp.valueOf(chunk.endedAt()));
+        ps.setBytes(6, LogChunkFormat.encode(chunk.startedAt(), chunk.lines()));
+        ps.setString(7, chunk.searchText());
+        ps.setString(8, chunk.deploymentId());
+    }
+
+    /**
+     * Lines of one deployment waiting to be written as a chunk.
+     */
+    static final class OpenChunk {
+        private final String deploymentId;
+        private final List<LogChunkFormat.Line> lines = new ArrayList<>();
+        private long firstLine;
+        private LocalDateTime startedAt;
+        private LocalDateTime endedAt;
+
+        OpenChunk(String deploymentId) {
+            this.deploymentId = deploymentId;
+        }
+
+        void add(long number, BuildLog line) {
+            if (startedAt == null) {
+                startedAt = line.getTimestamp();
+                firstLine = number;
+            }
+            // Timestamps of a chunk never go backwards, so they can be stored as offsets from the start.
+            LocalDateTime timestamp = line.getTimestamp().isBefore(startedAt) ? startedAt : line.getTimestamp();
+            if (endedAt != null && timestamp.isBefore(endedAt)) timestamp = endedAt;
+            lines.add(new LogChunkFormat.Line(timestamp, line.getContent()));
+            endedAt = timestamp;
+        }
+
+        String deploymentId() {
+            return deploymentId;
+        }
+
+        List<LogChunkFormat.Line> lines() {
+            return lines;
+        }
+
+        long firstLine() {
+            return firstLine;
+        }
+
+        int size() {
+            return lines.size();
+        }
+
+        LocalDateTime startedAt() {
+            return startedAt;
+        }
+
+        LocalDateTime endedAt() {
+            return endedAt;
+        }
+
+        /**
+         * The lines as one text, for the chunk's search vector.
+         */
+        String searchText() {
+            StringBuilder text = new StringBuilder();
+            for (LogChunkFormat.Line line : lines) {
+                if (text.length() + line.content().length() > MAX_SEARCH_TEXT) break;
+                text.append(line.content()).append('\n');
+            }
+            return text.toString();
+        }
+    }
+}
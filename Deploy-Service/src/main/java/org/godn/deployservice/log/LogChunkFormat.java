@@ -0,0 +1,77 @@
+package org.godn.deployservice.log;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Encoding of {@link BuildLogChunk#getData()}, gzipped:
+ * version (byte), line count n (int), n text offsets (int), n times as millis after startedAt (int),
+ * then the UTF-8 text of all lines back to back. Line i is text[offset(i), offset(i + 1)).
+ * Times are kept to the millisecond.
+ * Shared by Deploy-Service (writes) and Upload-Service (reads); keep both copies the same.
+ */
+public final class LogChunkFormat {
+
+    private static final byte VERSION = 1;
+
+    public record Line(LocalDateTime timestamp, String content) {
+    }
+
+    private LogChunkFormat() {
+    }
+
+    public static byte[] encode(LocalDateTime startedAt, List<Line> lines) {
+        ByteArrayOutputStream text = new ByteArrayOutputStream();
+        int[] offsets = new int[lines.size()];
+        for (int i = 0; i < lines.size(); i++) {
+            offsets[i] = text.size();
+            text.writeBytes(lines.get(i).content().getBytes(StandardCharsets.UTF_8));
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(new GZIPOutputStream(bytes))) {
+            out.writeByte(VERSION);
+            out.writeInt(lines.size());
+            for (int offset : offsets) out.writeInt(offset);
+            for (Line line : lines) out.writeInt((int) Duration.between(startedAt, line.timestamp()).toMillis());
+            text.writeTo(out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    public static List<Line> decode(LocalDateTime startedAt, byte[] data) {
+        try (DataInputStream in = new DataInputStream(new GZIPInputStream(new ByteArrayInputStream(data)))) {
+            byte version = in.readByte();
+            if (version != VERSION) throw new IOException("Unknown log chunk version " + version);
+            int count = in.readInt();
+            int[] offsets = new int[count];
+            for (int i = 0; i < count; i++) offsets[i] = in.readInt();
+            int[] millis = new int[count];
+            for (int i = 0; i < count; i++) millis[i] = in.readInt();
+            byte[] text = in.readAllBytes();
+
+            List<Line> lines = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                int end = i + 1 < count ? offsets[i + 1] : text.length;
+                lines.add(new Line(startedAt.plusNanos(millis[i] * 1_000_000L),
+                        new String(text, offsets[i], end - offsets[i], StandardCharsets.UTF_8)));
+            }
+            return lines;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
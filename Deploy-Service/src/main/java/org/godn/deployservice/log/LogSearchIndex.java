@@ -0,0 +1,78 @@
+package org.godn.deployservice.log;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Creates the GIN index on build_log_chunks.search_vector, which the schema update cannot express.
+ * Built concurrently, so writes to the table go on meanwhile; a no-op once it exists.
+ * A concurrent build that fails or is interrupted (e.g. by a restart) leaves an INVALID index behind, which
+ * IF NOT EXISTS would keep forever; that one is dropped and built again. One instance at a time does this,
+ * under an advisory lock, since an index another instance is still building is not valid yet either.
+ */
+@Component
+public class LogSearchIndex {
+    private static final Logger logger = LoggerFactory.getLogger(LogSearchIndex.class);
+
+    static final String LOCK_SQL = "SELECT pg_try_advisory_lock(hashtext('idx_build_log_chunks_search'))";
+    static final String UNLOCK_SQL = "SELECT pg_advisory_unlock(hashtext('idx_build_log_chunks_search'))";
+    // No row while the index does not exist.
+    static final String IS_VALID_SQL = "SELECT indisvalid FROM pg_index WHERE indexrelid = to_regclass('idx_build_log_chunks_search')";
+    static final String DROP_INDEX_SQL = "DROP INDEX CONCURRENTLY IF EXISTS idx_build_log_chunks_search";
+    static final String CREATE_INDEX_SQL = "CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_build_log_chunks_search "
+            + "ON build_log_chunks USING GIN (search_vector)";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public LogSearchIndex(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void createIndex() {
+        try {
+            // One connection throughout: the advisory lock belongs to the session.
+            jdbcTemplate.execute((ConnectionCallback<Void>) connection -> {
+                createIndex(connection);
+                return null;
+            });
+        } catch (Exception e) {
+            // Search still works, only slower.
+            logger.warn("Could not create the build log search index: {}", e.getMessage());
+        }
+    }
+
+    private void createIndex(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            if (!Boolean.TRUE.equals(queryBoolean(statement, LOCK_SQL))) {
+                logger.info("Another instance is creating the build log search index.");
+                return;
+            }
+            try {
+                if (Boolean.FALSE.equals(queryBoolean(statement, IS_VALID_SQL))) {
+                    logger.warn("The build log search index is invalid (an earlier build did not finish). Building it again.");
+                    statement.execute(DROP_INDEX_SQL);
+                }
+                statement.execute(CREATE_INDEX_SQL);
+            } finally {
+                statement.execute(UNLOCK_SQL);
+            }
+        }
+    }
+
+    private static Boolean queryBoolean(Statement statement, String sql) throws SQLException {
+        try (ResultSet result = statement.executeQuery(sql)) {
+            return result.next() ? result.getBoolean(1) : null;
+        }
+    }
+}
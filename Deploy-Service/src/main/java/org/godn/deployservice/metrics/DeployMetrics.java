@@ -0,0 +1,81 @@
+package org.godn.deployservice.metrics;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.godn.deployservice.build.BuildCapacityController;
+import org.godn.deployservice.deployment.DeploymentStatus;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * Micrometer meters for the build pipeline, scraped from /actuator/prometheus:
+ * - deploy.queue.wait: time from enqueue until a worker picked the job up
+ * - deploy.phase.duration{phase, outcome}: download, npm install, npm build and upload
+ * - deploy.job.duration{status}: whole job, from lock to final status
+ * - deploy.build.cache{cache, result}: hits and misses of the node_modules and framework caches
+ * - deploy.build.slots.*: current build limit and how many slots are taken
+ */
+@Component
+public class DeployMetrics {
+
+    public static final String PHASE_DOWNLOAD = "download";
+    public static final String PHASE_INSTALL = "install";
+    public static final String PHASE_BUILD = "build";
+    public static final String PHASE_UPLOAD = "upload";
+
+    private final MeterRegistry registry;
+    private final Timer queueWait;
+
+    public DeployMetrics(MeterRegistry registry, BuildCapacityController buildCapacity) {
+        this.registry = registry;
+        this.queueWait = Timer.builder("deploy.queue.wait")
+                .description("Time from enqueue until a worker picked the job up")
+                .publishPercentileHistogram()
+                .register(registry);
+
+        Gauge.builder("deploy.build.slots.limit", buildCapacity, BuildCapacityController::getLimit)
+                .description("Builds this worker currently allows at the same time")
+                .register(registry);
+        Gauge.builder("deploy.build.slots.in_use", buildCapacity, BuildCapacityController::getInUse)
+                .description("Build slots currently taken")
+                .register(registry);
+    }
+
+    public void recordQueueWait(Instant enqueuedAt) {
+        if (enqueuedAt == null) return; // Entry from an older producer without a timestamp
+        Duration wait = Duration.between(enqueuedAt, Instant.now());
+        // Clocks of the producer and this worker can disagree slightly.
+        queueWait.record(wait.isNegative() ? Duration.ZERO : wait);
+    }
+
+    public Timer.Sample startTimer() {
+        return Timer.start(registry);
+    }
+
+    public void recordPhase(String phase, Timer.Sample sample, boolean success) {
+        sample.stop(Timer.builder("deploy.phase.duration")
+                .description("Duration of one stage of a deployment")
+                .tag("phase", phase)
+                .tag("outcome", success ? "success" : "failure")
+                .publishPercentileHistogram()
+                .register(registry));
+    }
+
+    public static final String CACHE_DEPENDENCIES = "dependencies";
+    public static final String CACHE_FRAMEWORK = "framework";
+
+    public void recordCacheLookup(String cache, boolean hit) {
+        registry.counter("deploy.build.cache", "cache", cache, "result", hit ? "hit" : "miss").increment();
+    }
+
+    public void recordJob(Timer.Sample sample, DeploymentStatus status) {
+        sample.stop(Timer.builder("deploy.job.duration")
+                .description("Duration of a deployment from lock to final status")
+                .tag("status", status.name())
+                .publishPercentileHistogram()
+                .register(registry));
+    }
+}
@@ -0,0 +1,14 @@
+package org.godn.deployservice.queue;
+
+import java.time.Instant;
+
+/**
+ * A job taken from the build queue.
+ *
+ * @param deploymentId the deployment to build
+ * @param receipt      what is needed to acknowledge the job (the list entry or the stream record ID)
+ * @param redelivered  true if the job was reclaimed from a worker that stopped responding
+ * @param enqueuedAt   when the producer queued the job, or null if the entry does not say
+ */
+public record QueuedJob(String deploymentId, String receipt, boolean redelivered, Instant enqueuedAt) {
+}
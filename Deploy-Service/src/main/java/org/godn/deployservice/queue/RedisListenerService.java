@@ -2,17 +2,24 @@ package org.godn.deployservice.queue;
 
 import jakarta.annotation.PostConstruct;
 import jakarta.annotation.PreDestroy;
+import org.godn.deployservice.build.BuildCapacityController;
+import org.godn.deployservice.deployment.DeploymentPipeline;
 import org.godn.deployservice.deployment.DeploymentService;
+import org.godn.deployservice.metrics.DeployMetrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.context.event.ApplicationReadyEvent;
 import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Service;
 
-import java.util.concurrent.ExecutorService;
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
@@ -21,24 +28,43 @@ public class RedisListenerService {
 
     private static final Logger logger = LoggerFactory.getLogger(RedisListenerService.class);
 
+    // BLMOVE timeout. Kept short so shutdown is noticed quickly and well below the Redis command timeout.
+    private static final Duration BLOCK_TIMEOUT = Duration.ofSeconds(5);
+    private static final long HEARTBEAT_INTERVAL_SECONDS = 10;
+
     private final RedisQueueService redisQueueService;
     private final ScheduledExecutorService scheduledExecutor;
-    private final ExecutorService buildExecutor;
+    private final BuildCapacityController buildCapacity;
     private final DeploymentService deploymentService;
+    private final DeployMetrics deployMetrics;
     private final String workerBaseUrl; // Stored here
+    private final Duration drainGrace;
+    private final Duration drainTimeout;
+
+    private volatile boolean running = true;
+    private final CountDownLatch consumerStopped = new CountDownLatch(1);
+    private Future<?> consumerTask;
+    // Acknowledge / requeue callbacks that have not run yet.
+    private final Set<CompletableFuture<?>> pendingReceipts = ConcurrentHashMap.newKeySet();
 
     public RedisListenerService(
             @Value("${worker.website-url}") String workerBaseUrl,
             @Qualifier("redisTaskExecutor") ScheduledExecutorService executor,
-            @Qualifier("buildExecutor") ExecutorService buildExecutor,
+            BuildCapacityController buildCapacity,
             RedisQueueService redisQueueService,
-            DeploymentService deploymentService
+            DeploymentService deploymentService,
+            DeployMetrics deployMetrics,
+            @Value("${worker.drain.grace-seconds:20}") long drainGraceSeconds,
+            @Value("${worker.drain.timeout-seconds:60}") long drainTimeoutSeconds
     ) {
         this.workerBaseUrl = workerBaseUrl; // Inject from application.yml
         this.scheduledExecutor = executor;
-        this.buildExecutor = buildExecutor;
+        this.buildCapacity = buildCapacity;
         this.redisQueueService = redisQueueService;
         this.deploymentService = deploymentService;
+        this.deployMetrics = deployMetrics;
+        this.drainGrace = Duration.ofSeconds(drainGraceSeconds);
+        this.drainTimeout = Duration.ofSeconds(drainTimeoutSeconds);
     }
 
     @PostConstruct
@@ -55,30 +81,144 @@ public class RedisListenerService {
 
     @EventListener(ApplicationReadyEvent.class)
     public void startListening() {
-        logger.info("Started RedisListenerService Polling");
-        scheduledExecutor.scheduleWithFixedDelay(this::run, 0, 1, TimeUnit.SECONDS);
+        logger.info("Started RedisListenerService as worker {}", redisQueueService.getWorkerId());
+        redisQueueService.initialize();
+        redisQueueService.sendHeartbeat();
+
+        // Anything still in our own processing list belongs to a previous run of this worker.
+        redisQueueService.recoverOrphanedJobs(true, deploymentService::releaseClaim);
+
+        scheduledExecutor.scheduleWithFixedDelay(this::heartbeatAndRecover, HEARTBEAT_INTERVAL_SECONDS, HEARTBEAT_INTERVAL_SECONDS, TimeUnit.SECONDS);
+        consumerTask = scheduledExecutor.submit(this::consume);
+    }
+
+    /**
+     * Waits until the capacity controller admits another build, then blocks on Redis until a job arrives.
+     * While no build is admitted, jobs stay in the shared queue where other workers can take them.
+     * The slot is handed back when the build stage finishes; the job is acknowledged once it is fully deployed.
+     */
+    private void consume() {
+        try {
+            consumeUntilStopped();
+        } finally {
+            consumerStopped.countDown();
+        }
     }
 
-    private void run() {
-        String id = redisQueueService.popFromQueue();
-        if (id != null) {
+    private void consumeUntilStopped() {
+        while (running) {
+            // The slot is taken before the job, and so before its admission (see DeploymentService#processDeployment):
+            // without a slot this worker leaves jobs in the shared queue for the others. A job that is rejected or
+            // reuses the live build gives the slot back as soon as its few R2 reads are done.
+            try {
+                buildCapacity.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+
+            boolean dispatched = false;
+            try {
+                QueuedJob job = redisQueueService.takeFromQueue(BLOCK_TIMEOUT);
+                if (job != null && !running) {
+                    // Taken while shutting down: not locked yet, so it can go straight back.
+                    redisQueueService.requeue(job);
+                } else if (job != null) {
+                    dispatched = dispatch(job);
+                }
+            } catch (Exception e) {
+                if (!running) return;
+                logger.error("Failed to take job from Redis queue", e);
+                sleepQuietly(1000);
+            } finally {
+                if (!dispatched) buildCapacity.release();
+            }
+        }
+    }
+
+    /**
+     * Starts the pipeline of a taken job. Returns false if it could not be started; the job is then handed
+     * back to the queue, since neither the pipeline nor anyone else would ever acknowledge or requeue it.
+     */
+    private boolean dispatch(QueuedJob job) {
+        try {
+            if (job.redelivered()) {
+                // Taken over from a worker that stopped responding while it was BUILDING.
+                deploymentService.releaseClaim(job.deploymentId());
+            } else {
+                deployMetrics.recordQueueWait(job.enqueuedAt());
+            }
             // --- PASS THE URL TO THE SERVICE ---
-            deploymentService.processDeployment(id, workerBaseUrl);
+            DeploymentPipeline pipeline = deploymentService.processDeployment(job.deploymentId(), workerBaseUrl);
+            // The slot only covers download + build; the upload runs while the next job builds.
+            pipeline.buildStage().whenComplete((result, ex) -> buildCapacity.release());
+            CompletableFuture<?> receipt = pipeline.completion().whenComplete((outcome, ex) -> {
+                if (outcome == DeploymentPipeline.Outcome.REQUEUE) redisQueueService.requeue(job);
+                else redisQueueService.acknowledge(job);
+            });
+            pendingReceipts.add(receipt);
+            receipt.whenComplete((result, ex) -> pendingReceipts.remove(receipt));
+            return true;
+        } catch (Exception e) {
+            logger.error("Could not start job {}. Returning it to the queue.", job.deploymentId(), e);
+            try {
+                redisQueueService.requeue(job);
+            } catch (Exception requeueFailure) {
+                logger.error("Could not return job {} to the queue", job.deploymentId(), requeueFailure);
+            }
+            return false;
+        }
+    }
+
+    private void heartbeatAndRecover() {
+        try {
+            redisQueueService.sendHeartbeat();
+            redisQueueService.recoverOrphanedJobs(false, deploymentService::releaseClaim);
+        } catch (Exception e) {
+            logger.error("Heartbeat / orphan recovery failed", e);
+        }
+    }
+
+    private void sleepQuietly(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
     }
 
+    /**
+     * Drains the worker: stops taking jobs, lets the running ones finish or hands them back to the queue
+     * (see {@link DeploymentService#drain}), and only then stops the heartbeat, so other workers do not
+     * take over jobs that are still running here.
+     */
     @PreDestroy
     public void stopListening() {
-        logger.info("Stopping RedisListenerService");
+        logger.info("Stopping RedisListenerService. Draining running builds...");
+        running = false;
+        try {
+            if (consumerTask != null && !consumerStopped.await(BLOCK_TIMEOUT.toSeconds() + 2, TimeUnit.SECONDS)) {
+                // Still waiting for a build slot.
+                consumerTask.cancel(true);
+            }
+
+            if (!deploymentService.drain(drainGrace, drainTimeout)) {
+                logger.warn("Some jobs did not stop in time. They will be recovered by another worker.");
+            }
+            CompletableFuture.allOf(pendingReceipts.toArray(new CompletableFuture[0])).get(5, TimeUnit.SECONDS);
+            logger.info("✅ Drain complete.");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            logger.warn("Drain did not complete cleanly", e);
+        }
+
         scheduledExecutor.shutdown();
-        buildExecutor.shutdown();
         try {
             if (!scheduledExecutor.awaitTermination(10, TimeUnit.SECONDS)) scheduledExecutor.shutdownNow();
-            if (!buildExecutor.awaitTermination(30, TimeUnit.SECONDS)) buildExecutor.shutdownNow();
         } catch (InterruptedException e) {
             scheduledExecutor.shutdownNow();
-            buildExecutor.shutdownNow();
             Thread.currentThread().interrupt();
         }
     }
-}
\ No newline at end of file
+}
@@ -1,27 +1,631 @@
 package org.godn.deployservice.queue;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.connection.RedisListCommands.Direction;
+import org.springframework.data.redis.connection.RedisStreamCommands.XClaimOptions;
+import org.springframework.data.redis.connection.stream.ReadOffset;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamOffset;
+import org.springframework.data.redis.connection.stream.StreamReadOptions;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
 import org.springframework.stereotype.Service;
 
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * Worker side of the build queue. Two modes, which must match the Upload-Service (queue.redis.mode):
+ *
+ * Entries are JSON ({"deploymentId": ..., "enqueuedAt": epoch millis}) so the worker can tell how long
+ * a job waited; plain deployment IDs from older producers are still accepted.
+ *
+ * list (default):
+ * - Producers RPUSH entries onto the tail of QUEUE_KEY.
+ * - Each worker LMOVEs from the head of QUEUE_KEY into its own processing list
+ *   (QUEUE_KEY:processing:{workerId}), so a job is never only in memory. An idle worker waits with a
+ *   BLMOVE of the head onto itself, which takes nothing.
+ * - The entry is removed from the processing list (acknowledged) once the build is finished.
+ * - Workers keep a heartbeat key alive; processing lists of dead workers are moved back to the queue.
+ *
+ * stream:
+ * - Producers XADD {deploymentId, request} to QUEUE_KEY:stream, read by the consumer group QUEUE_KEY:workers.
+ * - Each worker XREADGROUPs as consumer {workerId} and XACKs (then XDELs) once the build is finished.
+ *   An idle worker waits with a plain XREAD after the last record, which takes nothing.
+ * - Workers refresh the idle time of their own pending entries on every heartbeat, so only entries
+ *   of workers that stopped responding go idle. An idle entry is taken over (XPENDING, then XCLAIM) only
+ *   once its owner's heartbeat key has expired too, so a worker that was merely slow to refresh keeps its job.
+ *
+ * fair:
+ * - Producers RPUSH entries onto a per-owner sub-queue (QUEUE_KEY:fair:owner:{ownerId}) and add
+ *   the owner to the round-robin ring QUEUE_KEY:fair:owners. Every job also pushes a token onto
+ *   QUEUE_KEY:fair:ready, which idle workers block on.
+ * - Workers serve the owner at the head of the ring and rotate it once it has used up its credits
+ *   (its weight from the hash QUEUE_KEY:fair:weights, default 1), so a user with many rebuilds queued
+ *   cannot hold back everyone else. Owners without pending jobs leave the ring.
+ * - Workers write the weights from queue.redis.fair-weights ("owner:weight,...") to that hash at startup,
+ *   replacing what was there, so all workers should be configured alike.
+ * - The job is moved into the worker's processing list together with its owner; acknowledgement
+ *   and dead-worker recovery work like list mode, recovered jobs go back to the head of their owner's queue.
+ *
+ * Only the Upload-Service enqueues. Its pushes are coalesced per deployment through the hash QUEUE_KEY:pending.
+ * Every take runs in a Lua script that also removes the job's field, if it still holds the request that was
+ * taken, so a push is either coalesced into a job that has not started or queues a new build. Jobs handed back
+ * (requeued or recovered) restore their field unless a newer push has set it.
+ */
 @Service
 public class RedisQueueService {
+    private static final Logger logger = LoggerFactory.getLogger(RedisQueueService.class);
+
+    private static final Duration HEARTBEAT_TTL = Duration.ofSeconds(30);
+    private static final String STREAM_FIELD = "deploymentId";
+    private static final String REQUEST_FIELD = "request";
+    private static final String ENQUEUED_AT_FIELD = "enqueuedAt";
+
+    // Shared by the take and return scripts. QUEUE_KEY:pending maps a deployment ID to the request (queue entry)
+    // that queued it. A take removes the field only if it still holds the entry that was taken, in the same
+    // script, so no push can see it in between; a job handed back restores it unless a newer push replaced it.
+    private static final String PENDING = """
+            local function deployment_of(entry)
+                local ok, job = pcall(cjson.decode, entry)
+                if ok and type(job) == 'table' and job.deploymentId then return tostring(job.deploymentId) end
+                return entry
+            end
+            local function clear_pending(pending, entry)
+                local id = deployment_of(entry)
+                if redis.call('HGET', pending, id) == entry then redis.call('HDEL', pending, id) end
+            end
+            local function restore_pending(pending, entry)
+                redis.call('HSETNX', pending, deployment_of(entry), entry)
+            end
+            """;
+
+    // Looks a field up in a stream record's flat field list. Records of older producers have no request field.
+    private static final String STREAM_REQUEST = """
+            local function field_of(fields, name)
+                if not fields then return nil end
+                for i = 1, #fields, 2 do
+                    if fields[i] == name then return fields[i + 1] end
+                end
+                return nil
+            end
+            """;
+
+    // Claims one idle pending entry of a worker whose heartbeat key (ARGV[6] .. owner) has expired, or of this
+    // worker itself (left over from its previous run), and returns {recordId, deploymentId}. Entries without a
+    // deployment ID are acknowledged and deleted so they are not claimed over and over again.
+    @SuppressWarnings("rawtypes")
+    static final RedisScript<List> AUTOCLAIM_SCRIPT = new DefaultRedisScript<>(PENDING + STREAM_REQUEST + """
+            local idle = redis.call('XPENDING', KEYS[1], ARGV[1], 'IDLE', ARGV[3], '-', '+', 100)
+            for _, pending in ipairs(idle) do
+                local owner = pending[2]
+                if owner == ARGV[2] or redis.call('EXISTS', ARGV[6] .. owner) == 0 then
+                    local claimed = redis.call('XCLAIM', KEYS[1], ARGV[1], ARGV[2], ARGV[3], pending[1])
+                    for _, entry in ipairs(claimed) do
+                        if entry then
+                            local id = field_of(entry[2], ARGV[4])
+                            if id then
+                                local request = field_of(entry[2], ARGV[5])
+                                if request then clear_pending(KEYS[2], request) end
+                                return {entry[1], id}
+                            end
+                            redis.call('XACK', KEYS[1], ARGV[1], entry[1])
+                            redis.call('XDEL', KEYS[1], entry[1])
+                        end
+                    end
+                end
+            end
+            return {}
+            """, List.class);
+
+    // Stream mode: reads one new record for this consumer and returns {recordId, deploymentId}. A record without a
+    // deployment ID is acknowledged, deleted and returned as {recordId}. With nothing new it returns
+    // {'', lastRecordId}, from where the caller waits for the next record.
+    @SuppressWarnings("rawtypes")
+    static final RedisScript<List> STREAM_TAKE_SCRIPT = new DefaultRedisScript<>(PENDING + STREAM_REQUEST + """
+            local res = redis.call('XREADGROUP', 'GROUP', ARGV[1], ARGV[2], 'COUNT', 1, 'STREAMS', KEYS[1], '>')
+            local entry = res and res[1][2][1]
+            if not entry then
+                local last = redis.call('XREVRANGE', KEYS[1], '+', '-', 'COUNT', 1)[1]
+                return {'', last and last[1] or '0-0'}
+            end
+            local id = field_of(entry[2], ARGV[3])
+            if not id then
+                redis.call('XACK', KEYS[1], ARGV[1], entry[1])
+                redis.call('XDEL', KEYS[1], entry[1])
+                return {entry[1]}
+            end
+            local request = field_of(entry[2], ARGV[4])
+            if request then clear_pending(KEYS[2], request) end
+            return {entry[1], id}
+            """, List.class);
+
+    // List mode: moves the head of the queue into the processing list. Returns the entry, or nil if the queue is empty.
+    static final RedisScript<String> LIST_TAKE_SCRIPT = new DefaultRedisScript<>(PENDING + """
+            local entry = redis.call('LMOVE', KEYS[1], KEYS[2], 'LEFT', 'RIGHT')
+            if not entry then return false end
+            clear_pending(KEYS[3], entry)
+            return entry
+            """, String.class);
+
+    // Fair mode: takes one job from the owner at the head of the ring (weighted round robin) and moves it,
+    // tagged with its owner, into the processing list. Returns {processingEntry, deploymentId} or {}.
+    // (cjson keeps 14 significant digits, enough for enqueuedAt in epoch millis.)
+    @SuppressWarnings("rawtypes")
+    static final RedisScript<List> FAIR_DEQUEUE_SCRIPT = new DefaultRedisScript<>(PENDING + """
+            local ring, credits, weights, processing, ready = KEYS[1], KEYS[2], KEYS[3], KEYS[4], KEYS[5]
+            for _ = 1, redis.call('LLEN', ring) do
+                local owner = redis.call('LINDEX', ring, 0)
+                local queue = ARGV[1] .. owner
+                local item = redis.call('LPOP', queue)
+                if not item then
+                    redis.call('LPOP', ring)
+                    redis.call('HDEL', credits, owner)
+                else
+                    local credit = tonumber(redis.call('HGET', credits, owner))
+                    if not credit or credit <= 0 then
+                        credit = math.max(1, tonumber(redis.call('HGET', weights, owner)) or 1)
+                    end
+                    credit = credit - 1
+                    if redis.call('LLEN', queue) == 0 then
+                        redis.call('LPOP', ring)
+                        redis.call('HDEL', credits, owner)
+                    elseif credit <= 0 then
+                        redis.call('LMOVE', ring, ring, 'LEFT', 'RIGHT')
+                        redis.call('HDEL', credits, owner)
+                    else
+                        redis.call('HSET', credits, owner, credit)
+                    end
+                    clear_pending(KEYS[6], item)
+                    local ok, job = pcall(cjson.decode, item)
+                    if not ok or type(job) ~= 'table' then job = {deploymentId = item} end
+                    job.ownerId = owner
+                    local entry = cjson.encode(job)
+                    redis.call('RPUSH', processing, entry)
+                    return {entry, job.deploymentId}
+                end
+            end
+            redis.call('DEL', ready)
+            return {}
+            """, List.class);
+
+    // Fair mode: replaces the weights hash with the owner/weight pairs in ARGV.
+    static final RedisScript<Long> FAIR_WEIGHTS_SCRIPT = new DefaultRedisScript<>("""
+            redis.call('DEL', KEYS[1])
+            for i = 1, #ARGV, 2 do redis.call('HSET', KEYS[1], ARGV[i], ARGV[i + 1]) end
+            return #ARGV / 2
+            """, Long.class);
+
+    // List mode: moves every entry of a processing list back to the head of the queue, keeping their order.
+    static final RedisScript<Long> LIST_REQUEUE_SCRIPT = new DefaultRedisScript<>(PENDING + """
+            local moved = 0
+            while true do
+                local entry = redis.call('RPOP', KEYS[1])
+                if not entry then break end
+                redis.call('LPUSH', KEYS[2], entry)
+                restore_pending(KEYS[3], entry)
+                moved = moved + 1
+            end
+            return moved
+            """, Long.class);
+
+    // Fair mode: moves every entry of a processing list back to the head of its owner's sub-queue.
+    // Entries left over from list mode carry no owner and go to the shared owner ARGV[2].
+    static final RedisScript<Long> FAIR_REQUEUE_SCRIPT = new DefaultRedisScript<>(PENDING + """
+            local moved = 0
+            while true do
+                local entry = redis.call('RPOP', KEYS[1])
+                if not entry then break end
+                local ok, job = pcall(cjson.decode, entry)
+                local owner = ARGV[2]
+                if ok and type(job) == 'table' and job.ownerId then owner = job.ownerId end
+                redis.call('LPUSH', ARGV[1] .. owner, entry)
+                if not redis.call('LPOS', KEYS[2], owner) then redis.call('LPUSH', KEYS[2], owner) end
+                redis.call('RPUSH', KEYS[3], '1')
+                restore_pending(KEYS[4], entry)
+                moved = moved + 1
+            end
+            return moved
+            """, Long.class);
+
+    // Hands a single job back: removes it from the processing list and puts it at the head of the queue,
+    // so the next worker picks it up before newer jobs. Returns 0 if the entry was no longer there.
+    static final RedisScript<Long> LIST_RETURN_SCRIPT = new DefaultRedisScript<>(PENDING + """
+            if redis.call('LREM', KEYS[1], 1, ARGV[1]) == 0 then return 0 end
+            redis.call('LPUSH', KEYS[2], ARGV[1])
+            restore_pending(KEYS[3], ARGV[1])
+            return 1
+            """, Long.class);
+
+    // Fair mode version of LIST_RETURN_SCRIPT: the job goes back to the head of its owner's sub-queue.
+    static final RedisScript<Long> FAIR_RETURN_SCRIPT = new DefaultRedisScript<>(PENDING + """
+            if redis.call('LREM', KEYS[1], 1, ARGV[1]) == 0 then return 0 end
+            local ok, job = pcall(cjson.decode, ARGV[1])
+            local owner = ARGV[3]
+            if ok and type(job) == 'table' and job.ownerId then owner = job.ownerId end
+            redis.call('LPUSH', ARGV[2] .. owner, ARGV[1])
+            if not redis.call('LPOS', KEYS[2], owner) then redis.call('LPUSH', KEYS[2], owner) end
+            redis.call('RPUSH', KEYS[3], '1')
+            restore_pending(KEYS[4], ARGV[1])
+            return 1
+            """, Long.class);
+
+    // Stream mode: the record stays pending for another worker to claim; puts its request back in the pending hash.
+    static final RedisScript<Long> STREAM_RETURN_SCRIPT = new DefaultRedisScript<>(PENDING + STREAM_REQUEST + """
+            local record = redis.call('XRANGE', KEYS[1], ARGV[1], ARGV[1])[1]
+            if not record then return 0 end
+            local request = field_of(record[2], ARGV[2])
+            if request then restore_pending(KEYS[2], request) end
+            return 1
+            """, Long.class);
+
+    static final String SHARED_OWNER = "_shared";
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
     private final String QUEUE_KEY;
+    private final QueueMode mode;
+    private final String workerId;
+    private final String processingKey;
+    private final String heartbeatKey;
+    private final String workersKey;
+    private final String streamKey;
+    private final String groupName;
+    private final String ownerQueuePrefix;
+    private final String ownersKey;
+    private final String creditsKey;
+    private final String weightsKey;
+    private final Map<String, Integer> ownerWeights;
+    private final String readyKey;
+    private final Duration claimIdleTime;
+    private final String pendingKey;
     private final StringRedisTemplate redisTemplate;
-    public RedisQueueService(StringRedisTemplate redisTemplate, @Value("${queue.redis.key}") String queueKey) {
+
+    // Stream record IDs this worker is currently building (stream mode only).
+    private final Set<String> inFlight = ConcurrentHashMap.newKeySet();
+
+    public RedisQueueService(
+            StringRedisTemplate redisTemplate,
+            @Value("${queue.redis.key}") String queueKey,
+            @Value("${queue.redis.worker-id:}") String workerId,
+            @Value("${queue.redis.mode:list}") String mode,
+            @Value("${queue.redis.claim-idle-seconds:60}") long claimIdleSeconds,
+            @Value("${queue.redis.fair-weights:}") String fairWeights
+    ) {
         this.QUEUE_KEY = queueKey;
         this.redisTemplate = redisTemplate;
+        this.mode = QueueMode.from(mode);
+        this.workerId = workerId == null || workerId.isBlank() ? UUID.randomUUID().toString() : workerId;
+        this.processingKey = processingKeyFor(this.workerId);
+        this.heartbeatKey = QUEUE_KEY + ":worker:" + this.workerId;
+        this.workersKey = QUEUE_KEY + ":workers";
+        this.streamKey = QUEUE_KEY + ":stream";
+        this.groupName = QUEUE_KEY + ":workers";
+        this.ownerQueuePrefix = QUEUE_KEY + ":fair:owner:";
+        this.ownersKey = QUEUE_KEY + ":fair:owners";
+        this.creditsKey = QUEUE_KEY + ":fair:credits";
+        this.weightsKey = QUEUE_KEY + ":fair:weights";
+        this.readyKey = QUEUE_KEY + ":fair:ready";
+        this.claimIdleTime = Duration.ofSeconds(claimIdleSeconds);
+        this.pendingKey = QUEUE_KEY + ":pending";
+        this.ownerWeights = parseWeights(fairWeights);
+    }
+
+    /**
+     * Parses "owner-1:3,owner-2:2". Entries without a positive weight are skipped.
+     */
+    static Map<String, Integer> parseWeights(String value) {
+        Map<String, Integer> weights = new LinkedHashMap<>();
+        if (value == null || value.isBlank()) return weights;
+        for (String pair : value.split(",")) {
+            int colon = pair.lastIndexOf(':');
+            if (colon <= 0) {
+                logger.warn("⚠️ Ignoring fair queue weight without an owner: '{}'", pair.trim());
+                continue;
+            }
+            try {
+                int weight = Integer.parseInt(pair.substring(colon + 1).trim());
+                if (weight > 0) weights.put(pair.substring(0, colon).trim(), weight);
+                else logger.warn("⚠️ Ignoring fair queue weight below 1: '{}'", pair.trim());
+            } catch (NumberFormatException e) {
+                logger.warn("⚠️ Ignoring fair queue weight that is not a number: '{}'", pair.trim());
+            }
+        }
+        return weights;
+    }
+
+    /**
+     * Creates the consumer group (and the stream) if they do not exist yet, or writes the owner weights
+     * in fair mode. No-op in list mode.
+     */
+    public void initialize() {
+        if (mode == QueueMode.FAIR) {
+            List<String> args = new ArrayList<>();
+            ownerWeights.forEach((owner, weight) -> {
+                args.add(owner);
+                args.add(String.valueOf(weight));
+            });
+            redisTemplate.execute(FAIR_WEIGHTS_SCRIPT, List.of(weightsKey), args.toArray());
+            logger.info("Fair queue weights: {}", ownerWeights.isEmpty() ? "all owners 1" : ownerWeights);
+            return;
+        }
+        if (mode != QueueMode.STREAM) return;
+        try {
+            redisTemplate.execute((RedisCallback<String>) connection -> connection.streamCommands()
+                    .xGroupCreate(streamKey.getBytes(StandardCharsets.UTF_8), groupName, ReadOffset.from("0"), true));
+            logger.info("Created consumer group {} on stream {}", groupName, streamKey);
+        } catch (DataAccessException e) {
+            if (e.getMessage() == null || !e.getMessage().contains("BUSYGROUP")) throw e;
+        }
+    }
+
+    /**
+     * Blocks until a job is available (or the timeout elapses). Returns null on timeout.
+     * In list mode the job is atomically moved into this worker's processing list.
+     * In stream mode a job abandoned by another worker is taken over before new ones are read.
+     * In fair mode the worker waits for a ready token, then takes the job of the owner whose turn it is.
+     */
+    public QueuedJob takeFromQueue(Duration timeout) {
+        if (mode == QueueMode.STREAM) {
+            QueuedJob reclaimed = claimAbandonedJob();
+            if (reclaimed != null) return reclaimed;
+            return readFromStream(timeout);
+        }
+        if (mode == QueueMode.FAIR) {
+            // Try the ring even on timeout, in case a token was lost with a crashed worker.
+            redisTemplate.opsForList().leftPop(readyKey, timeout);
+            return takeFair();
+        }
+        String entry = takeFromList();
+        // Moving the head onto itself waits for a job without taking it; the take script then races the other workers.
+        if (entry == null
+                && redisTemplate.opsForList().move(QUEUE_KEY, Direction.LEFT, QUEUE_KEY, Direction.LEFT, timeout) != null) {
+            entry = takeFromList();
+        }
+        return entry == null ? null : parseEntry(entry);
     }
 
-    public void pushToQueue(String uploadId) {
-        redisTemplate.opsForList().rightPush(QUEUE_KEY, uploadId);
+    /**
+     * Marks a job as done: removes it from this worker's processing list, or XACKs it.
+     */
+    public void acknowledge(QueuedJob job) {
+        if (mode == QueueMode.STREAM) {
+            redisTemplate.opsForStream().acknowledge(streamKey, groupName, job.receipt());
+            redisTemplate.opsForStream().delete(streamKey, job.receipt());
+            inFlight.remove(job.receipt());
+        } else {
+            redisTemplate.opsForList().remove(processingKey, 1, job.receipt());
+        }
     }
 
-    public String popFromQueue() {
-        return redisTemplate.opsForList().leftPop(QUEUE_KEY);
+    /**
+     * Gives a job this worker will not finish back to the queue, e.g. while draining for shutdown.
+     * In stream mode the entry stays pending without being refreshed, so another worker takes it
+     * over once it has been idle for claim-idle-seconds.
+     */
+    public void requeue(QueuedJob job) {
+        Long returned;
+        if (mode == QueueMode.STREAM) {
+            inFlight.remove(job.receipt());
+            returned = redisTemplate.execute(STREAM_RETURN_SCRIPT, List.of(streamKey, pendingKey),
+                    job.receipt(), REQUEST_FIELD);
+        } else if (mode == QueueMode.FAIR) {
+            returned = redisTemplate.execute(FAIR_RETURN_SCRIPT, List.of(processingKey, ownersKey, readyKey, pendingKey),
+                    job.receipt(), ownerQueuePrefix, SHARED_OWNER);
+        } else {
+            returned = redisTemplate.execute(LIST_RETURN_SCRIPT, List.of(processingKey, QUEUE_KEY, pendingKey), job.receipt());
+        }
+        if (returned != null && returned > 0) {
+            logger.info("Returned job {} to the queue.", job.deploymentId());
+        }
     }
 
     public Long getQueueSize() {
+        if (mode == QueueMode.STREAM) {
+            return redisTemplate.opsForStream().size(streamKey);
+        }
+        if (mode == QueueMode.FAIR) {
+            List<String> owners = redisTemplate.opsForList().range(ownersKey, 0, -1);
+            long size = 0;
+            if (owners != null) {
+                for (String owner : owners) {
+                    Long pending = redisTemplate.opsForList().size(ownerQueuePrefix + owner);
+                    if (pending != null) size += pending;
+                }
+            }
+            return size;
+        }
         return redisTemplate.opsForList().size(QUEUE_KEY);
     }
 
+    public String getWorkerId() {
+        return workerId;
+    }
+
+    public void sendHeartbeat() {
+        redisTemplate.opsForValue().set(heartbeatKey, "alive", HEARTBEAT_TTL);
+        redisTemplate.opsForSet().add(workersKey, workerId);
+
+        if (mode == QueueMode.STREAM && !inFlight.isEmpty()) {
+            // Re-claiming our own entries resets their idle time, so other workers leave them alone.
+            // JUSTID leaves the delivery count alone: a long build is still one delivery.
+            RecordId[] ids = inFlight.stream().map(RecordId::of).toArray(RecordId[]::new);
+            byte[] key = streamKey.getBytes(StandardCharsets.UTF_8);
+            redisTemplate.execute((RedisCallback<List<RecordId>>) connection -> connection.streamCommands()
+                    .xClaimJustId(key, groupName, workerId, XClaimOptions.minIdle(Duration.ZERO).ids(ids)));
+        }
+    }
+
+    /**
+     * Moves jobs left behind by dead workers (and, at startup, by a previous run of this worker)
+     * back to the queue. The callback runs for each deployment ID before it is requeued.
+     * Stream mode recovers abandoned jobs in {@link #takeFromQueue(Duration)} instead.
+     */
+    public void recoverOrphanedJobs(boolean includeOwn, Consumer<String> beforeRequeue) {
+        if (mode == QueueMode.STREAM) return;
+
+        List<String> owners = findDeadWorkers();
+        if (includeOwn) owners.add(workerId);
+
+        for (String owner : owners) {
+            List<String> ids = getPendingJobs(owner);
+            if (ids.isEmpty()) {
+                forgetWorker(owner);
+                continue;
+            }
+            ids.stream().map(this::deploymentIdOf).forEach(beforeRequeue);
+            requeuePendingJobs(owner);
+        }
+    }
+
+    /**
+     * Worker IDs that are registered but whose heartbeat has expired.
+     */
+    private List<String> findDeadWorkers() {
+        Set<String> workers = redisTemplate.opsForSet().members(workersKey);
+        List<String> dead = new ArrayList<>();
+        if (workers == null) return dead;
+
+        for (String id : workers) {
+            if (id.equals(workerId)) continue;
+            if (!Boolean.TRUE.equals(redisTemplate.hasKey(QUEUE_KEY + ":worker:" + id))) {
+                dead.add(id);
+            }
+        }
+        return dead;
+    }
+
+    private List<String> getPendingJobs(String ownerWorkerId) {
+        List<String> ids = redisTemplate.opsForList().range(processingKeyFor(ownerWorkerId), 0, -1);
+        return ids == null ? List.of() : ids;
+    }
+
+    /**
+     * Moves every entry of the given worker's processing list back to the head of the queue,
+     * so recovered jobs are picked up before newer ones.
+     */
+    private void requeuePendingJobs(String ownerWorkerId) {
+        String source = processingKeyFor(ownerWorkerId);
+        Long count;
+        if (mode == QueueMode.FAIR) {
+            count = redisTemplate.execute(FAIR_REQUEUE_SCRIPT, List.of(source, ownersKey, readyKey, pendingKey),
+                    ownerQueuePrefix, SHARED_OWNER);
+        } else {
+            count = redisTemplate.execute(LIST_REQUEUE_SCRIPT, List.of(source, QUEUE_KEY, pendingKey));
+        }
+        long moved = count == null ? 0 : count;
+        forgetWorker(ownerWorkerId);
+        if (moved > 0) {
+            logger.warn("Requeued {} unacknowledged job(s) from worker {}", moved, ownerWorkerId);
+        }
+    }
+
+    private void forgetWorker(String ownerWorkerId) {
+        if (!ownerWorkerId.equals(workerId)) {
+            redisTemplate.opsForSet().remove(workersKey, ownerWorkerId);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private QueuedJob takeFair() {
+        List<String> taken = redisTemplate.execute(FAIR_DEQUEUE_SCRIPT,
+                List.of(ownersKey, creditsKey, weightsKey, processingKey, readyKey, pendingKey), ownerQueuePrefix);
+        if (taken == null || taken.size() < 2) return null;
+        return parseEntry(taken.get(0));
+    }
+
+    private String takeFromList() {
+        return redisTemplate.execute(LIST_TAKE_SCRIPT, List.of(QUEUE_KEY, processingKey, pendingKey));
+    }
+
+    /**
+     * Reads a list entry. The entry itself is the receipt, since it is removed from the processing list by value.
+     */
+    private QueuedJob parseEntry(String entry) {
+        if (!entry.startsWith("{")) return new QueuedJob(entry, entry, false, null);
+        try {
+            JsonNode node = objectMapper.readTree(entry);
+            JsonNode enqueuedAt = node.path(ENQUEUED_AT_FIELD);
+            return new QueuedJob(node.path(STREAM_FIELD).asText(entry), entry, false,
+                    enqueuedAt.isNumber() ? Instant.ofEpochMilli(enqueuedAt.asLong()) : null);
+        } catch (JsonProcessingException e) {
+            return new QueuedJob(entry, entry, false, null);
+        }
+    }
+
+    private String deploymentIdOf(String entry) {
+        return parseEntry(entry).deploymentId();
+    }
+
+    private QueuedJob readFromStream(Duration timeout) {
+        List<String> taken = takeFromStream();
+        if (taken.size() == 2 && taken.get(0).isEmpty()) {
+            // Nothing new: wait (plain XREAD, outside the group) for a record after the last one, then try again.
+            redisTemplate.opsForStream().read(StreamReadOptions.empty().count(1).block(timeout),
+                    StreamOffset.create(streamKey, ReadOffset.from(taken.get(1))));
+            taken = takeFromStream();
+        }
+        if (taken.isEmpty() || taken.get(0).isEmpty()) return null;
+
+        String recordId = taken.get(0);
+        if (taken.size() < 2) {
+            logger.warn("Dropped malformed stream entry {}", recordId);
+            return null;
+        }
+        inFlight.add(recordId);
+        return new QueuedJob(taken.get(1), recordId, false, Instant.ofEpochMilli(RecordId.of(recordId).getTimestamp()));
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<String> takeFromStream() {
+        List<String> taken = redisTemplate.execute(STREAM_TAKE_SCRIPT, List.of(streamKey, pendingKey),
+                groupName, workerId, STREAM_FIELD, REQUEST_FIELD);
+        return taken == null ? List.of() : taken;
+    }
+
+    @SuppressWarnings("unchecked")
+    private QueuedJob claimAbandonedJob() {
+        List<String> claimed = redisTemplate.execute(AUTOCLAIM_SCRIPT, List.of(streamKey, pendingKey),
+                groupName, workerId, String.valueOf(claimIdleTime.toMillis()), STREAM_FIELD, REQUEST_FIELD,
+                QUEUE_KEY + ":worker:");
+        if (claimed == null || claimed.size() < 2) return null;
+
+        String recordId = claimed.get(0);
+        // One of this worker's own running jobs, whose idle time a late heartbeat had not reset yet: the claim
+        // just reset it, and the job is still ours.
+        if (inFlight.contains(recordId)) return null;
+        logger.warn("Took over abandoned job {} (stream entry {})", claimed.get(1), recordId);
+        inFlight.add(recordId);
+        return new QueuedJob(claimed.get(1), recordId, true, Instant.ofEpochMilli(RecordId.of(recordId).getTimestamp()));
+    }
+
+    private String processingKeyFor(String ownerWorkerId) {
+        return QUEUE_KEY + ":processing:" + ownerWorkerId;
+    }
+
+    private enum QueueMode {
+        LIST, STREAM, FAIR;
+
+        static QueueMode from(String value) {
+            if ("stream".equalsIgnoreCase(value)) return STREAM;
+            if ("fair".equalsIgnoreCase(value)) return FAIR;
+            return LIST;
+        }
+    }
+
 }
@@ -10,8 +10,10 @@ import software.amazon.awssdk.services.s3.S3Client;
 import software.amazon.awssdk.services.s3.S3Configuration;
 import software.amazon.awssdk.services.s3.model.GetObjectRequest;
 import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
 import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
 import software.amazon.awssdk.services.s3.model.ListObjectsV2Response;
+import software.amazon.awssdk.services.s3.model.S3Exception;
 import software.amazon.awssdk.services.s3.model.S3Object;
 
 import java.net.URI;
@@ -26,9 +28,11 @@ public class S3DownloadService {
     private static final Logger logger = LoggerFactory.getLogger(S3DownloadService.class);
     private final S3Client s3Client;
     private final String bucketName;
+    private final TransferMetrics transferMetrics;
 
-    public S3DownloadService(S3Properties props) {
+    public S3DownloadService(S3Properties props, TransferMetrics transferMetrics) {
         this.bucketName = props.getBucketName();
+        this.transferMetrics = transferMetrics;
         AwsBasicCredentials awsCreds = AwsBasicCredentials.create(
                 props.getAccessKey(),
                 props.getSecretKey()
@@ -59,6 +63,42 @@ public class S3DownloadService {
                 .collect(Collectors.toList());
     }
 
+    /**
+     * True if at least one object starts with the prefix.
+     */
+    public boolean hasObjects(String prefix) {
+        ListObjectsV2Request request = ListObjectsV2Request.builder()
+                .bucket(bucketName)
+                .prefix(prefix)
+                .maxKeys(1)
+                .build();
+        return !s3Client.listObjectsV2(request).contents().isEmpty();
+    }
+
+    /**
+     * ETag (content hash) of an object, or null if it does not exist.
+     */
+    public String getETag(String key) {
+        try {
+            return s3Client.headObject(HeadObjectRequest.builder().bucket(bucketName).key(key).build()).eTag();
+        } catch (S3Exception e) {
+            if (e.statusCode() == 404) return null;
+            throw e;
+        }
+    }
+
+    /**
+     * Content of a small text object, or null if it does not exist.
+     */
+    public String readObject(String key) {
+        try {
+            return s3Client.getObjectAsBytes(GetObjectRequest.builder().bucket(bucketName).key(key).build()).asUtf8String();
+        } catch (S3Exception e) {
+            if (e.statusCode() == 404) return null;
+            throw e;
+        }
+    }
+
     /**
      * Downloads a file synchronously.
      * Removed @Async so the caller waits until the file is fully written to disk.
@@ -79,10 +119,12 @@ public class S3DownloadService {
                 }
 
                 // This blocks until the file is completely downloaded
+                long start = System.nanoTime();
                 GetObjectResponse outRes = s3Client.getObject(
                         getReq,
                         localPath
                 );
+                transferMetrics.record(TransferMetrics.DOWNLOAD, Files.size(localPath), System.nanoTime() - start);
 
                 logger.info("File Downloaded to: {}", localFilePath);
                 return outRes; // Return the response directly
@@ -24,15 +24,18 @@ public class S3UploadService {
     private static final Logger logger = LoggerFactory.getLogger(S3UploadService.class);
     private final S3Client s3Client;
     private final String bucketName;
+    private final TransferMetrics transferMetrics;
 
     public S3UploadService(
             @Value("${cloud.s3.bucket.bucket-name}") String bucketName,
             @Value("${cloud.s3.bucket.access-key}") String accessKey,
             @Value("${cloud.s3.bucket.secret-key}") String secretKey,
             @Value("${cloud.s3.bucket.endpoint}") String endpoint,
-            @Value("${cloud.s3.bucket.region:auto}") String region
+            @Value("${cloud.s3.bucket.region:auto}") String region,
+            TransferMetrics transferMetrics
     ) {
         this.bucketName = bucketName;
+        this.transferMetrics = transferMetrics;
         AwsBasicCredentials awsCreds = AwsBasicCredentials.create(accessKey, secretKey);
         this.s3Client = S3Client.builder()
                 .credentialsProvider(StaticCredentialsProvider.create(awsCreds))
@@ -52,7 +55,10 @@ public class S3UploadService {
         int maxRetries = 3;
         for (int attempt = 1; attempt <= maxRetries; attempt++) {
             try {
-                return s3Client.putObject(putReq, RequestBody.fromFile(path));
+                long start = System.nanoTime();
+                PutObjectResponse outRes = s3Client.putObject(putReq, RequestBody.fromFile(path));
+                transferMetrics.record(TransferMetrics.UPLOAD, Files.size(path), System.nanoTime() - start);
+                return outRes;
             } catch (Exception ex) {
                 logger.error("Upload attempt {} failed: {}", attempt, ex.getMessage());
                 if (attempt == maxRetries) throw new RuntimeException(ex);
@@ -0,0 +1,71 @@
+package org.godn.deployservice.build;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class BuildCapacityControllerTest {
+
+    private static final long MB = 1024L * 1024L;
+
+    @TempDir
+    Path cgroup;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        // 4 CPUs and 2000 MB, like the deploy-service container limit
+        Files.writeString(cgroup.resolve("cpu.max"), "400000 100000\n");
+        Files.writeString(cgroup.resolve("memory.max"), String.valueOf(2000 * MB));
+        Files.writeString(cgroup.resolve("memory.current"), String.valueOf(300 * MB));
+        writePressure("memory.pressure", 0.0);
+        writePressure("cpu.pressure", 0.0);
+    }
+
+    @Test
+    void limit_ShouldBeBoundByMemory() {
+        BuildCapacityController controller = newController();
+
+        // (2000 - 500) / 700 = 2 builds, even though 4 CPUs would allow 4
+        assertEquals(2, controller.getLimit());
+    }
+
+    @Test
+    void adjust_ShouldShrinkUnderPressure_AndGrowBack() throws IOException {
+        BuildCapacityController controller = newController();
+
+        writePressure("memory.pressure", 25.0);
+        controller.adjust();
+        assertEquals(1, controller.getLimit());
+
+        writePressure("memory.pressure", 0.0);
+        controller.adjust();
+        assertEquals(2, controller.getLimit());
+    }
+
+    @Test
+    void acquire_ShouldAlwaysAdmitFirstBuild() throws InterruptedException {
+        BuildCapacityController controller = newController();
+
+        controller.acquire();
+
+        assertEquals(1, controller.getInUse());
+        controller.release();
+        assertEquals(0, controller.getInUse());
+    }
+
+    private BuildCapacityController newController() {
+        return new BuildCapacityController(cgroup.toString(), 700, 500, 1.0, 1, 4, 60, 10);
+    }
+
+    private void writePressure(String file, double avg10) throws IOException {
+        Files.writeString(cgroup.resolve(file),
+                "some avg10=" + avg10 + " avg60=0.00 avg300=0.00 total=0\n" +
+                "full avg10=0.00 avg60=0.00 avg300=0.00 total=0\n");
+    }
+}
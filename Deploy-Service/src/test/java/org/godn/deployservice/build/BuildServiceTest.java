@@ -0,0 +1,83 @@
+package org.godn.deployservice.build;
+
+import org.godn.deployservice.build.strategy.BuildStrategyRegistry;
+import org.godn.deployservice.log.BuildLogSink;
+import org.godn.deployservice.metrics.DeployMetrics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+
+class BuildServiceTest {
+
+    @TempDir
+    Path tmp;
+
+    private BuildService buildService;
+
+    @BeforeEach
+    void setUp() {
+        buildService = new BuildService(mock(BuildLogSink.class), mock(DeployMetrics.class), new ActiveBuildRegistry(),
+                mock(BuildSupervisor.class), mock(DependencyCache.class), mock(FrameworkCache.class),
+                mock(BuildStrategyRegistry.class), 10, 10);
+    }
+
+    @Test
+    void canInstallEarly_ShouldAllowRegistryDependencies() throws IOException {
+        assertTrue(buildService.canInstallEarly(project("""
+                {"scripts": {"build": "vite build"}, "dependencies": {"react": "^18.2.0"}, "devDependencies": {"vite": "5"}}
+                """)));
+    }
+
+    @Test
+    void canInstallEarly_ShouldRefuse_WhenALifecycleScriptRuns() throws IOException {
+        assertFalse(buildService.canInstallEarly(project("""
+                {"scripts": {"postinstall": "patch-package"}}
+                """)));
+    }
+
+    @Test
+    void canInstallEarly_ShouldRefuse_WhenThereAreWorkspaces() throws IOException {
+        assertFalse(buildService.canInstallEarly(project("""
+                {"workspaces": ["packages/*"]}
+                """)));
+    }
+
+    @Test
+    void canInstallEarly_ShouldRefuse_ForFileDependencies() throws IOException {
+        assertFalse(buildService.canInstallEarly(project("""
+                {"dependencies": {"react": "^18.2.0", "ui": "file:packages/ui"}}
+                """)));
+    }
+
+    @Test
+    void canInstallEarly_ShouldRefuse_ForLinkDependencies() throws IOException {
+        assertFalse(buildService.canInstallEarly(project("""
+                {"devDependencies": {"config": "link:../config"}}
+                """)));
+    }
+
+    @Test
+    void canInstallEarly_ShouldRefuse_ForRelativePathDependencies() throws IOException {
+        assertFalse(buildService.canInstallEarly(project("""
+                {"optionalDependencies": {"native": "./vendor/native"}}
+                """)));
+    }
+
+    @Test
+    void canInstallEarly_ShouldRefuse_WithoutPackageJson() {
+        assertFalse(buildService.canInstallEarly(tmp));
+    }
+
+    private Path project(String packageJson) throws IOException {
+        Files.writeString(tmp.resolve("package.json"), packageJson);
+        return tmp;
+    }
+}
@@ -0,0 +1,78 @@
+package org.godn.deployservice.build;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class BuildSupervisorTest {
+
+    private ScheduledExecutorService scheduler;
+    private BuildSupervisor supervisor;
+
+    @BeforeEach
+    void setUp() {
+        scheduler = Executors.newScheduledThreadPool(2);
+        supervisor = new BuildSupervisor(scheduler, 1, "/proc");
+    }
+
+    @AfterEach
+    void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    void timeout_ShouldStopTheWholeTree() throws Exception {
+        Process process = new ProcessBuilder("sh", "-c", "sleep 60 & sleep 60").start();
+        BuildSupervisor.Supervised supervised = supervisor.supervise(process, Duration.ofMillis(500));
+        Thread.sleep(200);
+        List<ProcessHandle> children = process.descendants().toList();
+
+        process.waitFor();
+        supervised.awaitReleased();
+
+        assertTrue(supervised.timedOut());
+        assertFalse(children.isEmpty());
+        assertTrue(children.stream().noneMatch(ProcessHandle::isAlive));
+    }
+
+    @Test
+    void supervise_ShouldRecordTheUsageOfTheTree() throws Exception {
+        assumeTrue(Files.isDirectory(Path.of("/proc/self")), "needs /proc");
+        ResourceUsage usage = new ResourceUsage();
+        // Busy for about a second in a child of the shell.
+        Process process = new ProcessBuilder("sh", "-c", "i=0; while [ $i -lt 300000 ]; do i=$((i+1)); done").start();
+        BuildSupervisor.Supervised supervised = supervisor.supervise(process, Duration.ofMinutes(1), usage);
+
+        process.waitFor();
+        supervised.awaitReleased();
+
+        ResourceUsage.Totals totals = usage.totals();
+        assertTrue(totals.samples() > 0);
+        assertTrue(totals.peakRssBytes() > 0);
+    }
+
+    @Test
+    void awaitReleased_ShouldStopChildrenThatOutliveTheShell() throws Exception {
+        Process process = new ProcessBuilder("sh", "-c", "sleep 60 & sleep 2").start();
+        BuildSupervisor.Supervised supervised = supervisor.supervise(process, Duration.ofMinutes(1));
+        Thread.sleep(200);
+        List<ProcessHandle> children = process.descendants().toList();
+
+        process.waitFor();
+        supervised.awaitReleased();
+
+        assertFalse(supervised.timedOut());
+        assertTrue(children.stream().noneMatch(ProcessHandle::isAlive));
+    }
+}
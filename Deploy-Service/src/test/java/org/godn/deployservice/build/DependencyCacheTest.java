@@ -0,0 +1,130 @@
+package org.godn.deployservice.build;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DependencyCacheTest {
+
+    @TempDir
+    Path tmp;
+
+    @Test
+    void keyFor_ShouldFollowTheLockfile() throws IOException {
+        DependencyCache cache = new DependencyCache(tmp.resolve("cache").toString(), 100, true);
+        Path first = project("a", "{\"lockfileVersion\":3}");
+        Path same = project("b", "{\"lockfileVersion\":3}");
+        Path other = project("c", "{\"lockfileVersion\":2}");
+
+        assertEquals(cache.keyFor(first), cache.keyFor(same));
+        assertNotEquals(cache.keyFor(first), cache.keyFor(other));
+        assertNull(cache.keyFor(Files.createDirectories(tmp.resolve("no-lockfile"))));
+    }
+
+    @Test
+    void keyFor_ShouldChange_WhenPackageJsonDependenciesChangeWithoutTheLockfile() throws IOException {
+        DependencyCache cache = new DependencyCache(tmp.resolve("cache").toString(), 100, true);
+        Path locked = project("locked", "{\"lockfileVersion\":3}");
+        Files.writeString(locked.resolve("package.json"), "{\"scripts\":{\"build\":\"next build\"},\"dependencies\":{\"next\":\"14.2.3\"}}");
+        Path rescripted = project("rescripted", "{\"lockfileVersion\":3}");
+        Files.writeString(rescripted.resolve("package.json"), "{\"scripts\":{\"build\":\"next build --lint\"},\"dependencies\":{\"next\":\"14.2.3\"}}");
+        Path bumped = project("bumped", "{\"lockfileVersion\":3}");
+        Files.writeString(bumped.resolve("package.json"), "{\"scripts\":{\"build\":\"next build\"},\"dependencies\":{\"next\":\"15.0.0\"}}");
+
+        // Scripts do not change what npm ci installs; a dependency the lockfile lacks must not hit the old modules.
+        assertEquals(cache.keyFor(locked), cache.keyFor(rescripted));
+        assertNotEquals(cache.keyFor(locked), cache.keyFor(bumped));
+    }
+
+    @Test
+    void restore_ShouldGiveUpAndLeaveNoNodeModules_WhenTheBuildIsStopping() throws IOException {
+        DependencyCache cache = new DependencyCache(tmp.resolve("cache").toString(), 100, true);
+        Path installed = project("installed", "{}");
+        writeModule(installed, "react", "module.exports = 'react';");
+        String key = cache.keyFor(installed);
+        cache.store(key, installed);
+
+        Path next = project("next", "{}");
+        assertFalse(cache.restore(key, next, () -> true));
+        assertFalse(Files.exists(next.resolve("node_modules")));
+    }
+
+    @Test
+    void restore_ShouldCopyStoredNodeModules() throws IOException {
+        DependencyCache cache = new DependencyCache(tmp.resolve("cache").toString(), 100, true);
+        Path installed = project("installed", "{}");
+        writeModule(installed, "react", "module.exports = 'react';");
+        String key = cache.keyFor(installed);
+
+        Path next = project("next", "{}");
+        assertFalse(cache.restore(key, next));
+
+        cache.store(key, installed);
+        assertTrue(cache.restore(key, next));
+
+        Path restored = next.resolve("node_modules/react/index.js");
+        assertEquals("module.exports = 'react';", Files.readString(restored));
+        assertFalse(Files.isSameFile(restored, tmp.resolve("cache").resolve(key).resolve("node_modules/react/index.js")));
+    }
+
+    @Test
+    void restore_ShouldKeepTheEntryUnchanged_WhenTheBuildWritesToARestoredFile() throws IOException {
+        DependencyCache cache = new DependencyCache(tmp.resolve("cache").toString(), 100, true);
+        Path installed = project("installed", "{}");
+        writeModule(installed, "react", "module.exports = 'react';");
+        String key = cache.keyFor(installed);
+        cache.store(key, installed);
+
+        Path patched = project("patched", "{}");
+        assertTrue(cache.restore(key, patched));
+        // Written in place, as patch scripts and some bundlers do.
+        Files.writeString(patched.resolve("node_modules/react/index.js"), "module.exports = 'patched';");
+
+        Path cached = tmp.resolve("cache").resolve(key).resolve("node_modules/react/index.js");
+        assertEquals("module.exports = 'react';", Files.readString(cached));
+        Path next = project("next", "{}");
+        assertTrue(cache.restore(key, next));
+        assertEquals("module.exports = 'react';", Files.readString(next.resolve("node_modules/react/index.js")));
+    }
+
+    @Test
+    void evict_ShouldDropLeastRecentlyUsedEntries() throws IOException {
+        // A budget of 0 bytes keeps only the newest entry.
+        DependencyCache cache = new DependencyCache(tmp.resolve("cache").toString(), 0, true);
+        Path old = project("old", "{\"v\":1}");
+        writeModule(old, "left-pad", "module.exports = 1;");
+        String oldKey = cache.keyFor(old);
+        cache.store(oldKey, old);
+        Files.setLastModifiedTime(tmp.resolve("cache").resolve(oldKey), FileTime.from(Instant.now().minusSeconds(3600)));
+
+        Path fresh = project("fresh", "{\"v\":2}");
+        writeModule(fresh, "left-pad", "module.exports = 2;");
+        String freshKey = cache.keyFor(fresh);
+        cache.store(freshKey, fresh);
+
+        assertFalse(Files.exists(tmp.resolve("cache").resolve(oldKey)));
+        assertTrue(Files.exists(tmp.resolve("cache").resolve(freshKey)));
+    }
+
+    private Path project(String name, String lockfile) throws IOException {
+        Path dir = Files.createDirectories(tmp.resolve(name));
+        Files.writeString(dir.resolve("package-lock.json"), lockfile);
+        return dir;
+    }
+
+    private static void writeModule(Path project, String module, String content) throws IOException {
+        Path dir = Files.createDirectories(project.resolve("node_modules").resolve(module));
+        Files.writeString(dir.resolve("index.js"), content);
+    }
+}
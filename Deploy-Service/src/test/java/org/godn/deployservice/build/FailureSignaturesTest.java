@@ -0,0 +1,28 @@
+package org.godn.deployservice.build;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class FailureSignaturesTest {
+
+    @Test
+    void match_ShouldRecogniseCommonBuildErrors() {
+        assertEquals(FailureSignatures.NPM, FailureSignatures.match("npm ERR! code ELIFECYCLE"));
+        assertEquals(FailureSignatures.NPM, FailureSignatures.match("npm error Missing script: \"build\""));
+        assertEquals(FailureSignatures.TYPESCRIPT, FailureSignatures.match("src/App.tsx(12,7): error TS2322: Type 'string' is not assignable to type 'number'."));
+        assertEquals(FailureSignatures.TYPESCRIPT, FailureSignatures.match("Type error: Property 'foo' does not exist on type 'Props'."));
+        assertEquals(FailureSignatures.BUNDLER, FailureSignatures.match("Module not found: Can't resolve './missing'"));
+        assertEquals(FailureSignatures.BUNDLER, FailureSignatures.match("Failed to compile."));
+        assertEquals(FailureSignatures.BUNDLER, FailureSignatures.match("error during build:"));
+        assertEquals(FailureSignatures.SYNTAX, FailureSignatures.match("SyntaxError: Unexpected token '<'"));
+    }
+
+    @Test
+    void match_ShouldIgnoreOrdinaryLines() {
+        assertNull(FailureSignatures.match("Creating an optimized production build ..."));
+        assertNull(FailureSignatures.match("added 1432 packages in 41s"));
+        assertNull(FailureSignatures.match("  ✓ 0 errors"));
+    }
+}
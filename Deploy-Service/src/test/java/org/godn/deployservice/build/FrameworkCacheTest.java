@@ -0,0 +1,63 @@
+package org.godn.deployservice.build;
+
+import org.godn.deployservice.storage.S3DownloadService;
+import org.godn.deployservice.storage.S3UploadService;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+
+class FrameworkCacheTest {
+
+    @TempDir
+    Path tmp;
+
+    @Test
+    void save_ThenRestore_ShouldBringBackTheCacheDirectories() throws IOException {
+        FrameworkCache cache = newCache();
+        Path built = Files.createDirectories(tmp.resolve("built"));
+        write(built.resolve(".next/cache/webpack/client.pack"), "pack");
+        write(built.resolve("node_modules/.cache/babel-loader/abc.json"), "{}");
+        write(built.resolve("src/index.js"), "source");
+
+        Path next = Files.createDirectories(tmp.resolve("next"));
+        assertFalse(cache.restore("project1", next));
+
+        cache.save("project1", built);
+        assertTrue(cache.restore("project1", next));
+
+        assertEquals("pack", Files.readString(next.resolve(".next/cache/webpack/client.pack")));
+        assertEquals("{}", Files.readString(next.resolve("node_modules/.cache/babel-loader/abc.json")));
+        // Only cache directories are kept, never sources or output.
+        assertFalse(Files.exists(next.resolve("src/index.js")));
+    }
+
+    @Test
+    void save_ShouldSkipProjectsWithoutCacheDirectories() throws IOException {
+        FrameworkCache cache = newCache();
+        Path built = Files.createDirectories(tmp.resolve("built"));
+        write(built.resolve("dist/index.html"), "<html></html>");
+
+        cache.save("project1", built);
+
+        assertFalse(cache.restore("project1", Files.createDirectories(tmp.resolve("next"))));
+    }
+
+    private FrameworkCache newCache() {
+        return new FrameworkCache(tmp.resolve("cache").toString(), 100, 100, true, false,
+                mock(S3UploadService.class), mock(S3DownloadService.class), mock(ExecutorService.class));
+    }
+
+    private static void write(Path file, String content) throws IOException {
+        Files.createDirectories(file.getParent());
+        Files.writeString(file, content);
+    }
+}
@@ -0,0 +1,75 @@
+package org.godn.deployservice.build;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class OutputCaptureTest {
+
+    @Test
+    void capture_ShouldKeepOnlyTheLastRedrawOfAProgressLine() throws IOException {
+        List<String> lines = capture("Installing\n[#   ] 25%\r[##  ] 50%\r[####] 100%\r\nDone\n", 1000);
+
+        assertEquals(List.of("Installing", "[####] 100%", "Done"), lines);
+    }
+
+    @Test
+    void capture_ShouldDropAnsiSequences() throws IOException {
+        List<String> lines = capture("\u001B[32m✓\u001B[39m Compiled\n\u001B]0;npm run build\u0007title set\n\u001B[2K\r\n", 1000);
+
+        // The last line held nothing but a clear-line sequence.
+        assertEquals(List.of("✓ Compiled", "title set"), lines);
+    }
+
+    @Test
+    void capture_ShouldKeepEmptyLinesAndAnUnterminatedLastLine() throws IOException {
+        assertEquals(List.of("a", "", "b"), capture("a\n\nb", 1000));
+    }
+
+    @Test
+    void capture_ShouldTreatARunOfCarriageReturnsAsOne() throws IOException {
+        assertEquals(List.of("done", "50%", "next"), capture("done\r\r\n25%\r\r50%\r\r\nnext\n", 1000));
+    }
+
+    @Test
+    void capture_ShouldCutLongLines_AndMarkThem() throws IOException {
+        assertEquals(List.of("abcd" + OutputCapture.TRUNCATED, "ef"), capture("abcdefgh\nef\n", 4));
+    }
+
+    @Test
+    void capture_ShouldCutLongLinesAtACharacterBoundary() throws IOException {
+        // "✓" is three bytes and "é" two; both lines are cut at five bytes, in the middle of one.
+        assertEquals(List.of("abc" + OutputCapture.TRUNCATED, "éé" + OutputCapture.TRUNCATED),
+                capture("abc✓def\nééé\n", 5));
+    }
+
+    @Test
+    void capture_ShouldHandleSequencesSplitAcrossReads() throws IOException {
+        byte[] bytes = "one\r\ntw\u001B[1mo\u001B[0m\r\n".getBytes(StandardCharsets.UTF_8);
+        List<String> lines = new ArrayList<>();
+        // Hands out one byte per read.
+        InputStream trickle = new ByteArrayInputStream(bytes) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                return super.read(b, off, Math.min(len, 1));
+            }
+        };
+
+        new OutputCapture(1000).capture(trickle, lines::add);
+
+        assertEquals(List.of("one", "two"), lines);
+    }
+
+    private static List<String> capture(String output, int maxLineBytes) throws IOException {
+        List<String> lines = new ArrayList<>();
+        new OutputCapture(maxLineBytes).capture(new ByteArrayInputStream(output.getBytes(StandardCharsets.UTF_8)), lines::add);
+        return lines;
+    }
+}
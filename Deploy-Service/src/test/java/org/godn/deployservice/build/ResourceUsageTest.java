@@ -0,0 +1,53 @@
+package org.godn.deployservice.build;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class ResourceUsageTest {
+
+    @TempDir
+    Path proc;
+
+    @Test
+    void read_ShouldParseStatStatusAndIo() throws IOException {
+        // The command name contains a space and a parenthesis, as node workers' sometimes do.
+        process(42, "(npm run) build)", 250, 50, 2048, 4096, 8192);
+
+        ProcFs.ProcSample sample = new ProcFs(proc).read(42);
+
+        assertEquals(new ProcFs.ProcSample(42, 2048 * 1024, 300, 4096, 8192), sample);
+        assertNull(new ProcFs(proc).read(43));
+    }
+
+    @Test
+    void totals_ShouldTakePeakOfTheTreeAndLastCountersOfEveryProcess() {
+        ResourceUsage usage = new ResourceUsage();
+        usage.record(List.of(new ProcFs.ProcSample(1, 100, 10, 1, 2), new ProcFs.ProcSample(2, 300, 20, 3, 4)));
+        // Process 2 exited; its last counters still count.
+        usage.record(List.of(new ProcFs.ProcSample(1, 200, 90, 5, 6)));
+
+        ResourceUsage.Totals totals = usage.totals();
+
+        assertEquals(400, totals.peakRssBytes());
+        assertEquals(1.1, totals.cpuSeconds(), 1e-9);
+        assertEquals(8, totals.readBytes());
+        assertEquals(10, totals.writeBytes());
+        assertEquals(2, totals.samples());
+    }
+
+    private void process(long pid, String comm, long utime, long stime, long rssKb, long readBytes, long writeBytes) throws IOException {
+        Path dir = Files.createDirectories(proc.resolve(Long.toString(pid)));
+        Files.writeString(dir.resolve("stat"), pid + " " + comm + " S 1 1 1 0 -1 4194304 100 0 0 0 "
+                + utime + " " + stime + " 0 0 20 0 1 0 100 1000000 500");
+        Files.writeString(dir.resolve("status"), "Name:\tnpm\nVmPeak:\t  999999 kB\nVmRSS:\t    " + rssKb + " kB\nThreads:\t1\n");
+        Files.writeString(dir.resolve("io"), "rchar: 1\nwchar: 2\nread_bytes: " + readBytes + "\nwrite_bytes: " + writeBytes + "\n");
+    }
+}
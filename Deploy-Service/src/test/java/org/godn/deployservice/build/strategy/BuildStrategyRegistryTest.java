@@ -0,0 +1,40 @@
+package org.godn.deployservice.build.strategy;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class BuildStrategyRegistryTest {
+
+    private final BuildStrategyRegistry registry = new BuildStrategyRegistry(
+            List.of(new NextExportStrategy(), new ViteStrategy(), new CreateReactAppStrategy()));
+
+    @Test
+    void resolve_ShouldPickTheOutputOfTheMatchingStrategy() throws IOException {
+        assertEquals(new BuildPlan("vite", "dist"), registry.resolve(manifest("vite build", Map.of())));
+        assertEquals(new BuildPlan("create-react-app", "build"), registry.resolve(manifest("react-scripts build", Map.of())));
+        assertEquals(new BuildPlan("next-export", "out"), registry.resolve(manifest("next build",
+                Map.of("next.config.mjs", "export default { output: 'export' };"))));
+    }
+
+    @Test
+    void resolve_ShouldRejectNextWithoutStaticExport() throws IOException {
+        ProjectManifest manifest = manifest("next build", Map.of("next.config.js", "module.exports = {};"));
+
+        assertThrows(UnsupportedBuildException.class, () -> registry.resolve(manifest));
+    }
+
+    @Test
+    void resolve_ShouldFallBackToBuildFolder() throws IOException {
+        assertEquals("build", registry.resolve(manifest("webpack", Map.of())).outputDirectory());
+    }
+
+    private static ProjectManifest manifest(String buildScript, Map<String, String> configs) throws IOException {
+        return ProjectManifest.parse("{\"scripts\":{\"build\":\"" + buildScript + "\"}}", configs);
+    }
+}
@@ -0,0 +1,394 @@
+package org.godn.deployservice.deployment;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.godn.deployservice.build.ActiveBuildRegistry;
+import org.godn.deployservice.build.BuildCapacityController;
+import org.godn.deployservice.build.BuildService;
+import org.godn.deployservice.build.strategy.UnsupportedBuildException;
+import org.godn.deployservice.download.BuildUploadService;
+import org.godn.deployservice.download.DownloadService;
+import org.godn.deployservice.download.SourceDownload;
+import org.godn.deployservice.log.BuildLogSink;
+import org.godn.deployservice.metrics.DeployMetrics;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class DeploymentServiceTest {
+
+    private static final String ID = "abc123";
+    private static final String BASE_URL = "https://sites.example.com/";
+
+    @Mock
+    private DownloadService downloadService;
+    @Mock
+    private BuildService buildService;
+    @Mock
+    private BuildUploadService buildUploadService;
+    @Mock
+    private DeploymentRepository deploymentRepository;
+    @Mock
+    private ProjectSecretRepository projectSecretRepository;
+    @Mock
+    private BuildLogSink buildLogSink;
+    @Mock
+    private BuildFingerprints buildFingerprints;
+    @Mock
+    private BuildPreflight buildPreflight;
+    @Mock
+    private BuildProfileRepository buildProfileRepository;
+
+    @Mock
+    private BuildFailureDigestRepository failureDigestRepository;
+
+    private ExecutorService downloadExecutor;
+    private ExecutorService buildExecutor;
+    private ExecutorService uploadExecutor;
+    private DeploymentService deploymentService;
+
+    @BeforeEach
+    void setUp() {
+        downloadExecutor = Executors.newSingleThreadExecutor();
+        buildExecutor = Executors.newSingleThreadExecutor();
+        uploadExecutor = Executors.newSingleThreadExecutor();
+        deploymentService = new DeploymentService(downloadExecutor, buildExecutor, uploadExecutor,
+                downloadService, buildUploadService, buildService,
+                deploymentRepository, projectSecretRepository, buildLogSink,
+                new DeployMetrics(new SimpleMeterRegistry(), mock(BuildCapacityController.class)),
+                new ActiveBuildRegistry(), buildFingerprints, buildPreflight, buildProfileRepository, failureDigestRepository, 20, 5, 5, true);
+    }
+
+    @AfterEach
+    void tearDown() {
+        deploymentService.shutdownPipeline();
+    }
+
+    @Test
+    void processDeployment_ShouldSkip_WhenAlreadyLocked() {
+        when(deploymentRepository.lockDeployment(ID)).thenReturn(0);
+
+        DeploymentPipeline pipeline = deploymentService.processDeployment(ID, BASE_URL);
+
+        assertTrue(pipeline.buildStage().isDone());
+        assertTrue(pipeline.completion().isDone());
+        verifyNoInteractions(downloadService, buildService, buildUploadService);
+    }
+
+    @Test
+    void processDeployment_ShouldUndoTheLock_WhenThePipelineCannotStart() {
+        when(deploymentRepository.lockDeployment(ID)).thenReturn(1);
+        downloadExecutor.shutdown();
+
+        assertThrows(RejectedExecutionException.class, () -> deploymentService.processDeployment(ID, BASE_URL));
+        verify(deploymentRepository).requeueDeployment(ID);
+    }
+
+    @Test
+    void processDeployment_ShouldFreeBuildStage_WhileUploading() throws Exception {
+        Deployment deployment = new Deployment();
+        deployment.setId(ID);
+        CompletableFuture<Void> upload = new CompletableFuture<>();
+
+        when(deploymentRepository.lockDeployment(ID)).thenReturn(1);
+        when(deploymentRepository.findById(ID)).thenReturn(Optional.of(deployment));
+        when(projectSecretRepository.findByProjectId(ID)).thenReturn(List.of());
+        when(downloadService.downloadSource(eq(ID), any(Path.class))).thenReturn(downloaded());
+        when(buildService.buildReactApp(any(Path.class), eq(ID), anyMap()))
+                .thenAnswer(inv -> inv.<Path>getArgument(0).resolve("dist"));
+        when(buildUploadService.uploadBuildDirectory(any(Path.class), eq("live-sites/" + ID))).thenReturn(upload);
+        doCallRealMethod().when(buildService).deleteDirectory(any());
+
+        DeploymentPipeline pipeline = deploymentService.processDeployment(ID, BASE_URL);
+
+        pipeline.buildStage().get(5, TimeUnit.SECONDS);
+        verify(buildUploadService, timeout(5000)).uploadBuildDirectory(any(Path.class), anyString());
+        assertFalse(pipeline.completion().isDone());
+        // The old fingerprint is gone before the first live file is replaced.
+        InOrder inOrder = inOrder(deploymentRepository, buildUploadService);
+        inOrder.verify(deploymentRepository).clearFingerprint(ID);
+        inOrder.verify(buildUploadService).uploadBuildDirectory(any(Path.class), anyString());
+
+        upload.complete(null);
+        pipeline.completion().get(5, TimeUnit.SECONDS);
+
+        verify(deploymentRepository).markReady(ID, BASE_URL + ID, null);
+    }
+
+    @Test
+    void processDeployment_ShouldSkipBuild_WhenFingerprintIsLive() throws Exception {
+        Deployment deployment = new Deployment();
+        deployment.setId(ID);
+        deployment.setBuildFingerprint("fp");
+
+        when(deploymentRepository.lockDeployment(ID)).thenReturn(1);
+        when(deploymentRepository.findById(ID)).thenReturn(Optional.of(deployment));
+        when(buildFingerprints.compute(deployment)).thenReturn("fp");
+        when(buildFingerprints.isLive(deployment, "fp", "live-sites/" + ID)).thenReturn(true);
+        // Left by a build that failed after the live one.
+        when(failureDigestRepository.existsById(ID)).thenReturn(true);
+
+        DeploymentPipeline pipeline = deploymentService.processDeployment(ID, BASE_URL);
+
+        pipeline.completion().get(5, TimeUnit.SECONDS);
+        verify(deploymentRepository).finishDeployment(ID, DeploymentStatus.READY, BASE_URL + ID);
+        verify(failureDigestRepository).deleteById(ID);
+        verifyNoInteractions(downloadService, buildService, buildUploadService);
+    }
+
+    @Test
+    void processDeployment_ShouldReturnToTheQueue_WhileTheFingerprintIsStillBeingChecked() throws Exception {
+        Deployment deployment = new Deployment();
+        deployment.setId(ID);
+        deployment.setBuildFingerprint("fp");
+        CountDownLatch r2 = new CountDownLatch(1);
+
+        when(deploymentRepository.lockDeployment(ID)).thenReturn(1);
+        when(deploymentRepository.findById(ID)).thenReturn(Optional.of(deployment));
+        when(buildFingerprints.compute(deployment)).thenAnswer(inv -> {
+            r2.await(5, TimeUnit.SECONDS);
+            return "fp";
+        });
+        when(buildFingerprints.isLive(deployment, "fp", "live-sites/" + ID)).thenReturn(true);
+
+        // The lockfile ETag request hangs; the queue consumer does not wait for it.
+        DeploymentPipeline pipeline = deploymentService.processDeployment(ID, BASE_URL);
+        assertFalse(pipeline.buildStage().isDone());
+
+        r2.countDown();
+        pipeline.completion().get(5, TimeUnit.SECONDS);
+        verify(deploymentRepository).finishDeployment(ID, DeploymentStatus.READY, BASE_URL + ID);
+    }
+
+    @Test
+    void cancelBuild_ShouldStopTheJob_WhileItIsBeingAdmitted() throws Exception {
+        Deployment deployment = new Deployment();
+        deployment.setId(ID);
+        CountDownLatch r2 = new CountDownLatch(1);
+
+        when(deploymentRepository.lockDeployment(ID)).thenReturn(1);
+        when(deploymentRepository.findById(ID)).thenReturn(Optional.of(deployment));
+        when(buildFingerprints.compute(deployment)).thenAnswer(inv -> {
+            r2.await(5, TimeUnit.SECONDS);
+            return null;
+        });
+
+        DeploymentPipeline pipeline = deploymentService.processDeployment(ID, BASE_URL);
+        deploymentService.cancelBuild(ID);
+        r2.countDown();
+
+        assertEquals(DeploymentPipeline.Outcome.FINISHED, pipeline.completion().get(5, TimeUnit.SECONDS));
+        verify(buildLogSink).release(ID, true);
+        verify(deploymentRepository, never()).finishDeployment(anyString(), any(), any());
+        verifyNoInteractions(downloadService, buildService, buildUploadService);
+    }
+
+    @Test
+    void processDeployment_ShouldNotBuild_WhenSkippingTheBuildFailsHalfway() throws Exception {
+        Deployment deployment = new Deployment();
+        deployment.setId(ID);
+        deployment.setBuildFingerprint("fp");
+
+        when(deploymentRepository.lockDeployment(ID)).thenReturn(1);
+        when(deploymentRepository.findById(ID)).thenReturn(Optional.of(deployment));
+        when(buildFingerprints.compute(deployment)).thenReturn("fp");
+        when(buildFingerprints.isLive(deployment, "fp", "live-sites/" + ID)).thenReturn(true);
+        // READY is written, then the completion line cannot be logged.
+        doThrow(new IllegalStateException("log sink stopped")).when(buildLogSink).append(eq(ID), anyString(), any());
+
+        DeploymentPipeline pipeline = deploymentService.processDeployment(ID, BASE_URL);
+
+        assertEquals(DeploymentPipeline.Outcome.FINISHED, pipeline.completion().get(5, TimeUnit.SECONDS));
+        verify(deploymentRepository).finishDeployment(ID, DeploymentStatus.READY, BASE_URL + ID);
+        verify(deploymentRepository, never()).finishDeployment(ID, DeploymentStatus.FAILED, null);
+        verify(buildLogSink).release(ID, true);
+        verifyNoInteractions(downloadService, buildService, buildUploadService);
+    }
+
+    @Test
+    void processDeployment_ShouldRejectBeforeDownloading_WhenPreflightRejects() throws Exception {
+        Deployment deployment = new Deployment();
+        deployment.setId(ID);
+
+        when(deploymentRepository.lockDeployment(ID)).thenReturn(1);
+        when(deploymentRepository.findById(ID)).thenReturn(Optional.of(deployment));
+        when(buildPreflight.inspect(ID)).thenThrow(new UnsupportedBuildException("Unsupported Build Type"));
+
+        DeploymentPipeline pipeline = deploymentService.processDeployment(ID, BASE_URL);
+
+        pipeline.buildStage().get(5, TimeUnit.SECONDS);
+        pipeline.completion().get(5, TimeUnit.SECONDS);
+        verify(deploymentRepository).finishDeployment(ID, DeploymentStatus.FAILED, null);
+        verifyNoInteractions(downloadService, buildService, buildUploadService);
+    }
+
+    @Test
+    void processDeployment_ShouldMarkFailed_WhenBuildFails() throws Exception {
+        Deployment deployment = new Deployment();
+        deployment.setId(ID);
+
+        when(deploymentRepository.lockDeployment(ID)).thenReturn(1);
+        when(deploymentRepository.findById(ID)).thenReturn(Optional.of(deployment));
+        when(projectSecretRepository.findByProjectId(ID)).thenReturn(List.of());
+        when(downloadService.downloadSource(eq(ID), any(Path.class))).thenReturn(downloaded());
+        when(buildService.buildReactApp(any(Path.class), eq(ID), anyMap()))
+                .thenThrow(new RuntimeException("Local npm build failed with exit code 1"));
+        doCallRealMethod().when(buildService).deleteDirectory(any());
+
+        DeploymentPipeline pipeline = deploymentService.processDeployment(ID, BASE_URL);
+        pipeline.completion().get(5, TimeUnit.SECONDS);
+
+        assertTrue(pipeline.buildStage().isDone());
+        verify(deploymentRepository).finishDeployment(ID, DeploymentStatus.FAILED, null);
+        verifyNoInteractions(buildUploadService);
+        verify(failureDigestRepository).save(argThat(digest -> ID.equals(digest.getDeploymentId())
+                && "Local npm build failed with exit code 1".equals(digest.getReason())));
+    }
+
+    @Test
+    void cancelBuild_ShouldReleaseBuildStage_AndKeepCancelledStatus() throws Exception {
+        CompletableFuture<Void> download = new CompletableFuture<>();
+
+        when(deploymentRepository.lockDeployment(ID)).thenReturn(1);
+        when(downloadService.downloadSource(eq(ID), any(Path.class))).thenReturn(new SourceDownload(download, download, CompletableFuture.completedFuture(null)));
+        when(failureDigestRepository.existsById(ID)).thenReturn(true);
+        doCallRealMethod().when(buildService).deleteDirectory(any());
+
+        DeploymentPipeline pipeline = deploymentService.processDeployment(ID, BASE_URL);
+        verify(downloadService, timeout(5000)).downloadSource(eq(ID), any(Path.class));
+
+        deploymentService.cancelBuild(ID);
+
+        pipeline.buildStage().get(1, TimeUnit.SECONDS);
+        pipeline.completion().get(1, TimeUnit.SECONDS);
+        assertTrue(download.isCancelled());
+        verify(deploymentRepository, never()).finishDeployment(anyString(), any(), any());
+        verify(deploymentRepository, never()).markReady(anyString(), any(), any());
+        verify(failureDigestRepository, timeout(5000)).deleteById(ID);
+        verifyNoInteractions(buildUploadService);
+    }
+
+    @Test
+    void drain_ShouldRequeueJob_ThatIsStillDownloading() throws Exception {
+        CompletableFuture<Void> download = new CompletableFuture<>();
+
+        when(deploymentRepository.lockDeployment(ID)).thenReturn(1);
+        when(downloadService.downloadSource(eq(ID), any(Path.class))).thenReturn(new SourceDownload(download, download, CompletableFuture.completedFuture(null)));
+        doCallRealMethod().when(buildService).deleteDirectory(any());
+
+        DeploymentPipeline pipeline = deploymentService.processDeployment(ID, BASE_URL);
+        verify(downloadService, timeout(5000)).downloadSource(eq(ID), any(Path.class));
+
+        assertTrue(deploymentService.drain(Duration.ZERO, Duration.ofSeconds(5)));
+
+        assertEquals(DeploymentPipeline.Outcome.REQUEUE, pipeline.completion().get(1, TimeUnit.SECONDS));
+        assertTrue(pipeline.buildStage().isDone());
+        assertTrue(download.isCancelled());
+        verify(deploymentRepository).requeueDeployment(ID);
+        verifyNoInteractions(buildUploadService);
+    }
+
+    @Test
+    void cancelBuild_ShouldKeepTheWorkDir_UntilTheRunningDownloadsHaveEnded() throws Exception {
+        CompletableFuture<Void> download = new CompletableFuture<>();
+        CompletableFuture<Void> ended = new CompletableFuture<>();
+
+        when(deploymentRepository.lockDeployment(ID)).thenReturn(1);
+        when(downloadService.downloadSource(eq(ID), any(Path.class))).thenReturn(new SourceDownload(download, download, ended));
+
+        DeploymentPipeline pipeline = deploymentService.processDeployment(ID, BASE_URL);
+        verify(downloadService, timeout(5000)).downloadSource(eq(ID), any(Path.class));
+
+        deploymentService.cancelBuild(ID);
+
+        // Files already being downloaded still write into the work dir: the slot and the directory stay.
+        assertTrue(download.isCancelled());
+        Thread.sleep(50);
+        assertFalse(pipeline.buildStage().isDone());
+        assertFalse(pipeline.completion().isDone());
+        verify(buildService, never()).deleteDirectory(any());
+
+        doCallRealMethod().when(buildService).deleteDirectory(any());
+        ended.complete(null);
+        assertEquals(DeploymentPipeline.Outcome.FINISHED, pipeline.completion().get(5, TimeUnit.SECONDS));
+        verify(buildService).deleteDirectory(any());
+    }
+
+    @Test
+    void processDeployment_ShouldInstall_WhileTheSourceIsStillDownloading() throws Exception {
+        Deployment deployment = new Deployment();
+        deployment.setId(ID);
+        CompletableFuture<Void> rest = new CompletableFuture<>();
+
+        when(deploymentRepository.lockDeployment(ID)).thenReturn(1);
+        when(deploymentRepository.findById(ID)).thenReturn(Optional.of(deployment));
+        when(projectSecretRepository.findByProjectId(ID)).thenReturn(List.of());
+        when(downloadService.downloadSource(eq(ID), any(Path.class)))
+                .thenReturn(new SourceDownload(CompletableFuture.completedFuture(null), rest, rest));
+        when(buildService.canInstallEarly(any(Path.class))).thenReturn(true);
+        when(buildService.buildInstalledApp(any(Path.class), eq(ID), anyMap()))
+                .thenAnswer(inv -> inv.<Path>getArgument(0).resolve("dist"));
+        when(buildUploadService.uploadBuildDirectory(any(Path.class), eq("live-sites/" + ID)))
+                .thenReturn(CompletableFuture.completedFuture(null));
+        doCallRealMethod().when(buildService).deleteDirectory(any());
+
+        DeploymentPipeline pipeline = deploymentService.processDeployment(ID, BASE_URL);
+
+        verify(buildService, timeout(5000)).installDependencies(any(Path.class), eq(ID), anyMap());
+        assertFalse(pipeline.buildStage().isDone());
+        verify(buildService, never()).buildInstalledApp(any(Path.class), anyString(), anyMap());
+
+        rest.complete(null);
+        pipeline.completion().get(5, TimeUnit.SECONDS);
+
+        verify(buildService, never()).buildReactApp(any(Path.class), anyString(), anyMap());
+        verify(deploymentRepository).markReady(ID, BASE_URL + ID, null);
+    }
+
+    @Test
+    void processDeployment_ShouldReadTheManifestsOffTheQueueConsumer() throws Exception {
+        Deployment deployment = new Deployment();
+        deployment.setId(ID);
+        CountDownLatch r2 = new CountDownLatch(1);
+
+        when(deploymentRepository.lockDeployment(ID)).thenReturn(1);
+        when(deploymentRepository.findById(ID)).thenReturn(Optional.of(deployment));
+        when(buildPreflight.inspect(ID)).thenAnswer(inv -> {
+            r2.await(5, TimeUnit.SECONDS);
+            throw new UnsupportedBuildException("package.json not found in project directory.");
+        });
+
+        // package.json is still being read from R2; the queue consumer does not wait for it.
+        DeploymentPipeline pipeline = deploymentService.processDeployment(ID, BASE_URL);
+        assertFalse(pipeline.buildStage().isDone());
+
+        r2.countDown();
+        pipeline.completion().get(5, TimeUnit.SECONDS);
+        verify(deploymentRepository).finishDeployment(ID, DeploymentStatus.FAILED, null);
+        verifyNoInteractions(downloadService, buildService, buildUploadService);
+    }
+
+    private static SourceDownload downloaded() {
+        CompletableFuture<Void> done = CompletableFuture.completedFuture(null);
+        return new SourceDownload(done, done, done);
+    }
+}
@@ -0,0 +1,184 @@
+package org.godn.deployservice.log;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.ParameterizedPreparedStatementSetter;
+import org.springframework.jdbc.core.PreparedStatementSetter;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class BuildLogSinkTest {
+
+    private final JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+    private final BuildLogPublisher publisher = mock(BuildLogPublisher.class);
+    private final List<String> written = new ArrayList<>();
+    private final List<Integer> chunkSizes = new ArrayList<>();
+    private BuildLogSink sink;
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        sink.stop();
+    }
+
+    @Test
+    void flush_ShouldWaitUntilAllLinesAreWrittenInOrder() throws InterruptedException {
+        recordWrites(null);
+        sink = start(1000, 100, "block");
+
+        for (int i = 0; i < 250; i++) sink.append("abc12", "line " + i);
+
+        assertTrue(sink.flush("abc12", Duration.ofSeconds(5)));
+        assertEquals(List.of(100, 100, 50), chunkSizes);
+        assertEquals(250, written.size());
+        assertEquals("line 0", written.get(0));
+        assertEquals("line 249", written.get(249));
+    }
+
+    @Test
+    void flush_ShouldLeaveTheOpenChunksOfOtherDeploymentsAlone() throws InterruptedException {
+        recordWrites(null);
+        sink = start(1000, 100, "block");
+
+        sink.append("abc12", "flushed");
+        sink.append("def34", "still building");
+        assertTrue(sink.flush("abc12", Duration.ofSeconds(5)));
+        sink.release("abc12", true);
+        verify(publisher, timeout(5000)).publishEnd("abc12");
+
+        // Only the chunk of abc12 was cut short; def34 keeps filling its own until it is old or full.
+        assertEquals(List.of("flushed"), written);
+        assertEquals(List.of(1), chunkSizes);
+    }
+
+    @Test
+    void release_ShouldPublishNumberedLinesThenTheEnd() throws InterruptedException {
+        recordWrites(null);
+        // Earlier builds of the deployment stored 10 lines.
+        when(jdbcTemplate.queryForObject(BuildLogSink.LINE_COUNT_SQL, Long.class, "abc12")).thenReturn(10L);
+        sink = start(1000, 100, "block");
+
+        sink.append("abc12", "first");
+        sink.append("abc12", "second");
+        sink.release("abc12", true);
+
+        InOrder inOrder = inOrder(publisher);
+        inOrder.verify(publisher, timeout(5000)).publish(eq("abc12"), argThat(lines -> lines.get(0).id() == 10));
+        inOrder.verify(publisher, timeout(5000)).publishEnd("abc12");
+        assertEquals(List.of("first", "second"), written);
+    }
+
+    @Test
+    void append_ShouldHandOverTheLineNumber_BeforeFlushReturns() throws InterruptedException {
+        recordWrites(null);
+        when(jdbcTemplate.queryForObject(BuildLogSink.LINE_COUNT_SQL, Long.class, "abc12")).thenReturn(10L);
+        sink = start(1000, 100, "block");
+        List<Long> numbers = new CopyOnWriteArrayList<>();
+
+        sink.append("abc12", "compiling");
+        sink.append("abc12", "npm ERR! code ELIFECYCLE", LocalDateTime.now(), numbers::add);
+
+        assertTrue(sink.flush("abc12", Duration.ofSeconds(5)));
+        assertEquals(List.of(11L), numbers);
+    }
+
+    @Test
+    void dropNewest_ShouldReportDroppedLines_WhenTheBufferIsFull() throws InterruptedException {
+        CountDownLatch writing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        recordWrites(() -> {
+            writing.countDown();
+            release.await(5, TimeUnit.SECONDS);
+        });
+        sink = start(2, 1, "drop-newest");
+
+        sink.append("abc12", "first");
+        assertTrue(writing.await(5, TimeUnit.SECONDS));
+        // The writer is stuck on "first": two lines fit into the buffer, the third does not.
+        sink.append("abc12", "second");
+        sink.append("abc12", "third");
+        sink.append("abc12", "fourth");
+        release.countDown();
+
+        assertTrue(sink.flush("abc12", Duration.ofSeconds(5)));
+        assertEquals(List.of("first", "second", "third"), written.subList(0, 3));
+        assertTrue(written.get(3).contains("1 log line(s) were dropped"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void write_ShouldRetryAChunk_WhoseNumberAnotherWriterTook() throws InterruptedException {
+        when(jdbcTemplate.batchUpdate(eq(BuildLogSink.INSERT_SQL), any(Collection.class), anyInt(), any(ParameterizedPreparedStatementSetter.class)))
+                .thenReturn(new int[][]{{0}});
+        when(jdbcTemplate.update(eq(BuildLogSink.INSERT_SQL), any(PreparedStatementSetter.class))).thenReturn(0, 1);
+        sink = start(1000, 100, "block");
+
+        sink.append("abc12", "line");
+
+        assertTrue(sink.flush("abc12", Duration.ofSeconds(5)));
+        verify(jdbcTemplate, times(2)).update(eq(BuildLogSink.INSERT_SQL), any(PreparedStatementSetter.class));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void write_ShouldInsertChunksOneByOne_WhenTheBatchFails() throws InterruptedException {
+        when(jdbcTemplate.batchUpdate(eq(BuildLogSink.INSERT_SQL), any(Collection.class), anyInt(), any(ParameterizedPreparedStatementSetter.class)))
+                .thenThrow(new DataIntegrityViolationException("duplicate key value violates unique constraint"));
+        when(jdbcTemplate.update(eq(BuildLogSink.INSERT_SQL), any(PreparedStatementSetter.class))).thenReturn(1);
+        sink = start(1000, 100, "block");
+
+        sink.append("abc12", "first deployment");
+        sink.append("def34", "second deployment");
+
+        assertTrue(sink.flush("abc12", Duration.ofSeconds(5)));
+        assertTrue(sink.flush("def34", Duration.ofSeconds(5)));
+        verify(jdbcTemplate, times(2)).update(eq(BuildLogSink.INSERT_SQL), any(PreparedStatementSetter.class));
+    }
+
+    private BuildLogSink start(int bufferSize, int chunkLines, String overflow) {
+        BuildLogSink started = new BuildLogSink(jdbcTemplate, publisher, new SimpleMeterRegistry(), bufferSize, 100,
+                chunkLines, 60_000, 20, overflow, 50);
+        started.start();
+        return started;
+    }
+
+    private interface Hook {
+        void run() throws InterruptedException;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void recordWrites(Hook hook) {
+        when(jdbcTemplate.batchUpdate(eq(BuildLogSink.INSERT_SQL), any(Collection.class), anyInt(), any(ParameterizedPreparedStatementSetter.class)))
+                .thenAnswer(inv -> {
+                    if (hook != null) hook.run();
+                    for (BuildLogSink.OpenChunk chunk : inv.<Collection<BuildLogSink.OpenChunk>>getArgument(1)) {
+                        chunkSizes.add(chunk.size());
+                        chunk.lines().forEach(line -> written.add(line.content()));
+                    }
+                    return new int[0][];
+                });
+    }
+}
@@ -0,0 +1,42 @@
+package org.godn.deployservice.log;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.Base64;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class LogChunkFormatTest {
+
+    private static final LocalDateTime START = LocalDateTime.of(2026, 1, 5, 12, 0, 0);
+    private static final List<LogChunkFormat.Line> LINES = List.of(
+            new LogChunkFormat.Line(START, "> vite build"),
+            new LogChunkFormat.Line(START.plusNanos(1_000_000), ""),
+            new LogChunkFormat.Line(START.plusSeconds(2), "✓ 42 modules transformed. ünïcode"));
+    // LINES as encoded by this service. The Upload-Service's LogChunkFormatTest decodes the same bytes,
+    // so the two copies of the format cannot drift apart.
+    static final String FIXTURE = "H4sIAAAAAAAA/2NkYGBgZoAAHigGAUYGBvYLdgplmSWpCkmlmTkpj+ZMVjAxUsjNTynNSS1WKClKzCtOyy/KTU3RUzi8J+/w+uT8lFQAzmDnOk4AAAA=";
+
+    @Test
+    void decode_ShouldReturnTheEncodedLines() {
+        assertEquals(LINES, LogChunkFormat.decode(START, LogChunkFormat.encode(START, LINES)));
+    }
+
+    @Test
+    void encode_ShouldMatchTheFixtureTheUploadServiceReads() throws IOException {
+        // Compared unzipped: the compressed bytes may differ between zlib versions.
+        assertArrayEquals(gunzip(Base64.getDecoder().decode(FIXTURE)), gunzip(LogChunkFormat.encode(START, LINES)));
+    }
+
+    private static byte[] gunzip(byte[] data) throws IOException {
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(data))) {
+            return in.readAllBytes();
+        }
+    }
+}
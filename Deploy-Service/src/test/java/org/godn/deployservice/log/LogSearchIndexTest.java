@@ -0,0 +1,75 @@
+package org.godn.deployservice.log;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class LogSearchIndexTest {
+
+    private final Statement statement = mock(Statement.class);
+    private LogSearchIndex searchIndex;
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        DataSource dataSource = mock(DataSource.class);
+        Connection connection = mock(Connection.class);
+        when(dataSource.getConnection()).thenReturn(connection);
+        when(connection.createStatement()).thenReturn(statement);
+        searchIndex = new LogSearchIndex(new JdbcTemplate(dataSource));
+    }
+
+    @Test
+    void createIndex_ShouldRebuildAnIndexLeftInvalidByAnInterruptedBuild() throws SQLException {
+        returns(LogSearchIndex.LOCK_SQL, true);
+        returns(LogSearchIndex.IS_VALID_SQL, false);
+
+        searchIndex.createIndex();
+
+        InOrder inOrder = inOrder(statement);
+        inOrder.verify(statement).execute(LogSearchIndex.DROP_INDEX_SQL);
+        inOrder.verify(statement).execute(LogSearchIndex.CREATE_INDEX_SQL);
+        inOrder.verify(statement).execute(LogSearchIndex.UNLOCK_SQL);
+    }
+
+    @Test
+    void createIndex_ShouldOnlyCreate_WhenThereIsNoIndexYet() throws SQLException {
+        returns(LogSearchIndex.LOCK_SQL, true);
+        returns(LogSearchIndex.IS_VALID_SQL, null);
+
+        searchIndex.createIndex();
+
+        verify(statement, never()).execute(LogSearchIndex.DROP_INDEX_SQL);
+        verify(statement).execute(LogSearchIndex.CREATE_INDEX_SQL);
+    }
+
+    @Test
+    void createIndex_ShouldLeaveTheIndexAlone_WhileAnotherInstanceIsOnIt() throws SQLException {
+        returns(LogSearchIndex.LOCK_SQL, false);
+
+        searchIndex.createIndex();
+
+        verify(statement, never()).execute(anyString());
+    }
+
+    // A one-row boolean result, or no row for null.
+    private void returns(String sql, Boolean value) throws SQLException {
+        ResultSet result = mock(ResultSet.class);
+        when(result.next()).thenReturn(value != null);
+        if (value != null) when(result.getBoolean(1)).thenReturn(value);
+        when(statement.executeQuery(sql)).thenReturn(result);
+    }
+}
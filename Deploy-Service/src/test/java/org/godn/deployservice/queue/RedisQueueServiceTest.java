@@ -0,0 +1,229 @@
+package org.godn.deployservice.queue;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisListCommands.Direction;
+import org.springframework.data.redis.connection.RedisStreamCommands;
+import org.springframework.data.redis.connection.RedisStreamCommands.XClaimOptions;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamOffset;
+import org.springframework.data.redis.connection.stream.StreamReadOptions;
+import org.springframework.data.redis.core.ListOperations;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StreamOperations;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class RedisQueueServiceTest {
+
+    @Mock
+    private StringRedisTemplate redisTemplate;
+
+    @Mock
+    private ListOperations<String, String> listOperations;
+
+    @Mock
+    private StreamOperations<String, Object, Object> streamOperations;
+
+    private RedisQueueService redisQueueService;
+    private final String QUEUE_KEY = "test_build_queue";
+    private final String WORKER_ID = "worker-1";
+    private final String PROCESSING_KEY = QUEUE_KEY + ":processing:" + WORKER_ID;
+    private final String PENDING_KEY = QUEUE_KEY + ":pending";
+
+    @BeforeEach
+    void setUp() {
+        lenient().when(redisTemplate.opsForList()).thenReturn(listOperations);
+        redisQueueService = new RedisQueueService(redisTemplate, QUEUE_KEY, WORKER_ID, "list", 60, "");
+    }
+
+    @Test
+    void takeFromQueue_ShouldMoveIntoProcessingList_AndClearThePendingRequestInTheSameScript() {
+        Duration timeout = Duration.ofSeconds(5);
+        when(redisTemplate.execute(RedisQueueService.LIST_TAKE_SCRIPT, List.of(QUEUE_KEY, PROCESSING_KEY, PENDING_KEY)))
+                .thenReturn("12345");
+
+        QueuedJob job = redisQueueService.takeFromQueue(timeout);
+
+        assertEquals("12345", job.deploymentId());
+        verify(listOperations, never()).move(any(), any(), any(), any(), any(Duration.class));
+        verify(redisTemplate, never()).opsForHash();
+    }
+
+    @Test
+    void takeFromQueue_ShouldWaitWithoutTakingAndTakeAgain_WhenTheQueueIsEmpty() {
+        Duration timeout = Duration.ofSeconds(5);
+        when(redisTemplate.execute(RedisQueueService.LIST_TAKE_SCRIPT, List.of(QUEUE_KEY, PROCESSING_KEY, PENDING_KEY)))
+                .thenReturn(null, "12345");
+        when(listOperations.move(QUEUE_KEY, Direction.LEFT, QUEUE_KEY, Direction.LEFT, timeout)).thenReturn("12345");
+
+        QueuedJob job = redisQueueService.takeFromQueue(timeout);
+
+        assertEquals("12345", job.deploymentId());
+    }
+
+    @Test
+    void takeFromQueue_ShouldReadEnqueueTime_FromJsonEntry() {
+        Duration timeout = Duration.ofSeconds(5);
+        String entry = "{\"deploymentId\":\"12345\",\"enqueuedAt\":1700000000000}";
+        when(redisTemplate.execute(RedisQueueService.LIST_TAKE_SCRIPT, List.of(QUEUE_KEY, PROCESSING_KEY, PENDING_KEY)))
+                .thenReturn(entry);
+
+        QueuedJob job = redisQueueService.takeFromQueue(timeout);
+
+        assertEquals("12345", job.deploymentId());
+        assertEquals(entry, job.receipt());
+        assertEquals(Instant.ofEpochMilli(1700000000000L), job.enqueuedAt());
+    }
+
+    @Test
+    void acknowledge_ShouldRemoveFromProcessingList() {
+        redisQueueService.acknowledge(new QueuedJob("12345", "12345", false, null));
+
+        verify(listOperations).remove(PROCESSING_KEY, 1, "12345");
+    }
+
+    @Test
+    void requeue_ShouldRestoreThePendingRequest_WithTheJob() {
+        String entry = "{\"deploymentId\":\"12345\",\"enqueuedAt\":1700000000000}";
+
+        redisQueueService.requeue(new QueuedJob("12345", entry, false, null));
+
+        verify(redisTemplate).execute(RedisQueueService.LIST_RETURN_SCRIPT,
+                List.of(PROCESSING_KEY, QUEUE_KEY, PENDING_KEY), entry);
+    }
+
+    @Test
+    void takeFromQueue_ShouldTakeNextOwnersJob_InFairMode() {
+        Duration timeout = Duration.ofSeconds(5);
+        String entry = "{\"deploymentId\":\"12345\",\"ownerId\":\"owner-1\"}";
+        RedisQueueService fairQueue = new RedisQueueService(redisTemplate, QUEUE_KEY, WORKER_ID, "fair", 60, "");
+        when(listOperations.leftPop(QUEUE_KEY + ":fair:ready", timeout)).thenReturn("1");
+        when(redisTemplate.execute(eq(RedisQueueService.FAIR_DEQUEUE_SCRIPT),
+                argThat((List<String> keys) -> keys.contains(PENDING_KEY)), eq(QUEUE_KEY + ":fair:owner:")))
+                .thenReturn(List.of(entry, "12345"));
+
+        QueuedJob job = fairQueue.takeFromQueue(timeout);
+
+        assertEquals("12345", job.deploymentId());
+        assertEquals(entry, job.receipt());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void sendHeartbeat_ShouldReclaimInFlightEntries_WithoutCountingADelivery() {
+        RedisQueueService streamQueue = new RedisQueueService(redisTemplate, QUEUE_KEY, WORKER_ID, "stream", 60, "");
+        noAbandonedJobs();
+        String streamKey = QUEUE_KEY + ":stream";
+        when(redisTemplate.execute(eq(RedisQueueService.STREAM_TAKE_SCRIPT), eq(List.of(streamKey, PENDING_KEY)),
+                any(), any(), any(), any()))
+                .thenReturn(List.of("1700000000000-0", "12345"));
+        when(redisTemplate.opsForValue()).thenReturn(mock());
+        when(redisTemplate.opsForSet()).thenReturn(mock());
+        streamQueue.takeFromQueue(Duration.ofSeconds(5));
+
+        RedisConnection connection = mock(RedisConnection.class);
+        RedisStreamCommands streamCommands = mock(RedisStreamCommands.class);
+        when(connection.streamCommands()).thenReturn(streamCommands);
+        when(redisTemplate.execute(any(RedisCallback.class)))
+                .thenAnswer(inv -> inv.<RedisCallback<?>>getArgument(0).doInRedis(connection));
+        streamQueue.sendHeartbeat();
+
+        verify(streamCommands).xClaimJustId(eq(streamKey.getBytes()), eq(QUEUE_KEY + ":workers"), eq(WORKER_ID),
+                argThat((XClaimOptions options) -> options.getIds().contains(RecordId.of("1700000000000-0"))));
+        verify(streamCommands, never()).xClaim(any(), any(), any(), any(XClaimOptions.class));
+    }
+
+    @Test
+    void takeFromQueue_ShouldWaitAfterTheLastRecord_WhenTheStreamHasNothingNew() {
+        RedisQueueService streamQueue = new RedisQueueService(redisTemplate, QUEUE_KEY, WORKER_ID, "stream", 60, "");
+        noAbandonedJobs();
+        String streamKey = QUEUE_KEY + ":stream";
+        Duration timeout = Duration.ofSeconds(5);
+        when(redisTemplate.execute(eq(RedisQueueService.STREAM_TAKE_SCRIPT), eq(List.of(streamKey, PENDING_KEY)),
+                eq(QUEUE_KEY + ":workers"), eq(WORKER_ID), eq("deploymentId"), eq("request")))
+                .thenReturn(List.of("", "1700000000000-0"), List.of("1700000000001-0", "12345"));
+        when(redisTemplate.opsForStream()).thenReturn(streamOperations);
+
+        QueuedJob job = streamQueue.takeFromQueue(timeout);
+
+        assertEquals("12345", job.deploymentId());
+        assertEquals("1700000000001-0", job.receipt());
+        verify(streamOperations).read(any(StreamReadOptions.class), argThat((StreamOffset<String> offset) ->
+                offset.getKey().equals(streamKey) && offset.getOffset().getOffset().equals("1700000000000-0")));
+    }
+
+    @Test
+    void takeFromQueue_ShouldSkipMalformedStreamEntries_DroppedByTheScript() {
+        RedisQueueService streamQueue = new RedisQueueService(redisTemplate, QUEUE_KEY, WORKER_ID, "stream", 60, "");
+        noAbandonedJobs();
+        when(redisTemplate.execute(eq(RedisQueueService.STREAM_TAKE_SCRIPT), anyList(), any(), any(), any(), any()))
+                .thenReturn(List.of("1700000000000-0"));
+
+        assertNull(streamQueue.takeFromQueue(Duration.ofSeconds(5)));
+    }
+
+    @Test
+    void takeFromQueue_ShouldTakeOverAnIdleEntry_OnlyThroughTheHeartbeatCheck() {
+        RedisQueueService streamQueue = new RedisQueueService(redisTemplate, QUEUE_KEY, WORKER_ID, "stream", 60, "");
+        // The script claims an entry only once the heartbeat key of its owner (prefix + worker ID) is gone.
+        when(redisTemplate.execute(RedisQueueService.AUTOCLAIM_SCRIPT, List.of(QUEUE_KEY + ":stream", PENDING_KEY),
+                QUEUE_KEY + ":workers", WORKER_ID, "60000", "deploymentId", "request", QUEUE_KEY + ":worker:"))
+                .thenReturn(List.of("1700000000000-0", "12345"));
+
+        QueuedJob job = streamQueue.takeFromQueue(Duration.ofSeconds(5));
+
+        assertEquals("12345", job.deploymentId());
+        assertTrue(job.redelivered());
+    }
+
+    @Test
+    void takeFromQueue_ShouldNotRedeliverItsOwnRunningJob_WhenItsHeartbeatWasLate() {
+        RedisQueueService streamQueue = new RedisQueueService(redisTemplate, QUEUE_KEY, WORKER_ID, "stream", 60, "");
+        when(redisTemplate.execute(eq(RedisQueueService.AUTOCLAIM_SCRIPT), anyList(), any(), any(), any(), any(), any(), any()))
+                .thenReturn(List.of(), List.of("1700000000001-0", "12345"));
+        when(redisTemplate.execute(eq(RedisQueueService.STREAM_TAKE_SCRIPT), anyList(), any(), any(), any(), any()))
+                .thenReturn(List.of("1700000000001-0", "12345"), List.of("1700000000002-0", "67890"));
+
+        QueuedJob running = streamQueue.takeFromQueue(Duration.ofSeconds(5));
+        QueuedJob next = streamQueue.takeFromQueue(Duration.ofSeconds(5));
+
+        assertEquals("12345", running.deploymentId());
+        assertEquals("67890", next.deploymentId());
+        assertFalse(next.redelivered());
+    }
+
+    @Test
+    void initialize_ShouldWriteConfiguredWeights_InFairMode() {
+        RedisQueueService fairQueue = new RedisQueueService(redisTemplate, QUEUE_KEY, WORKER_ID, "fair", 60,
+                "owner-1:3, owner-2:x, owner-3:0, owner-4:2");
+
+        fairQueue.initialize();
+
+        verify(redisTemplate).execute(RedisQueueService.FAIR_WEIGHTS_SCRIPT, List.of(QUEUE_KEY + ":fair:weights"),
+                "owner-1", "3", "owner-4", "2");
+    }
+
+    private void noAbandonedJobs() {
+        when(redisTemplate.execute(eq(RedisQueueService.AUTOCLAIM_SCRIPT), anyList(), any(), any(), any(), any(), any(), any()))
+                .thenReturn(List.of());
+    }
+}
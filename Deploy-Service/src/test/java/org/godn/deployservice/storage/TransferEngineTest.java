@@ -0,0 +1,132 @@
+package org.godn.deployservice.storage;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TransferEngineTest {
+
+    private ExecutorService executor;
+    private SimpleMeterRegistry registry;
+
+    @BeforeEach
+    void setUp() {
+        executor = Executors.newCachedThreadPool();
+        registry = new SimpleMeterRegistry();
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void transferAll_ShouldKeepAtMostTheWindowInFlight() throws Exception {
+        TransferEngine engine = new TransferEngine(executor, registry, 4, 32);
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+        AtomicInteger done = new AtomicInteger();
+
+        engine.transferAll(IntStream.range(0, 200).boxed().toList(), item -> {
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            Thread.sleep(1);
+            inFlight.decrementAndGet();
+            done.incrementAndGet();
+        }).get(10, TimeUnit.SECONDS);
+
+        assertEquals(200, done.get());
+        assertTrue(maxInFlight.get() <= 4, "in flight: " + maxInFlight.get());
+        assertEquals(0.0, registry.get("s3.transfer.active").gauge().value());
+    }
+
+    @Test
+    void transferAll_ShouldRunAtMostMaxConcurrencyAcrossJobs() throws Exception {
+        TransferEngine engine = new TransferEngine(executor, registry, 8, 2);
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        TransferEngine.Transfer<Integer> transfer = item -> {
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            Thread.sleep(1);
+            running.decrementAndGet();
+        };
+        List<Integer> items = IntStream.range(0, 50).boxed().toList();
+
+        CompletableFuture.allOf(engine.transferAll(items, transfer), engine.transferAll(items, transfer))
+                .get(10, TimeUnit.SECONDS);
+
+        assertTrue(maxRunning.get() <= 2, "running: " + maxRunning.get());
+    }
+
+    @Test
+    void transferAll_ShouldFailAfterTheRunningTransfersEnd_AndStartNoMore() throws Exception {
+        TransferEngine engine = new TransferEngine(executor, registry, 2, 32);
+        CountDownLatch slowStarted = new CountDownLatch(1);
+        CountDownLatch releaseSlow = new CountDownLatch(1);
+        AtomicInteger started = new AtomicInteger();
+
+        CompletableFuture<Void> result = engine.transferAll(List.of("slow", "broken", "a", "b", "c"), item -> {
+            started.incrementAndGet();
+            if (item.equals("slow")) {
+                slowStarted.countDown();
+                releaseSlow.await();
+            } else if (item.equals("broken")) {
+                assertTrue(slowStarted.await(5, TimeUnit.SECONDS));
+                throw new IllegalStateException("upload failed");
+            }
+        });
+
+        assertTrue(slowStarted.await(5, TimeUnit.SECONDS));
+        Thread.sleep(50);
+        assertFalse(result.isDone());
+
+        releaseSlow.countDown();
+        ExecutionException failure = assertThrows(ExecutionException.class, () -> result.get(5, TimeUnit.SECONDS));
+        assertEquals("upload failed", failure.getCause().getMessage());
+        assertEquals(2, started.get());
+    }
+
+    @Test
+    void start_ShouldEndOnlyOnceTheRunningTransfersHaveEnded_AfterACancel() throws Exception {
+        TransferEngine engine = new TransferEngine(executor, registry, 2, 32);
+        CountDownLatch bothStarted = new CountDownLatch(2);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger started = new AtomicInteger();
+
+        TransferEngine.Transfers transfers = engine.start(List.of("a", "b", "c", "d"), item -> {
+            started.incrementAndGet();
+            bothStarted.countDown();
+            release.await();
+        });
+        assertTrue(bothStarted.await(5, TimeUnit.SECONDS));
+
+        transfers.result().cancel(false);
+        // Two transfers are still writing.
+        Thread.sleep(50);
+        assertFalse(transfers.ended().isDone());
+
+        release.countDown();
+        transfers.ended().get(5, TimeUnit.SECONDS);
+        assertEquals(2, started.get());
+        assertTrue(transfers.result().isCancelled());
+    }
+
+    @Test
+    void transferAll_ShouldComplete_WhenThereIsNothingToTransfer() {
+        TransferEngine engine = new TransferEngine(executor, registry, 4, 4);
+
+        assertTrue(engine.transferAll(List.<String>of(), item -> fail()).isDone());
+    }
+}
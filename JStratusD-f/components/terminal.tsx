@@ -1,7 +1,7 @@
 "use client";
 
 import React, { useRef, useEffect } from 'react';
-import { useQuery } from '@tanstack/react-query';
+import { useQuery, useQueryClient } from '@tanstack/react-query';
 import { Loader2 } from 'lucide-react';
 import { ScrollArea } from '@/components/ui/scroll-area';
 import { Deployment } from '@/lib/types'; 
@@ -23,13 +23,31 @@ interface TerminalProps {
   deploymentStatus: DeploymentStatus;
 }
 
-async function fetchLogs(deploymentId: string): Promise<LogEntry[]> {
-  const { data } = await api.get(`/jsd/deploys/${deploymentId}/logs`);
-  return data || []; 
+interface LogPage {
+  logs: LogEntry[];
+  nextCursor: number;
+  hasMore: boolean;
+}
+
+const PAGE_SIZE = 1000;
+
+// Fetches only the lines after the ones we already have, following the cursor until caught up.
+async function fetchLogs(deploymentId: string, previous: LogEntry[]): Promise<LogEntry[]> {
+  let logs = previous;
+  let after = previous.length > 0 ? previous[previous.length - 1].id : undefined;
+  for (;;) {
+    const { data } = await api.get<LogPage>(`/jsd/deploys/${deploymentId}/logs`, {
+      params: { after, limit: PAGE_SIZE },
+    });
+    if (data?.logs?.length) logs = logs.concat(data.logs);
+    if (!data?.hasMore) return logs;
+    after = data.nextCursor;
+  }
 }
 
 export function Terminal({ deploymentId, deploymentStatus }: TerminalProps) {
   const scrollAreaRef = useRef<HTMLDivElement>(null);
+  const queryClient = useQueryClient();
 
   // Polling Condition: Only poll if building
   const shouldPoll = deploymentStatus === 'BUILDING';
@@ -39,7 +57,7 @@ export function Terminal({ deploymentId, deploymentStatus }: TerminalProps) {
 
   const { data: logs, isLoading, isError, error } = useQuery<LogEntry[], Error>({
     queryKey: ['logs', deploymentId],
-    queryFn: () => fetchLogs(deploymentId),
+    queryFn: () => fetchLogs(deploymentId, queryClient.getQueryData<LogEntry[]>(['logs', deploymentId]) ?? []),
     refetchInterval: shouldPoll ? 2000 : false,
     enabled: shouldFetch, 
   });
@@ -94,8 +112,8 @@ export function Terminal({ deploymentId, deploymentStatus }: TerminalProps) {
         )}
 
         {/* Display Logs */}
-        {logs?.map((log, index) => (
-          <p key={index} className="whitespace-pre-wrap leading-relaxed">
+        {logs?.map((log) => (
+          <p key={log.id} className="whitespace-pre-wrap leading-relaxed">
             {/* Safe check for timestamp slice */}
             <span className="text-gray-500 mr-2">
                 {log.timestamp ? log.timestamp.substring(11, 19) : '--:--:--'}
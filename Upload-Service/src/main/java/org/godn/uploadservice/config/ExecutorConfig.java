@@ -0,0 +1,40 @@
+package org.godn.uploadservice.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+@Configuration
+public class ExecutorConfig {
+
+    /**
+     * Runs the blocking R2 object transfers (see TransferEngine), instead of the JVM-wide common pool.
+     * With virtual threads a transfer waiting on the network holds no platform thread; the engine bounds how
+     * many run at once either way. Threads are named s3-transfer-N.
+     */
+    @Bean("transferExecutor")
+    public ExecutorService transferExecutor(
+            @Value("${transfer.virtual-threads:true}") boolean virtualThreads,
+            @Value("${transfer.max-concurrency:32}") int maxConcurrency,
+            MeterRegistry registry
+    ) {
+        ExecutorService executor = virtualThreads
+                ? Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("s3-transfer-", 0).factory())
+                : Executors.newFixedThreadPool(maxConcurrency, Thread.ofPlatform().name("s3-transfer-", 0).daemon().factory());
+        return ExecutorServiceMetrics.monitor(registry, executor, "transfer");
+    }
+
+    /**
+     * Sends the live build logs to the SSE clients (see BuildLogStreamService). A client that reads slowly only
+     * blocks its own virtual thread.
+     */
+    @Bean("logStreamExecutor")
+    public ExecutorService logStreamExecutor() {
+        return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("sse-log-", 0).factory());
+    }
+}
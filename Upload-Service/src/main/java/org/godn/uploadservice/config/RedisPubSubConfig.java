@@ -0,0 +1,47 @@
+package org.godn.uploadservice.config;
+
+import org.godn.uploadservice.log.BuildLogStreamService;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.listener.PatternTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+@Configuration
+public class RedisPubSubConfig {
+
+    /**
+     * Hands the pub/sub messages to the listener one at a time, in the order they arrived. Without it the
+     * container starts a thread per message, and two batches of one deployment's lines can overtake each other.
+     * BuildLogStreamService only queues the lines, so one thread keeps up.
+     */
+    @Bean("redisListenerExecutor")
+    public ExecutorService redisListenerExecutor() {
+        return Executors.newSingleThreadExecutor(Thread.ofPlatform().name("redis-log-listener").daemon().factory());
+    }
+
+    /**
+     * Listens on QUEUE_KEY:logs:*, where the build workers publish build log lines as they are read.
+     */
+    @Bean
+    public RedisMessageListenerContainer redisMessageListenerContainer(
+            RedisConnectionFactory connectionFactory,
+            BuildLogStreamService buildLogStreamService,
+            @Qualifier("redisListenerExecutor") ExecutorService redisListenerExecutor
+    ) {
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(connectionFactory);
+        container.setTaskExecutor(redisListenerExecutor);
+        container.addMessageListener(
+                (message, pattern) -> buildLogStreamService.onMessage(
+                        new String(message.getChannel(), StandardCharsets.UTF_8),
+                        new String(message.getBody(), StandardCharsets.UTF_8)),
+                new PatternTopic(buildLogStreamService.channelPattern()));
+        return container;
+    }
+}
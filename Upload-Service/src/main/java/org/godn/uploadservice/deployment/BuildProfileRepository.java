@@ -0,0 +1,6 @@
+package org.godn.uploadservice.deployment;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+
+public interface BuildProfileRepository extends JpaRepository<BuildProfile, String> {
+}
@@ -1,13 +1,18 @@
 package org.godn.uploadservice.deployment;
 
 import jakarta.validation.Valid;
-import org.godn.uploadservice.log.BuildLog;
+import org.godn.uploadservice.log.BuildLogPageDto;
+import org.godn.uploadservice.log.BuildLogSearchService;
+import org.godn.uploadservice.log.BuildLogStreamService;
+import org.godn.uploadservice.log.LogSearchResultDto;
 import org.godn.uploadservice.upload.SecretsDto;
 import org.godn.uploadservice.upload.UploadRequestDto;
 import org.godn.uploadservice.upload.UploadResponseDto;
 import org.godn.uploadservice.upload.UploadService;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import java.util.List;
 
@@ -17,10 +22,15 @@ public class DeploymentController {
 
     private final UploadService uploadService;
     private final DeploymentService deploymentService;
+    private final BuildLogStreamService buildLogStreamService;
+    private final BuildLogSearchService buildLogSearchService;
 
-    public DeploymentController(UploadService uploadService, DeploymentService deploymentService) {
+    public DeploymentController(UploadService uploadService, DeploymentService deploymentService,
+                                BuildLogStreamService buildLogStreamService, BuildLogSearchService buildLogSearchService) {
         this.uploadService = uploadService;
         this.deploymentService = deploymentService;
+        this.buildLogStreamService = buildLogStreamService;
+        this.buildLogSearchService = buildLogSearchService;
     }
 
     // --- CORE DEPLOYMENT ENDPOINTS ---
@@ -111,13 +121,17 @@ public class DeploymentController {
     }
 
     /**
-     * Get Build Logs.
-     * GET /deployments/{id}/logs
+     * Get Build Logs, a page at a time.
+     * GET /deployments/{id}/logs?after={cursor}&limit={n}
+     * Returns the lines after the cursor and the cursor of the next page; polling with the last
+     * nextCursor tails a running build.
      */
     @GetMapping("/{id}/logs")
-    public ResponseEntity<List<BuildLog>> getDeploymentLogs(
+    public ResponseEntity<BuildLogPageDto> getDeploymentLogs(
             @PathVariable String id,
-            @RequestHeader("X-User-Id") String userId
+            @RequestHeader("X-User-Id") String userId,
+            @RequestParam(required = false) Long after,
+            @RequestParam(defaultValue = "" + DeploymentService.DEFAULT_LOG_PAGE_SIZE) int limit
     ) {
         // 1. Security Check: Ensure user owns this deployment
         Deployment deployment = deploymentService.getDeployment(userId, id);
@@ -127,7 +141,72 @@ public class DeploymentController {
         }
 
         // 2. Fetch Logs
-        List<BuildLog> logs = deploymentService.getDeploymentLogs(id);
+        BuildLogPageDto logs = deploymentService.getDeploymentLogs(id, after, limit);
         return ResponseEntity.ok(logs);
     }
+
+    /**
+     * Search the build logs of all your deployments, newest first.
+     * GET /deployments/logs/search?q=ERR_OSSL&before={cursor}&limit={chunks}
+     * q takes words, "quoted phrases" and -excluded words.
+     */
+    @GetMapping("/logs/search")
+    public ResponseEntity<LogSearchResultDto> searchLogs(
+            @RequestHeader("X-User-Id") String userId,
+            @RequestParam String q,
+            @RequestParam(required = false) Long before,
+            @RequestParam(defaultValue = "" + BuildLogSearchService.DEFAULT_PAGE_SIZE) int limit
+    ) {
+        return ResponseEntity.ok(buildLogSearchService.search(userId, q, before, limit));
+    }
+
+    /**
+     * Stream Build Logs live (Server-Sent Events "log", then "end" once the build is over).
+     * GET /deployments/{id}/logs/stream
+     * Resumes after the line in Last-Event-ID (sent by EventSource on reconnect) or ?after=.
+     */
+    @GetMapping(value = "/{id}/logs/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamDeploymentLogs(
+            @PathVariable String id,
+            @RequestHeader("X-User-Id") String userId,
+            @RequestHeader(value = "Last-Event-ID", required = false) Long lastEventId,
+            @RequestParam(required = false) Long after
+    ) {
+        // Throws 404 unless the user owns the deployment.
+        Deployment deployment = deploymentService.getDeployment(userId, id);
+        boolean finished = deployment.getStatus() != DeploymentStatus.QUEUED && deployment.getStatus() != DeploymentStatus.BUILDING;
+        Long resumeAfter = lastEventId != null ? lastEventId : after;
+        // The stored lines are paged like GET /{id}/logs, on the stream's executor.
+        return buildLogStreamService.subscribe(id, resumeAfter,
+                cursor -> deploymentService.getDeploymentLogs(id, cursor, DeploymentService.DEFAULT_LOG_PAGE_SIZE), finished);
+    }
+
+    /**
+     * Get the resource profile of the latest build (peak RSS, CPU seconds, disk I/O).
+     * GET /deployments/{id}/profile
+     */
+    @GetMapping("/{id}/profile")
+    public ResponseEntity<BuildProfile> getBuildProfile(
+            @PathVariable String id,
+            @RequestHeader("X-User-Id") String userId
+    ) {
+        // Throws 404 unless the user owns the deployment.
+        deploymentService.getDeployment(userId, id);
+        return ResponseEntity.ok(deploymentService.getBuildProfile(id));
+    }
+
+    /**
+     * Get the summary of the latest failed build: the error lines (with their line numbers, to jump to
+     * them through ?after= on the logs) and the npm phase and exit code.
+     * GET /deployments/{id}/failure
+     */
+    @GetMapping("/{id}/failure")
+    public ResponseEntity<BuildFailureDigest> getFailureDigest(
+            @PathVariable String id,
+            @RequestHeader("X-User-Id") String userId
+    ) {
+        // Throws 404 unless the user owns the deployment.
+        deploymentService.getDeployment(userId, id);
+        return ResponseEntity.ok(deploymentService.getFailureDigest(id));
+    }
 }
\ No newline at end of file
@@ -4,9 +4,16 @@ import org.godn.uploadservice.exception.BadRequestException;
 import org.godn.uploadservice.exception.ResourceNotFoundException;
 import org.godn.uploadservice.exception.UnauthorizedException;
 import org.godn.uploadservice.log.BuildLog;
+import org.godn.uploadservice.log.BuildLogChunk;
+import org.godn.uploadservice.log.BuildLogChunkRepository;
+import org.godn.uploadservice.log.BuildLogPageDto;
 import org.godn.uploadservice.log.BuildLogRepository;
+import org.godn.uploadservice.log.BuildLogRetention;
+import org.godn.uploadservice.log.LogChunkFormat;
+import org.godn.uploadservice.queue.RedisQueueService;
 import org.godn.uploadservice.storage.S3UploadService;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
 import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpHeaders;
 import org.springframework.stereotype.Service;
@@ -18,6 +25,7 @@ import org.springframework.core.ParameterizedTypeReference;
 import org.springframework.http.HttpMethod;
 
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -28,6 +36,10 @@ import java.util.stream.Collectors;
 @Transactional // Ensures all DB operations are atomic
 public class DeploymentService {
 
+    public static final int DEFAULT_LOG_PAGE_SIZE = 1000;
+    private static final int MAX_LOG_PAGE_SIZE = 5000;
+    private static final int LOG_CHUNKS_PER_READ = 20;
+
     @Value("${upload.output.dir:output}")
     private String sourceCodeDir;
 
@@ -35,18 +47,33 @@ public class DeploymentService {
     private final ProjectSecretRepository projectSecretRepository;
     private final S3UploadService s3UploadService;
     private final BuildLogRepository buildLogRepository;
+    private final BuildLogChunkRepository buildLogChunkRepository;
+    private final BuildProfileRepository buildProfileRepository;
+    private final BuildFailureDigestRepository failureDigestRepository;
+    private final BuildLogRetention buildLogRetention;
+    private final RedisQueueService redisQueueService;
     private final RestTemplate restTemplate = new RestTemplate();
 
     public DeploymentService(
             DeploymentRepository deploymentRepository,
             ProjectSecretRepository projectSecretRepository,
             S3UploadService s3UploadService,
-            BuildLogRepository buildLogRepository
+            BuildLogRepository buildLogRepository,
+            BuildLogChunkRepository buildLogChunkRepository,
+            BuildProfileRepository buildProfileRepository,
+            BuildFailureDigestRepository failureDigestRepository,
+            BuildLogRetention buildLogRetention,
+            RedisQueueService redisQueueService
             ) {
         this.deploymentRepository = deploymentRepository;
         this.projectSecretRepository = projectSecretRepository;
         this.s3UploadService = s3UploadService;
         this.buildLogRepository = buildLogRepository;
+        this.buildLogChunkRepository = buildLogChunkRepository;
+        this.buildProfileRepository = buildProfileRepository;
+        this.failureDigestRepository = failureDigestRepository;
+        this.buildLogRetention = buildLogRetention;
+        this.redisQueueService = redisQueueService;
     }
 
     // ==================================================================================
@@ -177,6 +204,8 @@ public class DeploymentService {
         if (deployment.getStatus() == DeploymentStatus.QUEUED || deployment.getStatus() == DeploymentStatus.BUILDING) {
             deployment.setStatus(DeploymentStatus.CANCELLED);
             deploymentRepository.save(deployment);
+            // A worker may already be building it.
+            redisQueueService.publishCancel(deploymentId);
         } else {
             throw new BadRequestException("Cannot cancel a deployment that is already " + deployment.getStatus());
         }
@@ -206,8 +235,10 @@ public class DeploymentService {
         // 4. Delete Record (DB)
         deploymentRepository.delete(deployment);
 
-        // 5. (Optional) Delete Build Logs if you implemented that tablew
-         buildLogRepository.deleteByDeploymentId(deploymentId);
+        // 5. Delete Build Logs, in batches once the deployment is gone
+        buildLogRetention.purgeDeployment(deploymentId);
+        buildProfileRepository.deleteById(deploymentId);
+        failureDigestRepository.deleteById(deploymentId);
     }
 
     // ==================================================================================
@@ -243,11 +274,77 @@ public class DeploymentService {
     }
 
     /**
-     * NEW: Get build logs for a specific project.
-     * Returns them sorted by timestamp so they read like a console.
+     * NEW: Get build logs for a specific project, one page at a time.
+     * Returns the lines after the cursor in the order they were written, so they read like a console.
+     * The build worker stores them as compressed chunks; deployments built before that still have a row per line.
+     * Lines from chunks carry their line number as id. Either way the id is the cursor.
+     */
+    @Transactional(readOnly = true)
+    public BuildLogPageDto getDeploymentLogs(String deploymentId, Long after, int limit) {
+        int pageSize = Math.max(1, Math.min(limit, MAX_LOG_PAGE_SIZE));
+        long cursor = after == null ? -1 : after;
+
+        // One line more than asked for tells whether there is another page.
+        List<BuildLog> logs = buildLogChunkRepository.existsByDeploymentId(deploymentId)
+                ? readChunkedLogs(deploymentId, cursor, pageSize + 1)
+                : buildLogRepository.findByDeploymentIdAndIdGreaterThanOrderByIdAsc(deploymentId, cursor, Limit.of(pageSize + 1));
+
+        boolean hasMore = logs.size() > pageSize;
+        if (hasMore) logs = logs.subList(0, pageSize);
+        long nextCursor = logs.isEmpty() ? cursor : logs.get(logs.size() - 1).getId();
+        return new BuildLogPageDto(logs, nextCursor, hasMore);
+    }
+
+    /**
+     * Seeks to the chunk holding the line after the cursor and decodes from there, a few chunks per query,
+     * so the cost of a page does not grow with the length of the log.
+     */
+    private List<BuildLog> readChunkedLogs(String deploymentId, long after, int max) {
+        List<BuildLog> logs = new ArrayList<>();
+        long from = buildLogChunkRepository
+                .findFirstByDeploymentIdAndFirstLineLessThanEqualOrderByFirstLineDesc(deploymentId, after + 1)
+                .map(BuildLogChunk::getFirstLine)
+                .orElse(after + 1);
+
+        while (true) {
+            List<BuildLogChunk> chunks = buildLogChunkRepository
+                    .findByDeploymentIdAndFirstLineGreaterThanEqualOrderByFirstLineAsc(deploymentId, from, Limit.of(LOG_CHUNKS_PER_READ));
+            for (BuildLogChunk chunk : chunks) {
+                List<LogChunkFormat.Line> lines = LogChunkFormat.decode(chunk.getStartedAt(), chunk.getData());
+                for (int i = 0; i < lines.size(); i++) {
+                    long line = chunk.getFirstLine() + i;
+                    if (line <= after) continue;
+                    logs.add(BuildLog.builder()
+                            .id(line)
+                            .deploymentId(deploymentId)
+                            .content(lines.get(i).content())
+                            .timestamp(lines.get(i).timestamp())
+                            .build());
+                    if (logs.size() >= max) return logs;
+                }
+            }
+            if (chunks.size() < LOG_CHUNKS_PER_READ) return logs;
+            from = chunks.get(chunks.size() - 1).getFirstLine() + 1;
+        }
+    }
+
+    /**
+     * CPU, memory and disk I/O of the latest build, recorded by the build worker.
      */
-    public List<BuildLog> getDeploymentLogs(String deploymentId) {
-        return buildLogRepository.findByDeploymentIdOrderByTimestampAsc(deploymentId);
+    @Transactional(readOnly = true)
+    public BuildProfile getBuildProfile(String deploymentId) {
+        return buildProfileRepository.findById(deploymentId)
+                .orElseThrow(() -> new ResourceNotFoundException("Build profile", "deploymentId", deploymentId));
+    }
+
+    /**
+     * Why the latest build failed: its error lines with their line numbers in the log, and the failing
+     * phase and exit code. Only there while the latest build of the deployment is a failed one.
+     */
+    @Transactional(readOnly = true)
+    public BuildFailureDigest getFailureDigest(String deploymentId) {
+        return failureDigestRepository.findById(deploymentId)
+                .orElseThrow(() -> new ResourceNotFoundException("Failure digest", "deploymentId", deploymentId));
     }
 
     public Map<String, String> parseEnvFile(String envContent) {
@@ -9,7 +9,13 @@ import lombok.NoArgsConstructor;
 import java.time.LocalDateTime;
 
 @Entity
-@Table(name = "build_logs")
+@Table(name = "build_logs",
+        indexes = {
+                // Logs are paged by id (the cursor), per deployment.
+                @Index(name = "idx_build_logs_deployment_id", columnList = "deploymentId, id"),
+                // Retention deletes by age.
+                @Index(name = "idx_build_logs_timestamp", columnList = "timestamp")
+        })
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
@@ -0,0 +1,59 @@
+package org.godn.uploadservice.log;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * A run of consecutive log lines of one deployment, compressed together (see {@link LogChunkFormat}).
+ * Replaces one build_logs row per line.
+ */
+@Entity
+@Table(name = "build_log_chunks",
+        uniqueConstraints = @UniqueConstraint(columnNames = {"deploymentId", "seq"}),
+        indexes = {
+                // Paged reads seek to the chunk holding a line number.
+                @Index(name = "idx_build_log_chunks_deployment_first_line", columnList = "deploymentId, firstLine"),
+                // Retention deletes by age.
+                @Index(name = "idx_build_log_chunks_ended_at", columnList = "endedAt")
+        })
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class BuildLogChunk {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(nullable = false)
+    private String deploymentId;
+
+    // Position of the chunk in the deployment's log, from 0.
+    @Column(nullable = false)
+    private int seq;
+
+    // Number of the chunk's first line in the deployment's log, from 0.
+    @Column(nullable = false)
+    private long firstLine;
+
+    @Column(nullable = false)
+    private int lineCount;
+
+    @Column(nullable = false)
+    private LocalDateTime startedAt;
+
+    @Column(nullable = false)
+    private LocalDateTime endedAt;
+
+    @Column(nullable = false)
+    private byte[] data;
+
+    // The table also has search_vector (words of the lines, GIN-indexed), written by the build worker.
+    // Not mapped here, so reading chunks does not fetch it; searches go through BuildLogChunkRepository.search.
+}
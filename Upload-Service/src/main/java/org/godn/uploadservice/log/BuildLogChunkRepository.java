@@ -0,0 +1,31 @@
+package org.godn.uploadservice.log;
+
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.util.List;
+import java.util.Optional;
+
+public interface BuildLogChunkRepository extends JpaRepository<BuildLogChunk, Long> {
+    boolean existsByDeploymentId(String deploymentId);
+
+    // The chunk holding the given line (the last one starting at or before it).
+    Optional<BuildLogChunk> findFirstByDeploymentIdAndFirstLineLessThanEqualOrderByFirstLineDesc(String deploymentId, long line);
+
+    List<BuildLogChunk> findByDeploymentIdAndFirstLineGreaterThanEqualOrderByFirstLineAsc(String deploymentId, long firstLine, Limit limit);
+
+    /**
+     * Chunks of the owner's deployments whose words match the query (web search syntax: words, "phrases", -word),
+     * newest first, with ids below the cursor. Served by the GIN index on search_vector.
+     */
+    @Query(value = "SELECT c.id, c.deployment_id, c.seq, c.first_line, c.line_count, c.started_at, c.ended_at, c.data "
+            + "FROM build_log_chunks c JOIN deployments d ON d.id = c.deployment_id "
+            + "WHERE d.owner_id = :ownerId AND c.id < :before "
+            + "AND c.search_vector @@ websearch_to_tsquery('simple', :query) "
+            + "ORDER BY c.id DESC LIMIT :limit", nativeQuery = true)
+    List<BuildLogChunk> search(@Param("ownerId") String ownerId, @Param("query") String query,
+                               @Param("before") long before, @Param("limit") int limit);
+
+}
@@ -0,0 +1,13 @@
+package org.godn.uploadservice.log;
+
+import java.util.List;
+
+/**
+ * One page of a deployment's log.
+ *
+ * @param nextCursor id of the last line returned (the cursor given if there was none); pass it as ?after=
+ *                   to get the following lines, or to poll for new ones while the build runs
+ * @param hasMore    true if more lines were already stored after this page
+ */
+public record BuildLogPageDto(List<BuildLog> logs, long nextCursor, boolean hasMore) {
+}
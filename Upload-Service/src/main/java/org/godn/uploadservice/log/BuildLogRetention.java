@@ -0,0 +1,161 @@
+package org.godn.uploadservice.log;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Map;
+
+/**
+ * Keeps build_logs and build_log_chunks from growing without bound. Every interval-ms it deletes:
+ * - logs older than max-age-days (0 keeps them forever), except the newest chunk of each deployment
+ * - the oldest chunks of deployments whose log is longer than max-lines-per-deployment (0: no limit);
+ *   a deployment keeps its log across rebuilds, so this is what bounds a busy project
+ * - logs of deployments that no longer exist
+ *
+ * Every DELETE removes at most batch-size rows, by primary key, in its own short transaction, so a purge
+ * never locks much at once and a failure only loses the batch in progress. The chunk limits find the affected
+ * deployments once per purge and then delete within one deployment at a time, through its index.
+ */
+@Component
+public class BuildLogRetention {
+    private static final Logger logger = LoggerFactory.getLogger(BuildLogRetention.class);
+
+    static final String DELETE_LINES_OF_DEPLOYMENT = "DELETE FROM build_logs WHERE id IN "
+            + "(SELECT id FROM build_logs WHERE deployment_id = ? LIMIT ?)";
+    static final String DELETE_CHUNKS_OF_DEPLOYMENT = "DELETE FROM build_log_chunks WHERE id IN "
+            + "(SELECT id FROM build_log_chunks WHERE deployment_id = ? LIMIT ?)";
+    static final String DELETE_OLD_LINES = "DELETE FROM build_logs WHERE id IN "
+            + "(SELECT id FROM build_logs WHERE timestamp < ? LIMIT ?)";
+    // Deployments with an old chunk that is not their newest: the build worker numbers the lines and chunks
+    // of a rebuild after the newest chunk, so numbering would restart at 0 without it. One pass over the table
+    // per purge; the deletes then go through the (deployment_id, seq) index of one deployment at a time.
+    static final String SELECT_DEPLOYMENTS_WITH_OLD_CHUNKS = "SELECT deployment_id, MAX(seq) AS newest "
+            + "FROM build_log_chunks GROUP BY deployment_id HAVING COUNT(*) > 1 AND MIN(ended_at) < ?";
+    static final String DELETE_OLD_CHUNKS = "DELETE FROM build_log_chunks WHERE id IN "
+            + "(SELECT id FROM build_log_chunks WHERE deployment_id = ? AND seq < ? AND ended_at < ? LIMIT ?)";
+    // Deployments whose oldest chunk ends before their last max-lines lines, with the line it must end by.
+    // The newest chunk always stays, so the build worker keeps numbering lines after it.
+    static final String SELECT_DEPLOYMENTS_OVER_LIMIT = "SELECT deployment_id, MAX(first_line + line_count) - ? AS keep_from "
+            + "FROM build_log_chunks GROUP BY deployment_id "
+            + "HAVING MIN(first_line + line_count) <= MAX(first_line + line_count) - ?";
+    // first_line bounds the scan of the (deployment_id, first_line) index; the chunk must also end by then.
+    static final String DELETE_CHUNKS_OVER_LIMIT = "DELETE FROM build_log_chunks WHERE id IN "
+            + "(SELECT id FROM build_log_chunks WHERE deployment_id = ? AND first_line <= ? "
+            + "AND first_line + line_count <= ? LIMIT ?)";
+    static final String DELETE_ORPHAN_LINES = "DELETE FROM build_logs WHERE id IN "
+            + "(SELECT l.id FROM build_logs l WHERE NOT EXISTS "
+            + "(SELECT 1 FROM deployments d WHERE d.id = l.deployment_id) LIMIT ?)";
+    static final String DELETE_ORPHAN_CHUNKS = "DELETE FROM build_log_chunks WHERE id IN "
+            + "(SELECT c.id FROM build_log_chunks c WHERE NOT EXISTS "
+            + "(SELECT 1 FROM deployments d WHERE d.id = c.deployment_id) LIMIT ?)";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate batchTransaction;
+    private final boolean enabled;
+    private final Duration maxAge;
+    private final long maxLinesPerDeployment;
+    private final int batchSize;
+
+    public BuildLogRetention(
+            JdbcTemplate jdbcTemplate,
+            PlatformTransactionManager transactionManager,
+            @Value("${build.logs.retention.enabled:true}") boolean enabled,
+            @Value("${build.logs.retention.max-age-days:30}") long maxAgeDays,
+            @Value("${build.logs.retention.max-lines-per-deployment:100000}") long maxLinesPerDeployment,
+            @Value("${build.logs.retention.batch-size:5000}") int batchSize
+    ) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.batchTransaction = new TransactionTemplate(transactionManager);
+        // Each batch commits on its own, even when called from a service method's transaction.
+        this.batchTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.enabled = enabled;
+        this.maxAge = Duration.ofDays(maxAgeDays);
+        this.maxLinesPerDeployment = maxLinesPerDeployment;
+        this.batchSize = batchSize;
+    }
+
+    @Scheduled(initialDelayString = "${build.logs.retention.initial-delay-ms:60000}",
+            fixedDelayString = "${build.logs.retention.interval-ms:3600000}")
+    public void purge() {
+        if (!enabled) return;
+        long deleted = 0;
+        try {
+            if (!maxAge.isZero()) {
+                Timestamp cutoff = Timestamp.valueOf(LocalDateTime.now().minus(maxAge));
+                for (Map<String, Object> row : jdbcTemplate.queryForList(SELECT_DEPLOYMENTS_WITH_OLD_CHUNKS, cutoff)) {
+                    deleted += deleteInBatches(DELETE_OLD_CHUNKS, row.get("deployment_id"),
+                            ((Number) row.get("newest")).intValue(), cutoff);
+                }
+                deleted += deleteInBatches(DELETE_OLD_LINES, cutoff);
+            }
+            if (maxLinesPerDeployment > 0) {
+                for (Map<String, Object> row : jdbcTemplate.queryForList(
+                        SELECT_DEPLOYMENTS_OVER_LIMIT, maxLinesPerDeployment, maxLinesPerDeployment)) {
+                    long keepFrom = ((Number) row.get("keep_from")).longValue();
+                    deleted += deleteInBatches(DELETE_CHUNKS_OVER_LIMIT, row.get("deployment_id"), keepFrom, keepFrom);
+                }
+            }
+            deleted += deleteInBatches(DELETE_ORPHAN_CHUNKS);
+            deleted += deleteInBatches(DELETE_ORPHAN_LINES);
+        } catch (Exception e) {
+            logger.error("Build log retention stopped after deleting {} row(s): {}", deleted, e.getMessage());
+            return;
+        }
+        if (deleted > 0) logger.info("🧹 Build log retention deleted {} row(s)", deleted);
+    }
+
+    /**
+     * Deletes the whole log of a deployment. Inside a transaction it waits for the commit, so the log
+     * is only gone once the deployment is; the scheduled purge picks up whatever this misses.
+     */
+    public void purgeDeployment(String deploymentId) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            deleteDeployment(deploymentId);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                deleteDeployment(deploymentId);
+            }
+        });
+    }
+
+    private void deleteDeployment(String deploymentId) {
+        try {
+            deleteInBatches(DELETE_CHUNKS_OF_DEPLOYMENT, deploymentId);
+            deleteInBatches(DELETE_LINES_OF_DEPLOYMENT, deploymentId);
+        } catch (Exception e) {
+            logger.warn("Could not delete build logs of {}: {}", deploymentId, e.getMessage());
+        }
+    }
+
+    /**
+     * Runs the statement (whose last parameter is the batch size) until it deletes less than a batch.
+     */
+    long deleteInBatches(String sql, Object... args) {
+        Object[] params = new Object[args.length + 1];
+        System.arraycopy(args, 0, params, 0, args.length);
+        params[args.length] = batchSize;
+
+        long total = 0;
+        while (true) {
+            Integer deleted = batchTransaction.execute(status -> jdbcTemplate.update(sql, params));
+            int count = deleted == null ? 0 : deleted;
+            total += count;
+            if (count < batchSize) return total;
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package org.godn.uploadservice.log;
+
+import org.godn.uploadservice.exception.BadRequestException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Searches the build logs of all deployments of a user. The GIN index on the chunks' search vectors finds the
+ * chunks that match the query; only those are decoded, to pick out the lines that match it on their own.
+ * Pages are by chunk (keyset on the chunk id), so a page may hold fewer matches than chunks.
+ */
+@Service
+public class BuildLogSearchService {
+    public static final int DEFAULT_PAGE_SIZE = 20;
+    private static final int MAX_PAGE_SIZE = 100;
+    private static final int MAX_QUERY_LENGTH = 200;
+    // Lines shown per chunk; one chunk of a failing build can repeat the same error many times.
+    private static final int MAX_MATCHES_PER_CHUNK = 5;
+    private static final int SNIPPET_LENGTH = 240;
+
+    private final BuildLogChunkRepository buildLogChunkRepository;
+
+    public BuildLogSearchService(BuildLogChunkRepository buildLogChunkRepository) {
+        this.buildLogChunkRepository = buildLogChunkRepository;
+    }
+
+    /**
+     * @param before cursor from the previous page (null for the first)
+     * @param limit  chunks to look at
+     */
+    @Transactional(readOnly = true)
+    public LogSearchResultDto search(String ownerId, String query, Long before, int limit) {
+        if (query == null || query.isBlank()) throw new BadRequestException("Search query is required");
+        if (query.length() > MAX_QUERY_LENGTH) throw new BadRequestException("Search query is too long");
+        List<List<Term>> groups = parse(query);
+        if (groups.stream().flatMap(List::stream).allMatch(Term::excluded)) {
+            throw new BadRequestException("Search query has no words to look for");
+        }
+
+        int pageSize = Math.max(1, Math.min(limit, MAX_PAGE_SIZE));
+        List<BuildLogChunk> chunks = buildLogChunkRepository.search(ownerId, query.trim(),
+                before == null ? Long.MAX_VALUE : before, pageSize);
+
+        List<LogSearchResultDto.Match> matches = new ArrayList<>();
+        for (BuildLogChunk chunk : chunks) {
+            List<LogChunkFormat.Line> lines = LogChunkFormat.decode(chunk.getStartedAt(), chunk.getData());
+            int found = 0;
+            for (int i = 0; i < lines.size() && found < MAX_MATCHES_PER_CHUNK; i++) {
+                String content = lines.get(i).content();
+                int at = indexOfMatch(content.toLowerCase(Locale.ROOT), groups);
+                if (at < 0) continue;
+                matches.add(new LogSearchResultDto.Match(chunk.getDeploymentId(), chunk.getFirstLine() + i,
+                        lines.get(i).timestamp(), snippet(content, at)));
+                found++;
+            }
+        }
+        Long nextCursor = chunks.size() == pageSize ? chunks.get(chunks.size() - 1).getId() : null;
+        return new LogSearchResultDto(matches, nextCursor);
+    }
+
+    /**
+     * A "quoted phrase", or a word the search parser splits into several ("ERR_OSSL" is err followed by ossl):
+     * the words must follow each other in the line. An excluded term (-word) must not be in it.
+     */
+    record Term(List<String> words, boolean excluded) {
+    }
+
+    /**
+     * The query as websearch_to_tsquery reads it: groups separated by "or", of which a line must match one.
+     * A line matches a group if it has every term of it and none of the excluded ones.
+     */
+    static List<List<Term>> parse(String query) {
+        List<List<Term>> groups = new ArrayList<>();
+        List<Term> group = new ArrayList<>();
+        int i = 0;
+        while (i < query.length()) {
+            if (Character.isWhitespace(query.charAt(i))) {
+                i++;
+                continue;
+            }
+            boolean excluded = query.charAt(i) == '-';
+            if (excluded) i++;
+            int end;
+            String text;
+            if (i < query.length() && query.charAt(i) == '"') {
+                int close = query.indexOf('"', i + 1);
+                end = close < 0 ? query.length() : close + 1;
+                text = query.substring(i + 1, close < 0 ? end : close);
+            } else {
+                end = i;
+                while (end < query.length() && !Character.isWhitespace(query.charAt(end)) && query.charAt(end) != '"') end++;
+                text = query.substring(i, end);
+            }
+            i = end;
+            if (!excluded && text.equalsIgnoreCase("or")) {
+                if (!group.isEmpty()) groups.add(group);
+                group = new ArrayList<>();
+                continue;
+            }
+            List<String> words = tokens(text.toLowerCase(Locale.ROOT));
+            if (!words.isEmpty()) group.add(new Term(words, excluded));
+        }
+        if (!group.isEmpty()) groups.add(group);
+        return groups;
+    }
+
+    private static List<String> tokens(String text) {
+        List<String> tokens = new ArrayList<>();
+        for (String token : text.split("[^\\p{L}\\p{N}]+")) {
+            if (!token.isEmpty()) tokens.add(token);
+        }
+        return tokens;
+    }
+
+    /**
+     * Where the first word of the matching group is in the line, or -1 if the line matches no group.
+     */
+    private static int indexOfMatch(String line, List<List<Term>> groups) {
+        List<String> tokens = tokens(line);
+        for (List<Term> group : groups) {
+            boolean matches = group.stream()
+                    .allMatch(term -> (Collections.indexOfSubList(tokens, term.words()) >= 0) != term.excluded());
+            if (!matches) continue;
+            return group.stream().filter(term -> !term.excluded()).findFirst()
+                    .map(term -> Math.max(0, line.indexOf(term.words().get(0))))
+                    .orElse(0);
+        }
+        return -1;
+    }
+
+    private static String snippet(String content, int at) {
+        if (content.length() <= SNIPPET_LENGTH) return content;
+        int start = Math.max(0, Math.min(at - SNIPPET_LENGTH / 3, content.length() - SNIPPET_LENGTH));
+        int end = start + SNIPPET_LENGTH;
+        return (start > 0 ? "…" : "") + content.substring(start, end) + (end < content.length() ? "…" : "");
+    }
+}
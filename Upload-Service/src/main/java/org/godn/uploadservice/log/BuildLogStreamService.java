@@ -0,0 +1,298 @@
+package org.godn.uploadservice.log;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongFunction;
+
+/**
+ * Live build logs over Server-Sent Events. The build worker publishes every line on QUEUE_KEY:logs:{id}
+ * as it reads it, and {"end": true} once the log is complete; this service fans them out to the
+ * connected clients. A new client first gets what was stored (or is still in the worker's recent-lines
+ * list) after the line it last saw, then the live lines, each exactly once and in order. The stored lines
+ * are read and sent one page at a time on the log stream executor, so a long log is never held in memory
+ * whole and the request thread does not wait for it.
+ * Event ids are line numbers, so a reconnecting EventSource resumes through Last-Event-ID.
+ *
+ * Messages must arrive in the order they were published (see RedisPubSubConfig). Every client has a queue of
+ * its own, sent from the log stream executor, so a slow client never holds up the listener or other clients;
+ * a client that falls more than MAX_QUEUED_LINES behind is disconnected and resumes from the stored log.
+ */
+@Service
+public class BuildLogStreamService {
+    private static final Logger logger = LoggerFactory.getLogger(BuildLogStreamService.class);
+
+    private static final Duration STREAM_TIMEOUT = Duration.ofMinutes(30);
+    static final int MAX_QUEUED_LINES = 5000;
+
+    private final StringRedisTemplate redisTemplate;
+    private final Executor sender;
+    // Time a client of an already finished deployment waits for the end message, in case the last lines are in flight.
+    private final Duration finishedGrace;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final String channelPrefix;
+    private final Map<String, Set<Subscriber>> subscribers = new ConcurrentHashMap<>();
+
+    public BuildLogStreamService(
+            StringRedisTemplate redisTemplate,
+            @Value("${queue.redis.key}") String queueKey,
+            @Qualifier("logStreamExecutor") Executor sender,
+            @Value("${build.logs.stream.finished-grace-ms:3000}") long finishedGraceMs
+    ) {
+        this.redisTemplate = redisTemplate;
+        this.sender = sender;
+        this.finishedGrace = Duration.ofMillis(finishedGraceMs);
+        this.channelPrefix = queueKey + ":logs:";
+    }
+
+    public String channelPattern() {
+        return channelPrefix + "*";
+    }
+
+    /**
+     * Opens a stream of the lines after the given line number (all lines if null).
+     *
+     * @param storedPages reads the page of stored lines after a cursor, as the log page endpoint does
+     * @param finished    true if the deployment already has its final status
+     */
+    public SseEmitter subscribe(String deploymentId, Long after, LongFunction<BuildLogPageDto> storedPages, boolean finished) {
+        SseEmitter emitter = newEmitter(STREAM_TIMEOUT);
+        Subscriber subscriber = new Subscriber(deploymentId, emitter, after == null ? -1 : after);
+        // Registered before reading the backlog, so no line published meanwhile is missed.
+        subscribers.computeIfAbsent(deploymentId, id -> ConcurrentHashMap.newKeySet()).add(subscriber);
+        emitter.onCompletion(() -> remove(subscriber));
+        emitter.onTimeout(() -> remove(subscriber));
+        emitter.onError(e -> remove(subscriber));
+
+        sender.execute(() -> subscriber.replay(storedPages));
+
+        if (finished) {
+            CompletableFuture.delayedExecutor(finishedGrace.toMillis(), TimeUnit.MILLISECONDS).execute(subscriber::end);
+        }
+        return emitter;
+    }
+
+    SseEmitter newEmitter(Duration timeout) {
+        return new SseEmitter(timeout.toMillis());
+    }
+
+    /**
+     * Called for every message on QUEUE_KEY:logs:*. Only queues the lines; nothing here waits for a client.
+     */
+    public void onMessage(String channel, String body) {
+        if (!channel.startsWith(channelPrefix)) return;
+        Set<Subscriber> listeners = subscribers.get(channel.substring(channelPrefix.length()));
+        if (listeners == null || listeners.isEmpty()) return;
+
+        try {
+            JsonNode message = objectMapper.readTree(body);
+            if (message.path("end").asBoolean(false)) {
+                listeners.forEach(Subscriber::end);
+                return;
+            }
+            String deploymentId = channel.substring(channelPrefix.length());
+            List<BuildLog> lines = new ArrayList<>();
+            for (JsonNode line : message.path("lines")) lines.add(toBuildLog(deploymentId, line));
+            listeners.forEach(listener -> listener.send(lines));
+        } catch (IOException e) {
+            logger.warn("Ignoring malformed log message on {}: {}", channel, e.getMessage());
+        }
+    }
+
+    private List<BuildLog> recentLines(String deploymentId) {
+        List<BuildLog> lines = new ArrayList<>();
+        try {
+            List<String> recent = redisTemplate.opsForList().range(channelPrefix + deploymentId + ":recent", 0, -1);
+            if (recent == null) return lines;
+            for (String line : recent) lines.add(toBuildLog(deploymentId, objectMapper.readTree(line)));
+        } catch (Exception e) {
+            logger.warn("Could not read recent log lines of {}: {}", deploymentId, e.getMessage());
+        }
+        return lines;
+    }
+
+    private static BuildLog toBuildLog(String deploymentId, JsonNode line) {
+        return BuildLog.builder()
+                .id(line.path("id").asLong())
+                .deploymentId(deploymentId)
+                .content(line.path("content").asText())
+                .timestamp(LocalDateTime.parse(line.path("timestamp").asText()))
+                .build();
+    }
+
+    private void remove(Subscriber subscriber) {
+        subscribers.computeIfPresent(subscriber.deploymentId, (id, set) -> {
+            set.remove(subscriber);
+            return set.isEmpty() ? null : set;
+        });
+    }
+
+    private final class Subscriber {
+        // Queued after the last line: send the end event and complete the stream.
+        private static final Object END = new Object();
+
+        private final String deploymentId;
+        private final SseEmitter emitter;
+        // Guarded by this. Live lines that arrive while the backlog is being sent wait in pending.
+        private final List<BuildLog> pending = new ArrayList<>();
+        private final Deque<Object> outbox = new ArrayDeque<>();
+        private long lastQueued;
+        private boolean live;
+        private boolean endRequested;
+        private boolean ended;
+        private boolean draining;
+
+        private Subscriber(String deploymentId, SseEmitter emitter, long lastSeen) {
+            this.deploymentId = deploymentId;
+            this.emitter = emitter;
+            this.lastQueued = lastSeen;
+        }
+
+        /**
+         * Sends the stored lines page by page, each page before the next is read, then the recent lines,
+         * and goes live. Nothing else drains the outbox before that, so this runs drain() itself.
+         */
+        void replay(LongFunction<BuildLogPageDto> storedPages) {
+            long cursor;
+            synchronized (this) {
+                cursor = lastQueued;
+            }
+            try {
+                while (true) {
+                    BuildLogPageDto page = storedPages.apply(cursor);
+                    synchronized (this) {
+                        if (ended) return;
+                        enqueue(page.logs());
+                    }
+                    drain();
+                    if (!page.hasMore()) break;
+                    cursor = page.nextCursor();
+                }
+            } catch (RuntimeException e) {
+                logger.warn("Could not replay the stored log of {}: {}", deploymentId, e.getMessage());
+                synchronized (this) {
+                    ended = true;
+                    pending.clear();
+                }
+                emitter.completeWithError(e);
+                return;
+            }
+            List<BuildLog> recent = recentLines(deploymentId);
+            synchronized (this) {
+                enqueue(recent);
+                live = true;
+                enqueue(pending);
+                pending.clear();
+                if (endRequested) end();
+            }
+        }
+
+        synchronized void send(List<BuildLog> lines) {
+            if (ended) return;
+            int queued = live ? outbox.size() : pending.size();
+            if (queued + lines.size() > MAX_QUEUED_LINES) {
+                // Too slow to keep up (or the build outpaces the replay): it reconnects with Last-Event-ID
+                // and reads the rest from the stored log.
+                logger.warn("Log stream client of {} fell {} lines behind. Disconnecting it.", deploymentId, queued);
+                ended = true;
+                outbox.clear();
+                pending.clear();
+                sender.execute(() -> emitter.completeWithError(new IOException("Log stream client fell behind")));
+                return;
+            }
+            if (!live) {
+                pending.addAll(lines);
+                return;
+            }
+            enqueue(lines);
+        }
+
+        synchronized void end() {
+            if (ended) return;
+            if (!live) {
+                // Ends after the backlog and the lines that were published before the end.
+                endRequested = true;
+                return;
+            }
+            ended = true;
+            outbox.add(END);
+            startDraining();
+        }
+
+        // Caller holds the lock.
+        private void enqueue(List<BuildLog> lines) {
+            if (ended) return;
+            for (BuildLog line : lines) {
+                if (line.getId() <= lastQueued) continue;
+                outbox.add(line);
+                lastQueued = line.getId();
+            }
+            if (live) startDraining();
+        }
+
+        // Caller holds the lock.
+        private void startDraining() {
+            if (draining || outbox.isEmpty()) return;
+            draining = true;
+            sender.execute(this::drain);
+        }
+
+        /**
+         * Sends the queued events on the sender, one drain per client at a time.
+         */
+        private void drain() {
+            while (true) {
+                Object next;
+                synchronized (this) {
+                    next = outbox.poll();
+                    if (next == null) {
+                        draining = false;
+                        return;
+                    }
+                }
+                try {
+                    if (next == END) {
+                        emitter.send(SseEmitter.event().name("end").data("end"));
+                        emitter.complete();
+                        return;
+                    }
+                    BuildLog line = (BuildLog) next;
+                    emitter.send(SseEmitter.event()
+                            .id(Long.toString(line.getId()))
+                            .name("log")
+                            .data(line, MediaType.APPLICATION_JSON));
+                } catch (IOException | IllegalStateException e) {
+                    // The client went away.
+                    synchronized (this) {
+                        ended = true;
+                        outbox.clear();
+                        draining = false;
+                    }
+                    emitter.completeWithError(e);
+                    return;
+                }
+            }
+        }
+    }
+}
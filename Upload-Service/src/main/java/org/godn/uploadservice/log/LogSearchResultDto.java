@@ -0,0 +1,18 @@
+package org.godn.uploadservice.log;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * One page of a build log search, newest first.
+ *
+ * @param nextCursor pass as ?before= for the next page; null on the last page
+ */
+public record LogSearchResultDto(List<Match> matches, Long nextCursor) {
+
+    /**
+     * A matching line. line is its number in the deployment's log, so ?after=line-1 on the logs opens it.
+     */
+    public record Match(String deploymentId, long line, LocalDateTime timestamp, String snippet) {
+    }
+}
@@ -1,24 +1,141 @@
 package org.godn.uploadservice.queue;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
 import org.springframework.stereotype.Service;
 
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
+
+/**
+ * Producer side of the build queue. List and fair entries are JSON ({"deploymentId": ..., "enqueuedAt": epoch millis})
+ * so workers can measure how long a job waited. The mode (queue.redis.mode) must match the Deploy-Service:
+ * - list (default): jobs are RPUSHed onto the tail of QUEUE_KEY; workers BLMOVE them from the head
+ *   into a per-worker processing list and only remove them once the build is finished.
+ * - stream: jobs are XADDed to QUEUE_KEY:stream (the record ID carries the enqueue time) and consumed by the QUEUE_KEY:workers consumer group.
+ *   Each record holds the deployment ID and the request (the JSON entry).
+ * - fair: jobs are RPUSHed onto the owner's sub-queue QUEUE_KEY:fair:owner:{ownerId}, the owner joins the
+ *   round-robin ring QUEUE_KEY:fair:owners and a token is pushed onto QUEUE_KEY:fair:ready for idle workers.
+ *   Workers then serve owners in turn instead of strictly by arrival order.
+ * Either way nothing here should pop from the queue.
+ *
+ * Pushes are coalesced per deployment: the hash QUEUE_KEY:pending holds the request that queued every
+ * deployment that is waiting. Pushing a deployment that is already waiting writes nothing (the job keeps its
+ * place in line); workers remove the field in the same script that takes the job. A request older than
+ * queue.redis.coalesce-window-minutes no longer counts, in case its entry was lost: the next push queues the
+ * job again. The window runs from that first request, so pushing again and again does not extend it.
+ */
 @Service
 public class RedisQueueService {
+    private static final Logger logger = LoggerFactory.getLogger(RedisQueueService.class);
+
+    static final String STREAM_FIELD = "deploymentId";
+    static final String ENQUEUED_AT_FIELD = "enqueuedAt";
+    static final String REQUEST_FIELD = "request";
+    static final String SHARED_OWNER = "_shared";
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    // Shared by all enqueue scripts (KEYS[1] = pending hash, ARGV[1..4] = id, entry, now and the window in millis):
+    // returns 0 if the deployment is still waiting, i.e. the hash holds a request made less than the window
+    // before now, and records the new request otherwise. Requests without an enqueue time (older producers)
+    // never count. Checking and recording in one script means concurrent pushes queue the job only once.
+    private static final String COALESCE = """
+            local current = redis.call('HGET', KEYS[1], ARGV[1])
+            if current then
+                local ok, request = pcall(cjson.decode, current)
+                local enqueuedAt = ok and type(request) == 'table' and tonumber(request.enqueuedAt)
+                if enqueuedAt and tonumber(ARGV[3]) - enqueuedAt < tonumber(ARGV[4]) then return 0 end
+            end
+            redis.call('HSET', KEYS[1], ARGV[1], ARGV[2])
+            """;
+
+    static final RedisScript<Long> LIST_ENQUEUE_SCRIPT = new DefaultRedisScript<>(COALESCE + """
+            redis.call('RPUSH', KEYS[2], ARGV[2])
+            return 1
+            """, Long.class);
+
+    // The record carries the request too, so the worker that takes it can tell whether the pending field is its own.
+    static final RedisScript<Long> STREAM_ENQUEUE_SCRIPT = new DefaultRedisScript<>(COALESCE + """
+            redis.call('XADD', KEYS[2], '*', ARGV[5], ARGV[1], ARGV[6], ARGV[2])
+            return 1
+            """, Long.class);
+
+    // Adds the job to its owner's sub-queue and puts the owner on the ring if it is not there yet.
+    static final RedisScript<Long> FAIR_ENQUEUE_SCRIPT = new DefaultRedisScript<>(COALESCE + """
+            redis.call('RPUSH', ARGV[5] .. ARGV[6], ARGV[2])
+            if not redis.call('LPOS', KEYS[2], ARGV[6]) then redis.call('RPUSH', KEYS[2], ARGV[6]) end
+            redis.call('RPUSH', KEYS[3], '1')
+            return 1
+            """, Long.class);
 
     private final String QUEUE_KEY;
+    private final String streamKey;
+    private final String pendingKey;
+    private final boolean streamMode;
+    private final boolean fairMode;
+    private final Duration coalesceWindow;
     private final StringRedisTemplate redisTemplate;
-    public RedisQueueService(StringRedisTemplate redisTemplate, @Value("${queue.redis.key}") String queueKey) {
+    public RedisQueueService(
+            StringRedisTemplate redisTemplate,
+            @Value("${queue.redis.key}") String queueKey,
+            @Value("${queue.redis.mode:list}") String mode,
+            @Value("${queue.redis.coalesce-window-minutes:60}") long coalesceWindowMinutes
+    ) {
         this.QUEUE_KEY = queueKey;
+        this.streamKey = queueKey + ":stream";
+        this.pendingKey = queueKey + ":pending";
+        this.streamMode = "stream".equalsIgnoreCase(mode);
+        this.fairMode = "fair".equalsIgnoreCase(mode);
+        this.coalesceWindow = Duration.ofMinutes(coalesceWindowMinutes);
         this.redisTemplate = redisTemplate;
     }
 
-    public void pushToQueue(String uploadId) {
-        redisTemplate.opsForList().rightPush(QUEUE_KEY, uploadId);
+    public void pushToQueue(String uploadId, String ownerId) {
+        long now = System.currentTimeMillis();
+        String entry = entryFor(uploadId, now);
+        String window = String.valueOf(coalesceWindow.toMillis());
+        Long queued;
+        if (streamMode) {
+            queued = redisTemplate.execute(STREAM_ENQUEUE_SCRIPT, List.of(pendingKey, streamKey),
+                    uploadId, entry, String.valueOf(now), window, STREAM_FIELD, REQUEST_FIELD);
+        } else if (fairMode) {
+            String owner = ownerId == null || ownerId.isBlank() ? SHARED_OWNER : ownerId;
+            queued = redisTemplate.execute(FAIR_ENQUEUE_SCRIPT,
+                    List.of(pendingKey, QUEUE_KEY + ":fair:owners", QUEUE_KEY + ":fair:ready"),
+                    uploadId, entry, String.valueOf(now), window, QUEUE_KEY + ":fair:owner:", owner);
+        } else {
+            queued = redisTemplate.execute(LIST_ENQUEUE_SCRIPT, List.of(pendingKey, QUEUE_KEY),
+                    uploadId, entry, String.valueOf(now), window);
+        }
+
+        if (queued != null && queued == 0) {
+            logger.info("Deployment {} is already waiting in the queue. Request coalesced.", uploadId);
+        }
+    }
+
+    /**
+     * Tells the Deploy-Service workers to stop the deployment if one of them is running it.
+     */
+    public void publishCancel(String deploymentId) {
+        redisTemplate.convertAndSend(QUEUE_KEY + ":cancel", deploymentId);
     }
 
-    public String popFromQueue() {
-        return redisTemplate.opsForList().leftPop(QUEUE_KEY);
+    private String entryFor(String uploadId, long enqueuedAt) {
+        Map<String, Object> entry = new LinkedHashMap<>();
+        entry.put(STREAM_FIELD, uploadId);
+        entry.put(ENQUEUED_AT_FIELD, enqueuedAt);
+        try {
+            return objectMapper.writeValueAsString(entry);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Could not encode queue entry for " + uploadId, e);
+        }
     }
 }
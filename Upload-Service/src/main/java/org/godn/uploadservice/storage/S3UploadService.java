@@ -20,10 +20,12 @@ public class S3UploadService {
     private static final Logger logger = LoggerFactory.getLogger(S3UploadService.class);
     private final S3Client s3Client;
     private final String bucketName;
+    private final TransferMetrics transferMetrics;
 
 
-    public S3UploadService(S3Properties props) {
+    public S3UploadService(S3Properties props, TransferMetrics transferMetrics) {
         this.bucketName = props.getBucketName();
+        this.transferMetrics = transferMetrics;
         AwsBasicCredentials awsCreds = AwsBasicCredentials.create(
                 props.getAccessKey(),
                 props.getSecretKey()
@@ -47,10 +49,12 @@ public class S3UploadService {
         int maxRetries = 3;
         for(int attempt = 1; attempt <= maxRetries; attempt++) {
             try {
+                long start = System.nanoTime();
                 PutObjectResponse outRes = s3Client.putObject(
                         putReq,
                         Paths.get(localFilePath)
                 );
+                transferMetrics.record(TransferMetrics.UPLOAD, Paths.get(localFilePath).toFile().length(), System.nanoTime() - start);
                 logger.info("File uploaded: {}", fileName);
                 return outRes;
             } catch (Exception ex) {
@@ -0,0 +1,163 @@
+package org.godn.uploadservice.storage;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the per-object R2 transfers of a job (a repo's source, a build's output) on the transfer executor:
+ * - at most window transfers of one job are submitted at a time; the next starts when one ends, so a repo with
+ *   20,000 files never has 20,000 tasks queued
+ * - at most max-concurrency transfers run at once across all jobs
+ * Publishes s3.transfer.active (transfers running) and s3.transfer.waiting (submitted, waiting for a slot).
+ * This class is duplicated in Upload-Service and Deploy-Service (storage package); keep the two in step.
+ * Its tests live in Deploy-Service; Upload-Service's TransferEngineTest checks that the copies match.
+ */
+@Component
+public class TransferEngine {
+
+    @FunctionalInterface
+    public interface Transfer<T> {
+        void run(T item) throws Exception;
+    }
+
+    private final ExecutorService executor;
+    private final int window;
+    private final Semaphore slots;
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicInteger waiting = new AtomicInteger();
+
+    public TransferEngine(
+            @Qualifier("transferExecutor") ExecutorService executor,
+            MeterRegistry registry,
+            @Value("${transfer.window:64}") int window,
+            @Value("${transfer.max-concurrency:32}") int maxConcurrency
+    ) {
+        this.executor = executor;
+        this.window = Math.max(1, window);
+        this.slots = new Semaphore(maxConcurrency);
+        Gauge.builder("s3.transfer.active", active, AtomicInteger::get)
+                .description("R2 object transfers running")
+                .register(registry);
+        Gauge.builder("s3.transfer.waiting", waiting, AtomicInteger::get)
+                .description("R2 object transfers submitted and waiting for a transfer slot")
+                .register(registry);
+    }
+
+    /**
+     * Transfers of a job in progress.
+     *
+     * @param result completes once every item is transferred; if one fails, no new transfer of the job starts and
+     *               it fails with that error once the running ones have ended. Cancelling it skips the items that
+     *               have not started yet, but lets the running transfers finish
+     * @param ended  completes once no transfer of the job runs any more and none will start, also after result
+     *               was cancelled. Whatever the transfers write to is safe to remove from then on
+     */
+    public record Transfers(CompletableFuture<Void> result, CompletableFuture<Void> ended) {
+    }
+
+    /**
+     * Transfers every item; see {@link Transfers#result()}.
+     */
+    public <T> CompletableFuture<Void> transferAll(Iterable<T> items, Transfer<T> transfer) {
+        return start(items, transfer).result();
+    }
+
+    /**
+     * Like {@link #transferAll}, but also tells when the transfers still running after a cancel have ended.
+     */
+    public <T> Transfers start(Iterable<T> items, Transfer<T> transfer) {
+        Job<T> job = new Job<>(items.iterator(), transfer);
+        for (int i = 0; i < window; i++) {
+            if (!startNext(job)) break;
+        }
+        return new Transfers(job.result, job.ended);
+    }
+
+    /**
+     * Submits the job's next item. Returns false once there is nothing more to start.
+     */
+    private <T> boolean startNext(Job<T> job) {
+        T item;
+        synchronized (job) {
+            if (job.failure != null || job.result.isDone() || !job.items.hasNext()) {
+                if (job.running == 0) job.settle();
+                return false;
+            }
+            item = job.items.next();
+            job.running++;
+        }
+        waiting.incrementAndGet();
+        try {
+            executor.execute(() -> run(job, item));
+            return true;
+        } catch (RejectedExecutionException e) {
+            waiting.decrementAndGet();
+            job.ended(e);
+            return false;
+        }
+    }
+
+    private <T> void run(Job<T> job, T item) {
+        Exception failure = null;
+        boolean acquired = false;
+        try {
+            slots.acquire();
+            acquired = true;
+            waiting.decrementAndGet();
+            active.incrementAndGet();
+            if (!job.result.isDone()) job.transfer.run(item);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failure = e;
+        } catch (Exception e) {
+            failure = e;
+        } finally {
+            if (acquired) {
+                active.decrementAndGet();
+                slots.release();
+            } else {
+                waiting.decrementAndGet();
+            }
+            job.ended(failure);
+            startNext(job);
+        }
+    }
+
+    private static final class Job<T> {
+        private final Iterator<T> items;
+        private final Transfer<T> transfer;
+        private final CompletableFuture<Void> result = new CompletableFuture<>();
+        private final CompletableFuture<Void> ended = new CompletableFuture<>();
+        // Guarded by the job: transfers submitted and not ended, and the first failure.
+        private int running;
+        private Throwable failure;
+
+        private Job(Iterator<T> items, Transfer<T> transfer) {
+            this.items = items;
+            this.transfer = transfer;
+        }
+
+        synchronized void ended(Throwable error) {
+            running--;
+            if (error != null && failure == null) failure = error;
+            if (running == 0 && (failure != null || result.isDone() || !items.hasNext())) settle();
+        }
+
+        // Only once nothing of the job runs any more. A cancelled result stays cancelled.
+        void settle() {
+            if (failure != null) result.completeExceptionally(failure);
+            else result.complete(null);
+            ended.complete(null);
+        }
+    }
+}
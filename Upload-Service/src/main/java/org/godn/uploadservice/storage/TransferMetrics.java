@@ -0,0 +1,39 @@
+package org.godn.uploadservice.storage;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of R2 transfers. Bytes per second is rate(s3_transfer_bytes_total),
+ * objects per second is rate(s3_transfer_duration_seconds_count).
+ */
+@Component
+public class TransferMetrics {
+
+    public static final String UPLOAD = "upload";
+    public static final String DOWNLOAD = "download";
+
+    private final MeterRegistry registry;
+
+    public TransferMetrics(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    public void record(String direction, long bytes, long durationNanos) {
+        Counter.builder("s3.transfer.bytes")
+                .baseUnit("bytes")
+                .tag("direction", direction)
+                .register(registry)
+                .increment(bytes);
+        Timer.builder("s3.transfer.duration")
+                .description("Time to transfer one object")
+                .tag("direction", direction)
+                .publishPercentileHistogram()
+                .register(registry)
+                .record(durationNanos, TimeUnit.NANOSECONDS);
+    }
+}
@@ -6,6 +6,7 @@ import org.eclipse.jgit.lib.ObjectId;
 import org.godn.uploadservice.deployment.*;
 import org.godn.uploadservice.queue.RedisQueueService;
 import org.godn.uploadservice.storage.S3UploadService;
+import org.godn.uploadservice.storage.TransferEngine;
 import org.godn.uploadservice.util.GenerateId;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -31,6 +32,7 @@ public class UploadService {
     private final S3UploadService s3UploadService;
     private final RedisQueueService redisQueueService;
     private final DeploymentService deploymentService;
+    private final TransferEngine transferEngine;
 
     // Self-inject to allow calling @Async methods from within the same class
     @Autowired
@@ -40,10 +42,12 @@ public class UploadService {
     @Value("${upload.output.dir:source-codes}") // Default bucket folder
     private String s3BaseFolder;
 
-    public UploadService(S3UploadService s3UploadService, RedisQueueService redisQueueService, DeploymentService deploymentService) {
+    public UploadService(S3UploadService s3UploadService, RedisQueueService redisQueueService, DeploymentService deploymentService,
+                         TransferEngine transferEngine) {
         this.s3UploadService = s3UploadService;
         this.redisQueueService = redisQueueService;
         this.deploymentService = deploymentService;
+        this.transferEngine = transferEngine;
     }
 
     /**
@@ -141,34 +145,24 @@ public class UploadService {
 
             Path finalTempDir = tempDir;
 
-            // 4. Queue up Parallel S3 Uploads
-            List<CompletableFuture<Void>> uploadFutures = filePaths.stream()
-                    .map(path -> {
-                        String relativePath = finalTempDir.relativize(path).toString().replace(File.separatorChar, '/');
-                        if (relativePath.startsWith(".git/") || relativePath.equals(".git")) return null;
-
-                        String s3Key = s3BaseFolder + "/" + projectId + "/" + relativePath;
-
-                        // CRITICAL: This lambda must BLOCK until the upload is actually finished.
-                        return CompletableFuture.runAsync(() -> {
-                            try {
-                                s3UploadService.uploadFileToR2(s3Key, path.toString());
-                            } catch (InterruptedException e) {
-                                throw new RuntimeException(e);
-                            }
-                        });
-                    })
-                    .filter(Objects::nonNull)
+            // 4. Upload in parallel on the transfer engine, a window of files at a time
+            List<Path> uploads = filePaths.stream()
+                    .filter(path -> !finalTempDir.relativize(path).startsWith(".git"))
                     .toList();
+            CompletableFuture<Void> uploaded = transferEngine.transferAll(uploads, path -> {
+                String relativePath = finalTempDir.relativize(path).toString().replace(File.separatorChar, '/');
+                String s3Key = s3BaseFolder + "/" + projectId + "/" + relativePath;
+                // CRITICAL: This must BLOCK until the upload is actually finished.
+                s3UploadService.uploadFileToR2(s3Key, path.toString());
+            });
 
             // 5. Wait for ALL uploads to settle (Success or Failure)
-            CompletableFuture.allOf(uploadFutures.toArray(new CompletableFuture[0]))
-                    .handle((res, ex) -> {
-                        if (ex != null) {
-                            throw new RuntimeException("Upload failed", ex);
-                        }
-                        return res;
-                    }).join(); // This will now actually wait for the files to upload
+            uploaded.handle((res, ex) -> {
+                if (ex != null) {
+                    throw new RuntimeException("Upload failed", ex);
+                }
+                return res;
+            }).join(); // This will now actually wait for the files to upload
 
             logger.info("All source files uploaded to S3 for ID: {}", projectId);
 
@@ -181,7 +175,7 @@ public class UploadService {
             }
 
             // 6. Push to Redis (Hand off to Deploy Service)
-            redisQueueService.pushToQueue(projectId);
+            redisQueueService.pushToQueue(projectId, userId);
             logger.info("Deployment ID {} pushed to Redis queue", projectId);
 
         } catch (Exception e) {
@@ -216,7 +210,7 @@ public class UploadService {
         if (Objects.equals(findCommitHashForBranch(branches, deployment.getBranch()), deployment.getLastCommitHash())) {
             deployment.setStatus(DeploymentStatus.QUEUED);
             deploymentService.saveDeployment(deployment);
-            redisQueueService.pushToQueue(projectId);
+            redisQueueService.pushToQueue(projectId, userId);
             logger.info("Rebuild Deployment ID {} pushed to Redis queue", projectId);
             return projectId;
         } else {
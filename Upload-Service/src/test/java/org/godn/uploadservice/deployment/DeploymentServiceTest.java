@@ -3,17 +3,30 @@ package org.godn.uploadservice.deployment;
 import org.godn.uploadservice.exception.BadRequestException;
 import org.godn.uploadservice.exception.ResourceNotFoundException;
 import org.godn.uploadservice.exception.UnauthorizedException;
+import org.godn.uploadservice.log.BuildLog;
+import org.godn.uploadservice.log.BuildLogChunk;
+import org.godn.uploadservice.log.BuildLogChunkRepository;
+import org.godn.uploadservice.log.BuildLogPageDto;
+import org.godn.uploadservice.log.BuildLogRepository;
+import org.godn.uploadservice.log.LogChunkFormat;
+import org.godn.uploadservice.queue.RedisQueueService;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.domain.Limit;
 
+import java.time.LocalDateTime;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.LongStream;
 
 import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
 
@@ -23,6 +36,15 @@ class DeploymentServiceTest {
     @Mock
     private DeploymentRepository deploymentRepository;
 
+    @Mock
+    private RedisQueueService redisQueueService;
+
+    @Mock
+    private BuildLogRepository buildLogRepository;
+
+    @Mock
+    private BuildLogChunkRepository buildLogChunkRepository;
+
     @InjectMocks
     private DeploymentService deploymentService;
 
@@ -137,4 +159,124 @@ class DeploymentServiceTest {
 
         assertThrows(BadRequestException.class, () -> deploymentService.cancelDeployment(userId, deployId));
     }
-}
\ No newline at end of file
+
+    // --- TEST: LOG PAGES ---
+
+    private static final LocalDateTime START = LocalDateTime.of(2026, 1, 5, 12, 0);
+
+    @Test
+    void getDeploymentLogs_ShouldStartInsideAChunk_WhenTheCursorIsInTheMiddleOfIt() {
+        storeChunks(0, 3, 6);
+
+        BuildLogPageDto page = deploymentService.getDeploymentLogs("dep-1", 1L, 3);
+
+        assertEquals(List.of(2L, 3L, 4L), ids(page));
+        assertEquals("line 2", page.logs().get(0).getContent());
+        assertEquals(4, page.nextCursor());
+        assertTrue(page.hasMore());
+    }
+
+    @Test
+    void getDeploymentLogs_ShouldStartAtTheNextChunk_WhenTheCursorIsTheLastLineOfAChunk() {
+        storeChunks(0, 3, 6);
+
+        BuildLogPageDto page = deploymentService.getDeploymentLogs("dep-1", 2L, 3);
+
+        assertEquals(List.of(3L, 4L, 5L), ids(page));
+        assertTrue(page.hasMore());
+    }
+
+    @Test
+    void getDeploymentLogs_ShouldReturnTheRestWithoutMore_WhenThePageReachesTheEnd() {
+        storeChunks(0, 3, 6);
+
+        BuildLogPageDto page = deploymentService.getDeploymentLogs("dep-1", null, 100);
+
+        assertEquals(List.of(0L, 1L, 2L, 3L, 4L, 5L, 6L, 7L, 8L), ids(page));
+        assertEquals(8, page.nextCursor());
+        assertFalse(page.hasMore());
+    }
+
+    @Test
+    void getDeploymentLogs_ShouldReturnNothing_WhenTheCursorIsPastTheEnd() {
+        storeChunks(0, 3, 6);
+
+        BuildLogPageDto page = deploymentService.getDeploymentLogs("dep-1", 20L, 100);
+
+        assertTrue(page.logs().isEmpty());
+        assertEquals(20, page.nextCursor());
+        assertFalse(page.hasMore());
+    }
+
+    @Test
+    void getDeploymentLogs_ShouldReturnAtLeastOneLine_WhenTheLimitIsTooSmall() {
+        storeChunks(0, 3, 6);
+
+        BuildLogPageDto page = deploymentService.getDeploymentLogs("dep-1", null, 0);
+
+        assertEquals(List.of(0L), ids(page));
+        assertTrue(page.hasMore());
+    }
+
+    @Test
+    void getDeploymentLogs_ShouldClampTheLimit_ToTheLargestPage() {
+        when(buildLogChunkRepository.existsByDeploymentId("dep-1")).thenReturn(false);
+        when(buildLogRepository.findByDeploymentIdAndIdGreaterThanOrderByIdAsc("dep-1", -1L, Limit.of(5001)))
+                .thenReturn(List.of());
+
+        BuildLogPageDto page = deploymentService.getDeploymentLogs("dep-1", null, 1_000_000);
+
+        assertTrue(page.logs().isEmpty());
+        assertEquals(-1, page.nextCursor());
+    }
+
+    @Test
+    void getDeploymentLogs_ShouldReadLineRows_ForDeploymentsBuiltBeforeChunks() {
+        when(buildLogChunkRepository.existsByDeploymentId("dep-1")).thenReturn(false);
+        when(buildLogRepository.findByDeploymentIdAndIdGreaterThanOrderByIdAsc("dep-1", 40L, Limit.of(3)))
+                .thenReturn(List.of(row(41), row(57), row(58)));
+
+        BuildLogPageDto page = deploymentService.getDeploymentLogs("dep-1", 40L, 2);
+
+        assertEquals(List.of(41L, 57L), ids(page));
+        assertEquals(57, page.nextCursor());
+        assertTrue(page.hasMore());
+        verify(buildLogChunkRepository, never()).findFirstByDeploymentIdAndFirstLineLessThanEqualOrderByFirstLineDesc(any(), anyLong());
+    }
+
+    /**
+     * Stores chunks of three lines ("line N") starting at the given line numbers, and answers the seek and
+     * range queries the way the database would.
+     */
+    private void storeChunks(long... firstLines) {
+        List<BuildLogChunk> chunks = Arrays.stream(firstLines)
+                .mapToObj(first -> BuildLogChunk.builder()
+                        .deploymentId("dep-1")
+                        .firstLine(first)
+                        .lineCount(3)
+                        .startedAt(START)
+                        .data(LogChunkFormat.encode(START, LongStream.range(first, first + 3)
+                                .mapToObj(line -> new LogChunkFormat.Line(START.plusSeconds(line), "line " + line))
+                                .toList()))
+                        .build())
+                .toList();
+        when(buildLogChunkRepository.existsByDeploymentId("dep-1")).thenReturn(true);
+        when(buildLogChunkRepository.findFirstByDeploymentIdAndFirstLineLessThanEqualOrderByFirstLineDesc(eq("dep-1"), anyLong()))
+                .thenAnswer(inv -> chunks.stream()
+                        .filter(chunk -> chunk.getFirstLine() <= inv.<Long>getArgument(1))
+                        .reduce((first, second) -> second));
+        when(buildLogChunkRepository.findByDeploymentIdAndFirstLineGreaterThanEqualOrderByFirstLineAsc(eq("dep-1"), anyLong(), any(Limit.class)))
+                .thenAnswer(inv -> chunks.stream()
+                        .filter(chunk -> chunk.getFirstLine() >= inv.<Long>getArgument(1))
+                        .limit(inv.<Limit>getArgument(2).max())
+                        .toList());
+    }
+
+    private static BuildLog row(long id) {
+        return BuildLog.builder().id(id).deploymentId("dep-1").content("row " + id).timestamp(START).build();
+    }
+
+    private static List<Long> ids(BuildLogPageDto page) {
+        return page.logs().stream().map(BuildLog::getId).toList();
+    }
+}
@@ -0,0 +1,168 @@
+package org.godn.uploadservice.log;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class BuildLogRetentionTest {
+
+    @Mock
+    private JdbcTemplate jdbcTemplate;
+
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    private BuildLogRetention retention;
+
+    @BeforeEach
+    void setUp() {
+        retention = new BuildLogRetention(jdbcTemplate, transactionManager, true, 30, 1000, 100);
+    }
+
+    @Test
+    void deleteInBatches_ShouldRepeatUntilABatchIsNotFull() {
+        when(jdbcTemplate.update(eq(BuildLogRetention.DELETE_CHUNKS_OF_DEPLOYMENT), eq("abc12"), eq(100)))
+                .thenReturn(100, 100, 42);
+
+        long deleted = retention.deleteInBatches(BuildLogRetention.DELETE_CHUNKS_OF_DEPLOYMENT, "abc12");
+
+        assertEquals(242, deleted);
+        // One short transaction per batch.
+        verify(transactionManager, times(3)).commit(any());
+    }
+
+    @Test
+    void purgeDeployment_WithoutTransaction_ShouldDeleteChunksAndLegacyLines() {
+        when(jdbcTemplate.update(anyString(), eq("abc12"), eq(100))).thenReturn(0);
+
+        retention.purgeDeployment("abc12");
+
+        verify(jdbcTemplate).update(BuildLogRetention.DELETE_CHUNKS_OF_DEPLOYMENT, "abc12", 100);
+        verify(jdbcTemplate).update(BuildLogRetention.DELETE_LINES_OF_DEPLOYMENT, "abc12", 100);
+    }
+
+    @Test
+    void purge_ShouldDeleteOldChunks_ButKeepTheNewestOfEachDeployment() {
+        LocalDateTime old = LocalDateTime.now().minusDays(40);
+        ChunkTable table = new ChunkTable(
+                new Chunk("abc12", 0, 0, 10, old), new Chunk("abc12", 1, 10, 10, old),
+                new Chunk("abc12", 2, 20, 10, old), new Chunk("abc12", 3, 30, 10, LocalDateTime.now()),
+                // Its only chunk: a rebuild numbers its lines after it.
+                new Chunk("def34", 0, 0, 10, old),
+                new Chunk("ghi56", 0, 0, 10, old), new Chunk("ghi56", 1, 10, 10, old));
+
+        // Batches of two, so abc12 takes two.
+        new BuildLogRetention(jdbcTemplate, transactionManager, true, 30, 0, 2).purge();
+
+        assertEquals(List.of("abc12/3", "def34/0", "ghi56/1"), table.remaining());
+    }
+
+    @Test
+    void purge_ShouldDeleteTheChunksBeforeTheLastMaxLinesOfEachDeployment() {
+        LocalDateTime now = LocalDateTime.now();
+        ChunkTable table = new ChunkTable(
+                new Chunk("abc12", 0, 0, 600, now), new Chunk("abc12", 1, 600, 600, now),
+                new Chunk("abc12", 2, 1200, 600, now),
+                // Longer than the limit, but the newest chunk always stays.
+                new Chunk("def34", 0, 0, 1500, now),
+                new Chunk("ghi56", 0, 0, 400, now), new Chunk("ghi56", 1, 400, 400, now));
+
+        retention.purge();
+
+        // abc12 has 1800 lines: the chunk ending at 600 is before its last 1000, the one ending at 1200 is not.
+        assertEquals(List.of("abc12/1", "abc12/2", "def34/0", "ghi56/0", "ghi56/1"), table.remaining());
+    }
+
+    @Test
+    void purge_WhenDisabled_ShouldDeleteNothing() {
+        new BuildLogRetention(jdbcTemplate, transactionManager, false, 30, 1000, 100).purge();
+
+        verifyNoInteractions(jdbcTemplate);
+    }
+
+    private record Chunk(String deploymentId, int seq, long firstLine, int lineCount, LocalDateTime endedAt) {
+        long end() {
+            return firstLine + lineCount;
+        }
+    }
+
+    /**
+     * build_log_chunks in memory: answers the retention statements the way PostgreSQL would, so the tests
+     * check which chunks survive rather than the SQL text.
+     */
+    private class ChunkTable {
+        private final List<Chunk> chunks;
+
+        ChunkTable(Chunk... chunks) {
+            this.chunks = new ArrayList<>(List.of(chunks));
+            lenient().when(jdbcTemplate.update(anyString(), any(Object[].class))).thenReturn(0);
+            lenient().when(jdbcTemplate.queryForList(eq(BuildLogRetention.SELECT_DEPLOYMENTS_WITH_OLD_CHUNKS), any(Object[].class)))
+                    .thenAnswer(call -> selectWithOldChunks(call.<Timestamp>getArgument(1).toLocalDateTime()));
+            lenient().when(jdbcTemplate.update(eq(BuildLogRetention.DELETE_OLD_CHUNKS), any(Object[].class)))
+                    .thenAnswer(call -> delete(call.<Integer>getArgument(4), chunk -> chunk.deploymentId().equals(call.getArgument(1))
+                            && chunk.seq() < call.<Integer>getArgument(2)
+                            && chunk.endedAt().isBefore(call.<Timestamp>getArgument(3).toLocalDateTime())));
+            lenient().when(jdbcTemplate.queryForList(eq(BuildLogRetention.SELECT_DEPLOYMENTS_OVER_LIMIT), any(Object[].class)))
+                    .thenAnswer(call -> selectOverLimit(call.<Long>getArgument(1)));
+            lenient().when(jdbcTemplate.update(eq(BuildLogRetention.DELETE_CHUNKS_OVER_LIMIT), any(Object[].class)))
+                    .thenAnswer(call -> delete(call.<Integer>getArgument(4), chunk -> chunk.deploymentId().equals(call.getArgument(1))
+                            && chunk.firstLine() <= call.<Long>getArgument(2)
+                            && chunk.end() <= call.<Long>getArgument(3)));
+        }
+
+        List<String> remaining() {
+            return chunks.stream().map(chunk -> chunk.deploymentId() + "/" + chunk.seq()).sorted().toList();
+        }
+
+        private List<Map<String, Object>> selectWithOldChunks(LocalDateTime cutoff) {
+            return byDeployment().entrySet().stream()
+                    .filter(e -> e.getValue().size() > 1
+                            && e.getValue().stream().anyMatch(chunk -> chunk.endedAt().isBefore(cutoff)))
+                    .map(e -> Map.<String, Object>of("deployment_id", e.getKey(),
+                            "newest", e.getValue().stream().mapToInt(Chunk::seq).max().orElseThrow()))
+                    .toList();
+        }
+
+        private List<Map<String, Object>> selectOverLimit(long maxLines) {
+            return byDeployment().entrySet().stream()
+                    .filter(e -> e.getValue().stream().mapToLong(Chunk::end).min().orElseThrow()
+                            <= e.getValue().stream().mapToLong(Chunk::end).max().orElseThrow() - maxLines)
+                    .map(e -> Map.<String, Object>of("deployment_id", e.getKey(),
+                            "keep_from", e.getValue().stream().mapToLong(Chunk::end).max().orElseThrow() - maxLines))
+                    .toList();
+        }
+
+        private Map<String, List<Chunk>> byDeployment() {
+            return chunks.stream().collect(Collectors.groupingBy(Chunk::deploymentId));
+        }
+
+        private int delete(int limit, Predicate<Chunk> where) {
+            List<Chunk> batch = chunks.stream().filter(where).limit(limit).toList();
+            chunks.removeAll(batch);
+            return batch.size();
+        }
+    }
+}
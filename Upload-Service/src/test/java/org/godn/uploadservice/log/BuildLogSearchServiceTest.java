@@ -0,0 +1,120 @@
+package org.godn.uploadservice.log;
+
+import org.godn.uploadservice.exception.BadRequestException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class BuildLogSearchServiceTest {
+
+    private static final LocalDateTime START = LocalDateTime.of(2025, 1, 1, 12, 0);
+
+    @Mock
+    private BuildLogChunkRepository buildLogChunkRepository;
+
+    private BuildLogSearchService searchService;
+
+    @BeforeEach
+    void setUp() {
+        searchService = new BuildLogSearchService(buildLogChunkRepository);
+    }
+
+    @Test
+    void search_ShouldReturnTheMatchingLinesWithTheirNumbers() {
+        BuildLogChunk chunk = chunk(7L, "abc12", 100,
+                "> next build",
+                "Error: error:0308010C:digital envelope routines::unsupported",
+                "  code: 'ERR_OSSL_EVP_UNSUPPORTED'");
+        when(buildLogChunkRepository.search("owner-1", "ERR_OSSL", Long.MAX_VALUE, 20)).thenReturn(List.of(chunk));
+
+        LogSearchResultDto result = searchService.search("owner-1", "ERR_OSSL", null, 20);
+
+        assertEquals(1, result.matches().size());
+        LogSearchResultDto.Match match = result.matches().get(0);
+        assertEquals("abc12", match.deploymentId());
+        assertEquals(102, match.line());
+        assertEquals("  code: 'ERR_OSSL_EVP_UNSUPPORTED'", match.snippet());
+        // Fewer chunks than asked for: that was the last page.
+        assertNull(result.nextCursor());
+    }
+
+    @Test
+    void search_ShouldContinueBelowTheLastChunk_WhenThePageIsFull() {
+        when(buildLogChunkRepository.search("owner-1", "heap out of memory", 50L, 1))
+                .thenReturn(List.of(chunk(42L, "abc12", 0, "FATAL ERROR: Reached heap limit Allocation failed - JavaScript heap out of memory")));
+
+        LogSearchResultDto result = searchService.search("owner-1", "heap out of memory", 50L, 1);
+
+        assertEquals(1, result.matches().size());
+        assertEquals(42L, result.nextCursor());
+    }
+
+    @Test
+    void search_ShouldRejectAQueryWithoutWords() {
+        assertThrows(BadRequestException.class, () -> searchService.search("owner-1", " -- ", null, 20));
+        verifyNoInteractions(buildLogChunkRepository);
+    }
+
+    @Test
+    void search_ShouldReturnLinesMatchingEitherSideOfAnOr() {
+        BuildLogChunk chunk = chunk(7L, "abc12", 0,
+                "npm ERR! code ENOENT",
+                "npm WARN deprecated inflight@1.0.6",
+                "Error: EACCES: permission denied, mkdir '/app/node_modules'");
+        when(buildLogChunkRepository.search("owner-1", "ENOENT or EACCES", Long.MAX_VALUE, 20)).thenReturn(List.of(chunk));
+
+        LogSearchResultDto result = searchService.search("owner-1", "ENOENT or EACCES", null, 20);
+
+        assertEquals(List.of(0L, 2L), result.matches().stream().map(LogSearchResultDto.Match::line).toList());
+    }
+
+    @Test
+    void search_ShouldMatchPhrasesInOrder_AndLeaveOutExcludedWords() {
+        BuildLogChunk chunk = chunk(7L, "abc12", 0,
+                "Module not found: Can't resolve 'fs'",
+                "not found: module 'react'",
+                "Module not found in cache, fetching");
+        when(buildLogChunkRepository.search("owner-1", "\"module not found\" -cache", Long.MAX_VALUE, 20)).thenReturn(List.of(chunk));
+
+        LogSearchResultDto result = searchService.search("owner-1", "\"module not found\" -cache", null, 20);
+
+        assertEquals(List.of(0L), result.matches().stream().map(LogSearchResultDto.Match::line).toList());
+    }
+
+    @Test
+    void parse_ShouldReadOrGroupsPhrasesAndExcludedTermsLikeWebsearchToTsquery() {
+        assertEquals(List.of(
+                        List.of(new BuildLogSearchService.Term(List.of("err", "ossl"), false)),
+                        List.of(new BuildLogSearchService.Term(List.of("heap", "limit"), false),
+                                new BuildLogSearchService.Term(List.of("warning"), true))),
+                BuildLogSearchService.parse("ERR_OSSL or \"heap limit\" -warning"));
+    }
+
+    private static BuildLogChunk chunk(Long id, String deploymentId, long firstLine, String... contents) {
+        List<LogChunkFormat.Line> lines = Arrays.stream(contents)
+                .map(content -> new LogChunkFormat.Line(START, content))
+                .toList();
+        return BuildLogChunk.builder()
+                .id(id)
+                .deploymentId(deploymentId)
+                .firstLine(firstLine)
+                .lineCount(lines.size())
+                .startedAt(START)
+                .endedAt(START)
+                .data(LogChunkFormat.encode(START, lines))
+                .build();
+    }
+}
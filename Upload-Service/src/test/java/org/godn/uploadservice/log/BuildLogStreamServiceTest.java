@@ -0,0 +1,257 @@
+package org.godn.uploadservice.log;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.ListOperations;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.http.MediaType;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongFunction;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class BuildLogStreamServiceTest {
+
+    private static final String ID = "abc12";
+    private static final String CHANNEL = "build-queue:logs:" + ID;
+    private static final LocalDateTime START = LocalDateTime.of(2026, 1, 5, 12, 0);
+
+    private final StringRedisTemplate redisTemplate = mock(StringRedisTemplate.class);
+    @SuppressWarnings("unchecked")
+    private final ListOperations<String, String> listOperations = mock(ListOperations.class);
+    private final BlockingQueue<RecordingEmitter> emitters = new LinkedBlockingQueue<>();
+    private ExecutorService sender;
+    private BuildLogStreamService streamService;
+
+    @BeforeEach
+    void setUp() {
+        sender = Executors.newCachedThreadPool();
+        when(redisTemplate.opsForList()).thenReturn(listOperations);
+        streamService = new BuildLogStreamService(redisTemplate, "build-queue", sender, 50) {
+            @Override
+            SseEmitter newEmitter(Duration timeout) {
+                RecordingEmitter emitter = emitters.poll();
+                return emitter != null ? emitter : new RecordingEmitter();
+            }
+        };
+    }
+
+    @AfterEach
+    void tearDown() {
+        sender.shutdownNow();
+    }
+
+    @Test
+    void subscribe_ShouldReplayStoredThenRecentLines_EachOnce() throws InterruptedException {
+        recentLines(2, 3);
+        RecordingEmitter emitter = (RecordingEmitter) streamService.subscribe(ID, null, stored(0, 1, 2), false);
+
+        assertEquals(List.of("0", "1", "2", "3"), emitter.take(4));
+    }
+
+    @Test
+    void subscribe_ShouldSkipLinesUpToTheCursor() throws InterruptedException {
+        recentLines(4, 5, 6);
+        RecordingEmitter emitter = (RecordingEmitter) streamService.subscribe(ID, 5L, stored(), false);
+
+        assertEquals(List.of("6"), emitter.take(1));
+    }
+
+    @Test
+    void subscribe_ShouldReadTheStoredLogPageByPage_SendingEachPageBeforeTheNext() throws InterruptedException {
+        recentLines();
+        List<Long> cursors = new CopyOnWriteArrayList<>();
+        RecordingEmitter emitter = new RecordingEmitter();
+        emitters.add(emitter);
+        streamService.subscribe(ID, null, cursor -> {
+            cursors.add(cursor);
+            // Every line of the page before must have been sent by now.
+            assertEquals(cursor + 1, emitter.events.size());
+            long first = cursor + 1;
+            return new BuildLogPageDto(lines(first, first + 1), first + 1, first + 1 < 5);
+        }, false);
+
+        assertEquals(List.of("0", "1", "2", "3", "4", "5"), emitter.take(6));
+        assertEquals(List.of(-1L, 1L, 3L), cursors);
+    }
+
+    @Test
+    void onMessage_ShouldHoldLinesPublishedDuringTheReplay_UntilTheBacklogIsQueued() throws InterruptedException {
+        // Lines 3 and 4 are published while the recent lines are read; line 3 is in both.
+        when(listOperations.range(anyString(), anyLong(), anyLong())).thenAnswer(inv -> {
+            streamService.onMessage(CHANNEL, message(3, 4));
+            return List.of(json(2), json(3));
+        });
+        RecordingEmitter emitter = (RecordingEmitter) streamService.subscribe(ID, null, stored(0, 1), false);
+
+        assertEquals(List.of("0", "1", "2", "3", "4"), emitter.take(5));
+        streamService.onMessage(CHANNEL, message(5));
+        assertEquals(List.of("5"), emitter.take(1));
+    }
+
+    @Test
+    void onMessage_ShouldEndTheStream_AfterTheLastLines() throws Exception {
+        recentLines();
+        RecordingEmitter emitter = (RecordingEmitter) streamService.subscribe(ID, null, stored(), false);
+
+        streamService.onMessage(CHANNEL, message(0, 1));
+        streamService.onMessage(CHANNEL, "{\"end\":true}");
+        streamService.onMessage(CHANNEL, message(2));
+
+        assertEquals(List.of("0", "1", "end"), emitter.take(3));
+        assertTrue(emitter.completed.get(5, TimeUnit.SECONDS));
+        assertNull(emitter.events.poll(100, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    void subscribe_ShouldEndAFinishedDeployment_AfterTheGracePeriod() throws Exception {
+        recentLines();
+        RecordingEmitter emitter = (RecordingEmitter) streamService.subscribe(ID, null, stored(0), true);
+
+        // Lines still in flight within the grace period are sent before the end.
+        streamService.onMessage(CHANNEL, message(1));
+
+        assertEquals(List.of("0", "1", "end"), emitter.take(3));
+        assertTrue(emitter.completed.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void onMessage_ShouldNotWaitForASlowClient_AndDropItOnceItFallsTooFarBehind() throws Exception {
+        recentLines();
+        RecordingEmitter slow = new RecordingEmitter();
+        CountDownLatch stuck = new CountDownLatch(1);
+        slow.gate = stuck;
+        emitters.add(slow);
+        streamService.subscribe(ID, null, stored(), false);
+        RecordingEmitter fast = (RecordingEmitter) streamService.subscribe(ID, null, stored(), false);
+
+        streamService.onMessage(CHANNEL, message(0));
+        assertEquals(List.of("0"), fast.take(1));
+
+        // The slow client's sender is stuck on line 0; the listener and the fast client keep going.
+        for (long first = 1; first <= BuildLogStreamService.MAX_QUEUED_LINES + 1; first += 100) {
+            streamService.onMessage(CHANNEL, message(LongStream.range(first, first + 100).toArray()));
+            assertEquals(100, fast.take(100).size());
+        }
+
+        assertFalse(slow.completed.get(5, TimeUnit.SECONDS));
+        stuck.countDown();
+    }
+
+    @Test
+    void drain_ShouldCompleteWithError_WhenTheClientIsGone() throws Exception {
+        recentLines();
+        RecordingEmitter gone = new RecordingEmitter();
+        gone.failing = true;
+        emitters.add(gone);
+        streamService.subscribe(ID, null, stored(), false);
+
+        streamService.onMessage(CHANNEL, message(0, 1));
+
+        assertFalse(gone.completed.get(5, TimeUnit.SECONDS));
+    }
+
+    private void recentLines(long... ids) {
+        when(listOperations.range(eq(CHANNEL + ":recent"), anyLong(), anyLong()))
+                .thenReturn(LongStream.of(ids).mapToObj(BuildLogStreamServiceTest::json).toList());
+    }
+
+    private static LongFunction<BuildLogPageDto> stored(long... ids) {
+        return cursor -> {
+            List<BuildLog> after = lines(LongStream.of(ids).filter(id -> id > cursor).toArray());
+            return new BuildLogPageDto(after, after.isEmpty() ? cursor : after.get(after.size() - 1).getId(), false);
+        };
+    }
+
+    private static List<BuildLog> lines(long... ids) {
+        return LongStream.of(ids)
+                .mapToObj(id -> BuildLog.builder().id(id).deploymentId(ID).content("line " + id).timestamp(START).build())
+                .toList();
+    }
+
+    private static String message(long... ids) {
+        return LongStream.of(ids).mapToObj(BuildLogStreamServiceTest::json)
+                .collect(Collectors.joining(",", "{\"lines\":[", "]}"));
+    }
+
+    private static String json(long id) {
+        return "{\"id\":" + id + ",\"content\":\"line " + id + "\",\"timestamp\":\"" + START + "\"}";
+    }
+
+    /**
+     * Records the ids of the log events (and "end") instead of writing them to a response.
+     */
+    private static class RecordingEmitter extends SseEmitter {
+        private final BlockingQueue<String> events = new LinkedBlockingQueue<>();
+        // Completed with true on complete(), false on completeWithError().
+        private final CompletableFuture<Boolean> completed = new CompletableFuture<>();
+        private volatile CountDownLatch gate;
+        private volatile boolean failing;
+
+        @Override
+        public void send(SseEventBuilder builder) throws IOException {
+            if (failing) throw new IOException("Broken pipe");
+            if (gate != null) {
+                try {
+                    gate.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            Set<DataWithMediaType> parts = builder.build();
+            for (DataWithMediaType part : parts) {
+                if (part.getData() instanceof BuildLog line && MediaType.APPLICATION_JSON.equals(part.getMediaType())) {
+                    events.add(Long.toString(line.getId()));
+                } else if (part.getData().toString().contains("event:end")) {
+                    events.add("end");
+                }
+            }
+        }
+
+        @Override
+        public void complete() {
+            completed.complete(true);
+        }
+
+        @Override
+        public void completeWithError(Throwable ex) {
+            completed.complete(false);
+        }
+
+        List<String> take(int count) throws InterruptedException {
+            List<String> taken = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                String event = events.poll(5, TimeUnit.SECONDS);
+                if (event == null) break;
+                taken.add(event);
+            }
+            return taken;
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package org.godn.uploadservice.log;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.Base64;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class LogChunkFormatTest {
+
+    private static final LocalDateTime START = LocalDateTime.of(2026, 1, 5, 12, 0, 0);
+    private static final List<LogChunkFormat.Line> LINES = List.of(
+            new LogChunkFormat.Line(START, "> vite build"),
+            new LogChunkFormat.Line(START.plusNanos(1_000_000), ""),
+            new LogChunkFormat.Line(START.plusSeconds(2), "✓ 42 modules transformed. ünïcode"));
+    // LINES as encoded by the Deploy-Service, which writes the chunks (see its LogChunkFormatTest).
+    private static final String FIXTURE = "H4sIAAAAAAAA/2NkYGBgZoAAHigGAUYGBvYLdgplmSWpCkmlmTkpj+ZMVjAxUsjNTynNSS1WKClKzCtOyy/KTU3RUzi8J+/w+uT8lFQAzmDnOk4AAAA=";
+
+    @Test
+    void decode_ShouldReadChunksWrittenByTheDeployService() {
+        assertEquals(LINES, LogChunkFormat.decode(START, Base64.getDecoder().decode(FIXTURE)));
+    }
+
+    @Test
+    void decode_ShouldReturnTheEncodedLines() {
+        assertEquals(LINES, LogChunkFormat.decode(START, LogChunkFormat.encode(START, LINES)));
+    }
+}
@@ -3,16 +3,20 @@ package org.godn.uploadservice.queue;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
-import org.springframework.data.redis.core.ListOperations;
 import org.springframework.data.redis.core.StringRedisTemplate;
-import org.springframework.test.util.ReflectionTestUtils;
 
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyList;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
-import static org.mockito.Mockito.verify;
-import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.*;
 
 @ExtendWith(MockitoExtension.class)
 class RedisQueueServiceTest {
@@ -20,27 +24,70 @@ class RedisQueueServiceTest {
     @Mock
     private StringRedisTemplate redisTemplate;
 
-    @Mock
-    private ListOperations<String, String> listOperations;
-
     private RedisQueueService redisQueueService;
     private final String QUEUE_KEY = "test_build_queue";
+    private final String PENDING_KEY = QUEUE_KEY + ":pending";
+    private final String WINDOW = String.valueOf(Duration.ofMinutes(60).toMillis());
 
     @BeforeEach
     void setUp() {
-        // Mock the opsForList() chain
-        when(redisTemplate.opsForList()).thenReturn(listOperations);
-
         // Use constructor injection
-        redisQueueService = new RedisQueueService(redisTemplate, QUEUE_KEY);
+        redisQueueService = new RedisQueueService(redisTemplate, QUEUE_KEY, "list", 60);
     }
 
     @Test
     void pushToQueue_ShouldAddToList() {
         String uploadId = "12345";
 
-        redisQueueService.pushToQueue(uploadId);
+        redisQueueService.pushToQueue(uploadId, "owner-1");
+
+        ArgumentCaptor<Object> entry = ArgumentCaptor.forClass(Object.class);
+        verify(redisTemplate).execute(eq(RedisQueueService.LIST_ENQUEUE_SCRIPT), eq(List.of(PENDING_KEY, QUEUE_KEY)),
+                eq(uploadId), entry.capture(), anyString(), eq(WINDOW));
+        assertTrue(entry.getValue().toString().startsWith("{\"deploymentId\":\"12345\",\"enqueuedAt\":"));
+    }
+
+    @Test
+    void pushToQueue_ShouldAddToStream_WithTheRequest_InStreamMode() {
+        String uploadId = "12345";
+        RedisQueueService streamQueue = new RedisQueueService(redisTemplate, QUEUE_KEY, "stream", 60);
+
+        streamQueue.pushToQueue(uploadId, "owner-1");
+
+        verify(redisTemplate).execute(eq(RedisQueueService.STREAM_ENQUEUE_SCRIPT),
+                eq(List.of(PENDING_KEY, QUEUE_KEY + ":stream")),
+                eq(uploadId), anyString(), anyString(), eq(WINDOW),
+                eq(RedisQueueService.STREAM_FIELD), eq(RedisQueueService.REQUEST_FIELD));
+    }
+
+    @Test
+    void pushToQueue_ShouldAddToOwnerQueue_InFairMode() {
+        String uploadId = "12345";
+        RedisQueueService fairQueue = new RedisQueueService(redisTemplate, QUEUE_KEY, "fair", 60);
+
+        fairQueue.pushToQueue(uploadId, "owner-1");
+
+        ArgumentCaptor<Object> owner = ArgumentCaptor.forClass(Object.class);
+        verify(redisTemplate).execute(eq(RedisQueueService.FAIR_ENQUEUE_SCRIPT),
+                eq(List.of(PENDING_KEY, QUEUE_KEY + ":fair:owners", QUEUE_KEY + ":fair:ready")),
+                eq(uploadId), anyString(), anyString(), eq(WINDOW), eq(QUEUE_KEY + ":fair:owner:"), owner.capture());
+        assertEquals("owner-1", owner.getValue());
+    }
+
+    @Test
+    void pushToQueue_ShouldLeaveTheWindowCheckToTheScript() {
+        long before = System.currentTimeMillis();
+
+        redisQueueService.pushToQueue("12345", "owner-1");
 
-        verify(listOperations).rightPush(QUEUE_KEY, uploadId);
+        // No HGET beforehand: checking and recording the request is one atomic step in Redis.
+        ArgumentCaptor<Object> entry = ArgumentCaptor.forClass(Object.class);
+        ArgumentCaptor<Object> now = ArgumentCaptor.forClass(Object.class);
+        verify(redisTemplate).execute(eq(RedisQueueService.LIST_ENQUEUE_SCRIPT), anyList(),
+                eq("12345"), entry.capture(), now.capture(), eq(WINDOW));
+        verify(redisTemplate, never()).opsForHash();
+        long requestedAt = Long.parseLong(now.getValue().toString());
+        assertTrue(requestedAt >= before);
+        assertEquals("{\"deploymentId\":\"12345\",\"enqueuedAt\":" + requestedAt + "}", entry.getValue());
     }
-}
\ No newline at end of file
+}
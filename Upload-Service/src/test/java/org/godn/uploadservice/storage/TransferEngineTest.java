@@ -0,0 +1,53 @@
+package org.godn.uploadservice.storage;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * The engine's behaviour is tested once, in Deploy-Service's TransferEngineTest; this copy is checked to match
+ * that one, and to run on the virtual threads Upload gives it.
+ */
+class TransferEngineTest {
+
+    private static final Path UPLOAD_COPY = Path.of("src/main/java/org/godn/uploadservice/storage/TransferEngine.java");
+    private static final Path DEPLOY_COPY = Path.of("../Deploy-Service/src/main/java/org/godn/deployservice/storage/TransferEngine.java");
+
+    @Test
+    void source_ShouldMatchTheDeployServiceCopy() throws IOException {
+        // Only there when both services are checked out side by side.
+        assumeTrue(Files.exists(DEPLOY_COPY));
+
+        assertEquals(withoutPackage(DEPLOY_COPY), withoutPackage(UPLOAD_COPY));
+    }
+
+    @Test
+    void transferAll_ShouldRunOnVirtualThreads() throws Exception {
+        // Upload runs its transfers on virtual threads by default (transfer.virtual-threads).
+        try (ExecutorService executor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("s3-transfer-", 0).factory())) {
+            TransferEngine engine = new TransferEngine(executor, new SimpleMeterRegistry(), 4, 32);
+            AtomicInteger virtual = new AtomicInteger();
+
+            engine.transferAll(IntStream.range(0, 20).boxed().toList(), item -> {
+                if (Thread.currentThread().isVirtual()) virtual.incrementAndGet();
+            }).get(10, TimeUnit.SECONDS);
+
+            assertEquals(20, virtual.get());
+        }
+    }
+
+    private static String withoutPackage(Path source) throws IOException {
+        return Files.readString(source).replaceFirst("package [\\w.]+;", "");
+    }
+}
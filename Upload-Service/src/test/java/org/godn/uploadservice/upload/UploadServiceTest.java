@@ -6,6 +6,7 @@ import org.godn.uploadservice.deployment.DeploymentResponseDto;
 import org.godn.uploadservice.deployment.DeploymentService;
 import org.godn.uploadservice.queue.RedisQueueService;
 import org.godn.uploadservice.storage.S3UploadService;
+import org.godn.uploadservice.storage.TransferEngine;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -29,6 +30,7 @@ class UploadServiceTest {
     @Mock private S3UploadService s3UploadService;
     @Mock private RedisQueueService redisQueueService;
     @Mock private DeploymentService deploymentService;
+    @Mock private TransferEngine transferEngine;
     @Mock private UploadService selfProxy;
     @InjectMocks private UploadService uploadService;
 